@@ -0,0 +1,62 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.export;
+
+import java.io.File;
+
+/**
+ * Interface definition for callbacks from an {@link ExportScheduler} job. The callbacks are made from the worker threads.
+ */
+public interface ExportListener {
+
+    /**
+     * Called whenever a unit of work is done, a page or a band of a large image.
+     *
+     * @param completed units of work done so far
+     * @param total     units of work in the job
+     */
+    public void onProgress(int completed, int total);
+
+    /**
+     * Called when a page was written.
+     *
+     * @param page index of the page in the job
+     * @param file file the page was written to
+     */
+    public void onPageExported(int page, File file);
+
+    /**
+     * Called when a page could not be written. The other pages of the job are still exported.
+     *
+     * @param page  index of the page in the job
+     * @param error cause of the failure
+     */
+    public void onPageFailed(int page, Exception error);
+
+    /**
+     * Called once when every page of the job was written or failed, or when the job was cancelled.
+     *
+     * @param cancelled true if the job was cancelled
+     */
+    public void onFinished(boolean cancelled);
+}
@@ -0,0 +1,426 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.export;
+
+import com.improvelectronics.sync.Config;
+import com.improvelectronics.sync.j2se.SyncCaptureReport;
+import com.improvelectronics.sync.j2se.SyncStroke;
+import com.improvelectronics.sync.j2se.SyncUtilities;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+
+/**
+ * Exports many pages at once on a fixed pool of worker threads, for example every page of every Sync at the end of a class. Every page is
+ * a separate task, and PNG images larger than {@link #BAND_PIXELS} pixels are also split into horizontal bands that are rendered in
+ * parallel into the same image. A job reports its progress to an {@link ExportListener} and can be cancelled.
+ * </p>
+ * Pages are lists of strokes that must not change during the export, such as {@link com.improvelectronics.sync.ink.StrokeStore.Snapshot}
+ * snapshots. Pages have the size and orientation of the PDFs saved by the Sync.
+ */
+public class ExportScheduler {
+    private static final Logger Log = Logger.getLogger(ExportScheduler.class.getName());
+    private static final boolean DEBUG = Config.DEBUG;
+
+    /**
+     * Exports pages as PNG images.
+     */
+    public static final int FORMAT_PNG = 1;
+
+    /**
+     * Exports pages as SVG documents.
+     */
+    public static final int FORMAT_SVG = 2;
+
+    /**
+     * Exports pages as single page PDF documents.
+     */
+    public static final int FORMAT_PDF = 3;
+
+    /**
+     * Default PNG resolution in pixels per point of the page, giving images of 1582 by 2300 pixels.
+     */
+    public static final float DEFAULT_PNG_SCALE = 2.0f;
+
+    /**
+     * PNG images are rendered in bands of about this many pixels.
+     */
+    public static final int BAND_PIXELS = 1024 * 1024;
+
+    private final ExecutorService mExecutor;
+    private volatile float mPngScale = DEFAULT_PNG_SCALE;
+
+    /**
+     * Creates a scheduler with one worker thread per processor.
+     */
+    public ExportScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads number of worker threads
+     */
+    public ExportScheduler(int threads) {
+        mExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ExportWorker-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Sets the resolution of PNG images for jobs started from now on.
+     *
+     * @param scale pixels per point of the page
+     */
+    public void setPngScale(float scale) {
+        mPngScale = scale;
+    }
+
+    /**
+     * Starts exporting pages. Page i is written to {@code <directory>/<baseName>-<i + 1>.<extension>}.
+     *
+     * @param pages     strokes of every page
+     * @param format    one of {@link #FORMAT_PNG}, {@link #FORMAT_SVG} or {@link #FORMAT_PDF}
+     * @param directory directory to write to
+     * @param baseName  start of the file names
+     * @param listener  listener for the progress of the job, may be null
+     * @return the job, which can be waited for or cancelled
+     */
+    public Job export(List<? extends List<SyncStroke>> pages, int format, File directory, String baseName, ExportListener listener) {
+        String extension;
+        switch (format) {
+            case FORMAT_PNG:
+                extension = ".png";
+                break;
+            case FORMAT_SVG:
+                extension = ".svg";
+                break;
+            case FORMAT_PDF:
+                extension = ".pdf";
+                break;
+            default:
+                throw new IllegalArgumentException("unknown format " + format);
+        }
+
+        Job job = new Job(listener);
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < pages.size(); i++) {
+            File file = new File(directory, baseName + "-" + (i + 1) + extension);
+            if (format == FORMAT_PNG) {
+                new PngPage(job, i, pages.get(i), file, mPngScale).addTasks(tasks);
+            } else {
+                tasks.add(new DocumentPage(job, i, pages.get(i), file, format));
+            }
+        }
+        job.start(tasks);
+        return job;
+    }
+
+    /**
+     * Stops the worker threads once the submitted jobs are done.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * A set of pages being exported.
+     */
+    public class Job {
+        private final ExportListener mListener;
+        private final List<Future<?>> mFutures = new ArrayList<Future<?>>();
+        private final AtomicInteger mCompleted = new AtomicInteger();
+        private final AtomicInteger mFailed = new AtomicInteger();
+        private CountDownLatch mDone;
+        private int mTotal;
+        private volatile boolean mCancelled;
+
+        private Job(ExportListener listener) {
+            mListener = listener;
+        }
+
+        private synchronized void start(List<Runnable> tasks) {
+            mTotal = tasks.size();
+            mDone = new CountDownLatch(mTotal);
+            if (mTotal == 0) {
+                if (mListener != null) mListener.onFinished(false);
+                return;
+            }
+            for (Runnable task : tasks) mFutures.add(mExecutor.submit(task));
+        }
+
+        /**
+         * Cancels the job. Pages that are being written are abandoned at the next stroke, pages that were not started are skipped.
+         */
+        public void cancel() {
+            mCancelled = true;
+            synchronized (this) {
+                for (Future<?> future : mFutures) {
+                    // Tasks that never run have to be counted here.
+                    if (future.cancel(false)) unitDone();
+                }
+            }
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        public boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        /**
+         * Waits for every page of the job to be written, to fail or to be skipped after a cancel.
+         */
+        public void await() throws InterruptedException {
+            mDone.await();
+        }
+
+        /**
+         * Returns the number of pages that could not be written, not counting the ones skipped after a cancel.
+         */
+        public int getFailedCount() {
+            return mFailed.get();
+        }
+
+        void checkCancelled() {
+            if (mCancelled) throw new CancellationException();
+        }
+
+        void pageExported(int page, File file) {
+            if (mListener != null) mListener.onPageExported(page, file);
+        }
+
+        void pageFailed(int page, File file, Exception error) {
+            if (!file.delete() && file.exists()) Log.log(Level.WARNING, "unable to delete " + file);
+            if (error instanceof CancellationException) return;
+            mFailed.incrementAndGet();
+            Log.log(Level.SEVERE, "unable to export page " + page + " to " + file, error);
+            if (mListener != null) mListener.onPageFailed(page, error);
+        }
+
+        void unitDone() {
+            int completed = mCompleted.incrementAndGet();
+            if (mListener != null && !mCancelled) mListener.onProgress(completed, mTotal);
+            mDone.countDown();
+            if (completed == mTotal) {
+                if (DEBUG) Log.log(Level.INFO, "export finished, " + mFailed.get() + " pages failed");
+                if (mListener != null) mListener.onFinished(mCancelled);
+            }
+        }
+    }
+
+    /**
+     * Writes a page to an SVG or PDF document in a single task.
+     */
+    private static class DocumentPage implements Runnable {
+        private final Job mJob;
+        private final int mPage;
+        private final List<SyncStroke> mStrokes;
+        private final File mFile;
+        private final int mFormat;
+
+        DocumentPage(Job job, int page, List<SyncStroke> strokes, File file, int format) {
+            mJob = job;
+            mPage = page;
+            mStrokes = strokes;
+            mFile = file;
+            mFormat = format;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mJob.checkCancelled();
+                if (mFormat == FORMAT_PDF) {
+                    PdfStreamWriter writer = new PdfStreamWriter(mFile);
+                    try {
+                        for (SyncStroke stroke : mStrokes) {
+                            mJob.checkCancelled();
+                            writer.writeStroke(stroke);
+                        }
+                    } finally {
+                        writer.close();
+                    }
+                } else {
+                    SvgWriter writer = new SvgWriter(mFile);
+                    try {
+                        for (SyncStroke stroke : mStrokes) {
+                            mJob.checkCancelled();
+                            writer.writeStroke(stroke);
+                        }
+                    } finally {
+                        writer.close();
+                    }
+                }
+                mJob.pageExported(mPage, mFile);
+            } catch (Exception e) {
+                mJob.pageFailed(mPage, mFile, e);
+            } finally {
+                mJob.unitDone();
+            }
+        }
+    }
+
+    /**
+     * Renders a page to a PNG image in bands. The band that finishes last encodes the image.
+     */
+    private static class PngPage {
+        private final Job mJob;
+        private final int mPage;
+        private final List<SyncStroke> mStrokes;
+        private final File mFile;
+        private final float mScale;
+        private final int mWidth, mHeight;
+        private final AtomicInteger mRemainingBands = new AtomicInteger();
+        private volatile Exception mError;
+        private BufferedImage mImage;
+
+        PngPage(Job job, int page, List<SyncStroke> strokes, File file, float scale) {
+            mJob = job;
+            mPage = page;
+            mStrokes = strokes;
+            mFile = file;
+            mScale = scale;
+            mWidth = (int) Math.ceil(SyncUtilities.PDF_WIDTH * scale);
+            mHeight = (int) Math.ceil(SyncUtilities.PDF_HEIGHT * scale);
+        }
+
+        void addTasks(List<Runnable> tasks) {
+            int bandHeight = Math.max(64, BAND_PIXELS / mWidth);
+            int bands = (mHeight + bandHeight - 1) / bandHeight;
+            mRemainingBands.set(bands);
+            for (int band = 0; band < bands; band++) {
+                final int top = band * bandHeight;
+                final int bottom = Math.min(mHeight, top + bandHeight);
+                tasks.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        renderBand(top, bottom);
+                    }
+                });
+            }
+        }
+
+        private void renderBand(int top, int bottom) {
+            try {
+                if (mError == null) {
+                    mJob.checkCancelled();
+                    drawBand(top, bottom);
+                }
+            } catch (Exception e) {
+                mError = e;
+            } finally {
+                if (mRemainingBands.decrementAndGet() == 0) finish();
+                mJob.unitDone();
+            }
+        }
+
+        private synchronized BufferedImage getImage() {
+            if (mImage == null) mImage = new BufferedImage(mWidth, mHeight, BufferedImage.TYPE_INT_RGB);
+            return mImage;
+        }
+
+        private void drawBand(int top, int bottom) {
+            Graphics2D g = getImage().createGraphics();
+            try {
+                g.clipRect(0, top, mWidth, bottom - top);
+                g.setColor(Color.WHITE);
+                g.fillRect(0, top, mWidth, bottom - top);
+                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+                g.setColor(Color.BLACK);
+
+                // Digitizer units to pixels, the same orientation as the PDF page with the y axis pointing down.
+                g.transform(SyncUtilities.getPageTransform(mScale));
+
+                // The band in digitizer units along x, which points up, widened by the widest line the filter produces.
+                float pixelsPerUnit = mScale * SyncUtilities.PDF_HEIGHT / SyncCaptureReport.MAX_X;
+                float pageHeight = mScale * SyncUtilities.PDF_HEIGHT;
+                float minX = (pageHeight - bottom) / pixelsPerUnit - 100, maxX = (pageHeight - top) / pixelsPerUnit + 100;
+                Line2D.Float line = new Line2D.Float();
+                for (SyncStroke stroke : mStrokes) {
+                    mJob.checkCancelled();
+                    drawStroke(g, stroke, line, minX, maxX);
+                }
+            } finally {
+                g.dispose();
+            }
+        }
+
+        private static void drawStroke(Graphics2D g, SyncStroke stroke, Line2D.Float line, float minX, float maxX) {
+            float width = -1;
+            int vertices = stroke.getVertexCount();
+            for (int i = vertices > 1 ? 1 : 0; i < vertices; i++) {
+                int from = i > 0 ? i - 1 : 0;
+                float x0 = stroke.getX(from), x1 = stroke.getX(i);
+                if (Math.max(x0, x1) < minX || Math.min(x0, x1) > maxX) continue;
+
+                if (stroke.getWidth(i) != width) {
+                    width = stroke.getWidth(i);
+                    g.setStroke(new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+                }
+                line.setLine(x0, stroke.getY(from), x1, stroke.getY(i));
+                g.draw(line);
+            }
+        }
+
+        private void finish() {
+            try {
+                if (mError != null) throw mError;
+                mJob.checkCancelled();
+                if (!ImageIO.write(getImage(), "png", mFile)) throw new IOException("no PNG encoder");
+                mJob.pageExported(mPage, mFile);
+            } catch (Exception e) {
+                mJob.pageFailed(mPage, mFile, e);
+            } finally {
+                mImage = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Helpers shared by the exporters, which write mostly numbers to text based formats.
+ */
+class ExportUtilities {
+
+    /**
+     * Size of the buffer needed by {@link #writeNumber(OutputStream, float, byte[])}.
+     */
+    static final int NUMBER_BUFFER_SIZE = 24;
+
+    /**
+     * Writes a string that only holds characters up to 0xFF, one byte per character.
+     */
+    static void writeAscii(OutputStream out, String text) throws IOException {
+        for (int i = 0, length = text.length(); i < length; i++) out.write(text.charAt(i));
+    }
+
+    /**
+     * Writes a number with at most two decimals and no trailing zeros, without creating strings.
+     *
+     * @param out    stream to write to
+     * @param value  number to write
+     * @param buffer scratch buffer of {@link #NUMBER_BUFFER_SIZE} bytes
+     */
+    static void writeNumber(OutputStream out, float value, byte[] buffer) throws IOException {
+        long hundredths = Math.round(value * 100.0);
+        int position = buffer.length;
+        boolean negative = hundredths < 0;
+        if (negative) hundredths = -hundredths;
+
+        long fraction = hundredths % 100;
+        long whole = hundredths / 100;
+        if (fraction != 0) {
+            if (fraction % 10 == 0) {
+                buffer[--position] = (byte) ('0' + fraction / 10);
+            } else {
+                buffer[--position] = (byte) ('0' + fraction % 10);
+                buffer[--position] = (byte) ('0' + fraction / 10);
+            }
+            buffer[--position] = '.';
+        }
+        do {
+            buffer[--position] = (byte) ('0' + whole % 10);
+            whole /= 10;
+        } while (whole != 0);
+        if (negative) buffer[--position] = '-';
+        out.write(buffer, position, buffer.length - position);
+    }
+}
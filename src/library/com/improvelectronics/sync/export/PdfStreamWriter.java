@@ -0,0 +1,350 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.export;
+
+import com.improvelectronics.sync.j2se.Filtering;
+import com.improvelectronics.sync.j2se.StrokeBuilder;
+import com.improvelectronics.sync.j2se.SyncStroke;
+import com.improvelectronics.sync.j2se.SyncStrokeListener;
+import com.improvelectronics.sync.j2se.SyncUtilities;
+import com.improvelectronics.sync.session.SessionFormat;
+import com.improvelectronics.sync.session.SessionReader;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes strokes to a PDF file as they are completed, without keeping the pages in memory. Every stroke is written to the content stream
+ * of the current page right away; the length of a content stream is written as a separate object after the stream, and the cross
+ * reference table is written when the writer is closed. Only the file offset of every object is kept, a few per page, so a session of
+ * several hours can be turned into a PDF with a constant heap.
+ * </p>
+ * Pages are {@link SyncUtilities#PDF_WIDTH} by {@link SyncUtilities#PDF_HEIGHT} points, the same size as the PDFs saved by the Sync. A new
+ * page is started with {@link #newPage()}, normally when the Sync is erased or saves; empty pages are skipped. The writer can be added as
+ * a {@link SyncStrokeListener} to write strokes as they are drawn.
+ */
+public class PdfStreamWriter implements SyncStrokeListener {
+
+    // Smallest change in line width, in points, that starts a new path.
+    private static final float WIDTH_STEP = 0.05f;
+
+    // Objects written when the file is closed.
+    private static final int CATALOG_OBJECT = 1;
+    private static final int PAGES_OBJECT = 2;
+    private static final int FIRST_FREE_OBJECT = 3;
+
+    private final CountingOutputStream mOutput;
+
+    // File offset of every object, indexed by object number.
+    private long[] mOffsets = new long[64];
+    private int mNextObject = FIRST_FREE_OBJECT;
+
+    private int[] mPageObjects = new int[16];
+    private int mPageCount;
+
+    // Content stream of the page being written, -1 if no page is open.
+    private long mStreamStart = -1;
+    private int mLengthObject;
+    private float mLineWidth;
+    private IOException mError;
+    private boolean mClosed;
+
+    // Buffer used to format numbers without creating strings.
+    private final byte[] mNumber = new byte[ExportUtilities.NUMBER_BUFFER_SIZE];
+
+    /**
+     * Creates a writer for a new file.
+     *
+     * @param file file to write, replaced if it exists
+     */
+    public PdfStreamWriter(File file) throws IOException {
+        this(new FileOutputStream(file));
+    }
+
+    /**
+     * @param out stream to write, closed when the writer is closed
+     */
+    public PdfStreamWriter(OutputStream out) throws IOException {
+        mOutput = new CountingOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        // The binary comment tells transfer programs the file is not text.
+        writeAscii("%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n");
+    }
+
+    /**
+     * Converts a recorded session to a PDF, starting a new page whenever the Sync was erased or saved.
+     *
+     * @param session session file to read
+     * @param pdf     PDF file to write
+     */
+    public static void export(File session, File pdf) throws IOException {
+        SessionReader reader = new SessionReader(session);
+        PdfStreamWriter writer = new PdfStreamWriter(pdf);
+        try {
+            Filtering filtering = new Filtering();
+            StrokeBuilder builder = new StrokeBuilder();
+            builder.addListener(writer);
+
+            long previousIndex = -1;
+            while (reader.next()) {
+                if (reader.isFirstInChunk() && (reader.getChunkFlags() & (SessionFormat.CHUNK_ERASE | SessionFormat.CHUNK_SAVE)) != 0) {
+                    writer.newPage();
+                }
+                int elapsed = Filtering.elapsedSamples(previousIndex, reader.getSampleIndex());
+                filtering.filter(reader.getX(), reader.getY(), reader.getPressure(), reader.getFlags(), elapsed, builder);
+                previousIndex = reader.getSampleIndex();
+            }
+            builder.onTraceEnd();
+        } finally {
+            reader.close();
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes a complete stroke to the current page, starting the page if needed.
+     *
+     * @param stroke stroke to write
+     */
+    public synchronized void writeStroke(SyncStroke stroke) throws IOException {
+        if (mClosed) throw new IOException("writer is closed");
+        int vertices = stroke.getVertexCount();
+        if (vertices == 0) return;
+        if (mStreamStart < 0) beginPage();
+
+        setLineWidth(stroke.getWidth(vertices > 1 ? 1 : 0));
+        moveTo(stroke, 0);
+        if (vertices == 1) lineTo(stroke, 0);
+
+        for (int i = 1; i < vertices; i++) {
+            float width = SyncUtilities.toPdfWidth(stroke.getWidth(i));
+            if (Math.abs(width - mLineWidth) >= WIDTH_STEP) {
+                // The line width of a path is fixed, so finish the path and continue with a new one from the same point.
+                writeAscii("S\n");
+                setLineWidth(stroke.getWidth(i));
+                moveTo(stroke, i - 1);
+            }
+            lineTo(stroke, i);
+        }
+        writeAscii("S\n");
+    }
+
+    /**
+     * Finishes the current page. The next stroke is written to a new page. Does nothing if the current page is empty.
+     */
+    public synchronized void newPage() throws IOException {
+        if (mStreamStart >= 0) endPage();
+    }
+
+    /**
+     * Returns the number of pages written so far, including the one being written.
+     */
+    public synchronized int getPageCount() {
+        return mPageCount;
+    }
+
+    /**
+     * Finishes the current page and writes the page tree, the cross reference table and the trailer.
+     */
+    public synchronized void close() throws IOException {
+        if (mClosed) return;
+        mClosed = true;
+
+        try {
+            if (mStreamStart >= 0) endPage();
+            if (mPageCount == 0) {
+                // A PDF needs at least one page.
+                beginPage();
+                endPage();
+            }
+
+            beginObject(PAGES_OBJECT);
+            writeAscii("<< /Type /Pages /Count ");
+            writeInt(mPageCount);
+            writeAscii(" /Kids [");
+            for (int i = 0; i < mPageCount; i++) {
+                writeAscii(" ");
+                writeInt(mPageObjects[i]);
+                writeAscii(" 0 R");
+            }
+            writeAscii(" ] >>\nendobj\n");
+
+            beginObject(CATALOG_OBJECT);
+            writeAscii("<< /Type /Catalog /Pages " + PAGES_OBJECT + " 0 R >>\nendobj\n");
+
+            long xref = mOutput.getCount();
+            writeAscii("xref\n0 " + mNextObject + "\n0000000000 65535 f \n");
+            for (int object = 1; object < mNextObject; object++) {
+                String offset = Long.toString(mOffsets[object]);
+                writeAscii("0000000000".substring(offset.length()) + offset + " 00000 n \n");
+            }
+            writeAscii("trailer\n<< /Size " + mNextObject + " /Root " + CATALOG_OBJECT + " 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+        } finally {
+            mOutput.close();
+        }
+    }
+
+    /**
+     * Returns the first error hit while writing strokes passed to {@link #onStrokeEnd(SyncStroke)}, or null.
+     */
+    public synchronized IOException getError() {
+        return mError;
+    }
+
+    @Override
+    public void onStrokeStart(SyncStroke stroke) {
+    }
+
+    @Override
+    public void onStrokeUpdate(SyncStroke stroke, int firstVertex) {
+    }
+
+    @Override
+    public synchronized void onStrokeEnd(SyncStroke stroke) {
+        if (mError != null) return;
+        try {
+            writeStroke(stroke);
+        } catch (IOException e) {
+            mError = e;
+        }
+    }
+
+    /**
+     * Writes the page object and starts its content stream. The page refers to the stream and the stream to its length, both written
+     * later.
+     */
+    private void beginPage() throws IOException {
+        int pageObject = mNextObject++;
+        int contentObject = mNextObject++;
+        mLengthObject = mNextObject++;
+
+        if (mPageCount == mPageObjects.length) mPageObjects = Arrays.copyOf(mPageObjects, mPageCount * 2);
+        mPageObjects[mPageCount++] = pageObject;
+
+        beginObject(pageObject);
+        writeAscii("<< /Type /Page /Parent " + PAGES_OBJECT + " 0 R /MediaBox [0 0 ");
+        writeNumber(SyncUtilities.PDF_WIDTH);
+        writeAscii(" ");
+        writeNumber(SyncUtilities.PDF_HEIGHT);
+        writeAscii("] /Resources << >> /Contents " + contentObject + " 0 R >>\nendobj\n");
+
+        beginObject(contentObject);
+        writeAscii("<< /Length " + mLengthObject + " 0 R >>\nstream\n");
+        mStreamStart = mOutput.getCount();
+
+        // Round caps and joins, like the strokes drawn on screen.
+        writeAscii("1 J 1 j\n");
+        mLineWidth = -1;
+    }
+
+    private void endPage() throws IOException {
+        long length = mOutput.getCount() - mStreamStart;
+        writeAscii("\nendstream\nendobj\n");
+        mStreamStart = -1;
+
+        beginObject(mLengthObject);
+        writeAscii(length + "\nendobj\n");
+    }
+
+    private void beginObject(int object) throws IOException {
+        if (object >= mOffsets.length) mOffsets = Arrays.copyOf(mOffsets, Math.max(object + 1, mOffsets.length * 2));
+        mOffsets[object] = mOutput.getCount();
+        writeInt(object);
+        writeAscii(" 0 obj\n");
+    }
+
+    private void setLineWidth(float width) throws IOException {
+        mLineWidth = SyncUtilities.toPdfWidth(width);
+        writeNumber(mLineWidth);
+        writeAscii(" w\n");
+    }
+
+    private void moveTo(SyncStroke stroke, int vertex) throws IOException {
+        writePoint(stroke.getX(vertex), stroke.getY(vertex));
+        writeAscii(" m\n");
+    }
+
+    private void lineTo(SyncStroke stroke, int vertex) throws IOException {
+        writePoint(stroke.getX(vertex), stroke.getY(vertex));
+        writeAscii(" l\n");
+    }
+
+    private void writePoint(float x, float y) throws IOException {
+        writeNumber(SyncUtilities.toPdfX(x, y));
+        mOutput.write(' ');
+        writeNumber(SyncUtilities.toPdfY(x, y));
+    }
+
+    private void writeAscii(String text) throws IOException {
+        ExportUtilities.writeAscii(mOutput, text);
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeAscii(Long.toString(value));
+    }
+
+    private void writeNumber(float value) throws IOException {
+        ExportUtilities.writeNumber(mOutput, value, mNumber);
+    }
+
+    /**
+     * Keeps track of the file offset for the cross reference table.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream mOut;
+        private long mCount;
+
+        CountingOutputStream(OutputStream out) {
+            mOut = out;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mOut.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mOut.write(b, off, len);
+            mCount += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+}
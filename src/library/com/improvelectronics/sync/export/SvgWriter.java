@@ -0,0 +1,134 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.export;
+
+import com.improvelectronics.sync.j2se.SyncStroke;
+import com.improvelectronics.sync.j2se.SyncUtilities;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the strokes of a page to an SVG file as they are passed in. The page has the size and orientation of the PDFs written by
+ * {@link PdfStreamWriter}, and every run of segments with the same line width becomes one path.
+ */
+public class SvgWriter {
+
+    // Smallest change in line width, in points, that starts a new path.
+    private static final float WIDTH_STEP = 0.05f;
+
+    private final OutputStream mOutput;
+    private final byte[] mNumber = new byte[ExportUtilities.NUMBER_BUFFER_SIZE];
+    private boolean mClosed;
+
+    /**
+     * Creates a writer for a new file.
+     *
+     * @param file file to write, replaced if it exists
+     */
+    public SvgWriter(File file) throws IOException {
+        this(new FileOutputStream(file));
+    }
+
+    /**
+     * @param out stream to write, closed when the writer is closed
+     */
+    public SvgWriter(OutputStream out) throws IOException {
+        mOutput = new BufferedOutputStream(out, 64 * 1024);
+        writeAscii("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"");
+        writeNumber(SyncUtilities.PDF_WIDTH);
+        writeAscii("pt\" height=\"");
+        writeNumber(SyncUtilities.PDF_HEIGHT);
+        writeAscii("pt\" viewBox=\"0 0 ");
+        writeNumber(SyncUtilities.PDF_WIDTH);
+        writeAscii(" ");
+        writeNumber(SyncUtilities.PDF_HEIGHT);
+        writeAscii("\">\n<g fill=\"none\" stroke=\"black\" stroke-linecap=\"round\" stroke-linejoin=\"round\">\n");
+    }
+
+    /**
+     * Writes a stroke.
+     *
+     * @param stroke stroke to write
+     */
+    public void writeStroke(SyncStroke stroke) throws IOException {
+        if (mClosed) throw new IOException("writer is closed");
+        int vertices = stroke.getVertexCount();
+        if (vertices == 0) return;
+
+        float lineWidth = SyncUtilities.toPdfWidth(stroke.getWidth(vertices > 1 ? 1 : 0));
+        beginPath(lineWidth, stroke, 0);
+        if (vertices == 1) writePoint(" L", stroke, 0);
+
+        for (int i = 1; i < vertices; i++) {
+            float width = SyncUtilities.toPdfWidth(stroke.getWidth(i));
+            if (Math.abs(width - lineWidth) >= WIDTH_STEP) {
+                writeAscii("\"/>\n");
+                lineWidth = width;
+                beginPath(lineWidth, stroke, i - 1);
+            }
+            writePoint(" L", stroke, i);
+        }
+        writeAscii("\"/>\n");
+    }
+
+    /**
+     * Finishes the document and closes the stream.
+     */
+    public void close() throws IOException {
+        if (mClosed) return;
+        mClosed = true;
+        try {
+            writeAscii("</g>\n</svg>\n");
+        } finally {
+            mOutput.close();
+        }
+    }
+
+    private void beginPath(float width, SyncStroke stroke, int vertex) throws IOException {
+        writeAscii("<path stroke-width=\"");
+        writeNumber(width);
+        writeAscii("\" d=\"");
+        writePoint("M", stroke, vertex);
+    }
+
+    private void writePoint(String command, SyncStroke stroke, int vertex) throws IOException {
+        float x = stroke.getX(vertex), y = stroke.getY(vertex);
+        writeAscii(command);
+        writeNumber(SyncUtilities.toPdfX(x, y));
+        mOutput.write(' ');
+        // SVG has the y axis pointing down.
+        writeNumber(SyncUtilities.PDF_HEIGHT - SyncUtilities.toPdfY(x, y));
+    }
+
+    private void writeAscii(String text) throws IOException {
+        ExportUtilities.writeAscii(mOutput, text);
+    }
+
+    private void writeNumber(float value) throws IOException {
+        ExportUtilities.writeNumber(mOutput, value, mNumber);
+    }
+}
@@ -0,0 +1,184 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.filter;
+
+import com.improvelectronics.sync.j2se.Filtering;
+import com.improvelectronics.sync.j2se.SyncSegmentListener;
+
+/**
+ * Turns many streams of capture reports into line segments at once, for example one per Sync connected to a gateway. Every stream has its
+ * own {@link Filtering}, and their dynamic filters are kept in a {@link BatchPdFilter}, so the samples of all streams that are drawing are
+ * smoothed in one vectorizable pass before each stream draws its segments. The segments are exactly those of a {@link Filtering} per
+ * stream.
+ * </p>
+ * Instances are not thread safe.
+ */
+public class BatchFiltering {
+    private final int mStreams;
+    private final BatchPdFilter mBatch;
+    private final Filtering[] mFilterings;
+
+    // Streams whose filter was already advanced by the batch for the current sample.
+    private final boolean[] mAdvanced;
+
+    /**
+     * @param streams number of streams
+     */
+    public BatchFiltering(int streams) {
+        mStreams = streams;
+        mBatch = new BatchPdFilter(streams);
+        mFilterings = new Filtering[streams];
+        mAdvanced = new boolean[streams];
+        for (int i = 0; i < streams; i++) mFilterings[i] = new Filtering(new Lane(i));
+    }
+
+    public int getStreamCount() {
+        return mStreams;
+    }
+
+    /**
+     * Returns the filtering of a stream, for example to filter a sample of only that stream or to predict its position.
+     *
+     * @param stream index of the stream
+     */
+    public Filtering getFiltering(int stream) {
+        return mFilterings[stream];
+    }
+
+    /**
+     * Filters one sample of every stream and passes the segments of each stream to its listener.
+     *
+     * @param x         digitizer x coordinate of the sample of every stream, indexed by stream
+     * @param y         digitizer y coordinate of the sample of every stream
+     * @param pressure  digitizer pressure reading of the sample of every stream
+     * @param flags     flags of the capture report of every stream
+     * @param listeners receives the segments and the end of the traces of every stream
+     */
+    public void filter(int[] x, int[] y, int[] pressure, byte[] flags, SyncSegmentListener[] listeners) {
+        filter(x, y, pressure, flags, null, listeners);
+    }
+
+    /**
+     * Filters one sample of every stream, some of which came several sample periods after the previous one, and passes the segments of
+     * each stream to its listener.
+     *
+     * @param x         digitizer x coordinate of the sample of every stream, indexed by stream
+     * @param y         digitizer y coordinate of the sample of every stream
+     * @param pressure  digitizer pressure reading of the sample of every stream
+     * @param flags     flags of the capture report of every stream
+     * @param elapsed   sample periods since the previous sample of every stream, null if none were lost
+     * @param listeners receives the segments and the end of the traces of every stream
+     */
+    public void filter(int[] x, int[] y, int[] pressure, byte[] flags, int[] elapsed, SyncSegmentListener[] listeners) {
+        if (flags.length < mStreams || listeners.length < mStreams || (elapsed != null && elapsed.length < mStreams)) {
+            throw new IllegalArgumentException("need a sample for each of the " + mStreams + " streams");
+        }
+
+        // Streams that start or end a trace with this sample are filtered on their own first. A trace that ends leaves the state of its
+        // filter unused, and one that starts resets it to this sample, which the batch pass below then leaves unchanged.
+        for (int i = 0; i < mStreams; i++) {
+            mAdvanced[i] = Filtering.isContact(flags[i]) && mFilterings[i].getPathState() != Filtering.PathState.NO_POINTS;
+            if (!mAdvanced[i]) mFilterings[i].filter(x[i], y[i], pressure[i], flags[i], elapsed(elapsed, i), listeners[i]);
+        }
+
+        mBatch.update(x, y, pressure);
+
+        // The streams in the middle of a trace find their filter already advanced.
+        for (int i = 0; i < mStreams; i++) {
+            if (mAdvanced[i]) mFilterings[i].filter(x[i], y[i], pressure[i], flags[i], elapsed(elapsed, i), listeners[i]);
+        }
+    }
+
+    private static int elapsed(int[] elapsed, int stream) {
+        return elapsed == null ? 1 : elapsed[stream];
+    }
+
+    /**
+     * The filter of one stream. An update is skipped when the batch already advanced the stream by the same sample.
+     */
+    private class Lane implements SmoothingFilter {
+        private final int mStream;
+        private final SmoothingFilter mState;
+
+        Lane(int stream) {
+            mStream = stream;
+            mState = mBatch.getStream(stream);
+        }
+
+        @Override
+        public void reset(int x, int y, int pressure) {
+            mState.reset(x, y, pressure);
+        }
+
+        @Override
+        public void update(int x, int y, int pressure) {
+            if (mAdvanced[mStream]) mAdvanced[mStream] = false;
+            else mState.update(x, y, pressure);
+        }
+
+        @Override
+        public float getX() {
+            return mState.getX();
+        }
+
+        @Override
+        public float getY() {
+            return mState.getY();
+        }
+
+        @Override
+        public float getPressure() {
+            return mState.getPressure();
+        }
+
+        @Override
+        public float getVelocityX() {
+            return mState.getVelocityX();
+        }
+
+        @Override
+        public float getVelocityY() {
+            return mState.getVelocityY();
+        }
+
+        @Override
+        public float getAccelerationX() {
+            return mState.getAccelerationX();
+        }
+
+        @Override
+        public float getAccelerationY() {
+            return mState.getAccelerationY();
+        }
+
+        @Override
+        public float getLag() {
+            return mState.getLag();
+        }
+
+        @Override
+        public SmoothingFilter newInstance() {
+            return mState.newInstance();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.filter;
+
+/**
+ * Runs the {@link PdFilter dynamic filter} for many streams of samples at once, for example one per Sync connected to a gateway. The state
+ * of every stream is kept in parallel arrays, one per quantity, and {@link #update(int[], int[], int[])} advances every stream by one
+ * sample in a single pass over each array. Those loops do the same integer operations on consecutive elements without branches, which
+ * the just-in-time compiler turns into vector instructions where the processor has them; the arrays are also read sequentially, so a few
+ * hundred streams fit in the cache. The results are exactly those of a {@link PdFilter} per stream.
+ * </p>
+ * Streams that have no new sample in a tick are advanced one at a time with {@link #update(int, int, int, int)}. {@link #getStream(int)}
+ * returns a stream as a {@link SmoothingFilter}, backed by the arrays, for code that filters one stream at a time.
+ * {@link BatchFiltering} uses this to turn the samples of many streams into segments. Instances are not thread safe.
+ */
+public class BatchPdFilter {
+    private final int mStreams;
+
+    // State of every stream, indexed by stream.
+    private final int[] mX, mY, mPressure;
+    private final int[] mVelocityX, mVelocityY, mVelocityPressure;
+    private final int[] mAccelerationX, mAccelerationY;
+
+    /**
+     * @param streams number of streams
+     */
+    public BatchPdFilter(int streams) {
+        mStreams = streams;
+        mX = new int[streams];
+        mY = new int[streams];
+        mPressure = new int[streams];
+        mVelocityX = new int[streams];
+        mVelocityY = new int[streams];
+        mVelocityPressure = new int[streams];
+        mAccelerationX = new int[streams];
+        mAccelerationY = new int[streams];
+    }
+
+    public int getStreamCount() {
+        return mStreams;
+    }
+
+    /**
+     * Starts a new trace of a stream at a sample.
+     */
+    public void reset(int stream, int x, int y, int pressure) {
+        mX[stream] = x;
+        mY[stream] = y;
+        mPressure[stream] = pressure;
+        mVelocityX[stream] = mVelocityY[stream] = mVelocityPressure[stream] = 0;
+        mAccelerationX[stream] = mAccelerationY[stream] = 0;
+    }
+
+    /**
+     * Advances every stream by one sample.
+     *
+     * @param x        digitizer x coordinate of the sample of every stream, indexed by stream
+     * @param y        digitizer y coordinate of the sample of every stream
+     * @param pressure digitizer pressure reading of the sample of every stream
+     */
+    public void update(int[] x, int[] y, int[] pressure) {
+        if (x.length < mStreams || y.length < mStreams || pressure.length < mStreams) {
+            throw new IllegalArgumentException("need a sample for each of the " + mStreams + " streams");
+        }
+        advance(x, mX, mVelocityX, mAccelerationX, mStreams);
+        advance(y, mY, mVelocityY, mAccelerationY, mStreams);
+        advance(pressure, mPressure, mVelocityPressure, mStreams);
+    }
+
+    /**
+     * Advances one stream by one sample.
+     */
+    public void update(int stream, int x, int y, int pressure) {
+        int vx = mVelocityX[stream], vy = mVelocityY[stream], vp = mVelocityPressure[stream];
+        int ax = PdFilter.KPP * (x - mX[stream]) - PdFilter.KDD * vx;
+        int ay = PdFilter.KPP * (y - mY[stream]) - PdFilter.KDD * vy;
+        int ap = PdFilter.KPP * (pressure - mPressure[stream]) - PdFilter.KDD * vp;
+
+        mX[stream] += vx;
+        mY[stream] += vy;
+        mPressure[stream] += vp;
+
+        mVelocityX[stream] = ((vx << 13) + ax) >> 13;
+        mVelocityY[stream] = ((vy << 13) + ay) >> 13;
+        mVelocityPressure[stream] = ((vp << 13) + ap) >> 13;
+        mAccelerationX[stream] = mVelocityX[stream] - vx;
+        mAccelerationY[stream] = mVelocityY[stream] - vy;
+    }
+
+    public int getX(int stream) {
+        return mX[stream];
+    }
+
+    public int getY(int stream) {
+        return mY[stream];
+    }
+
+    public int getPressure(int stream) {
+        return mPressure[stream];
+    }
+
+    public int getVelocityX(int stream) {
+        return mVelocityX[stream];
+    }
+
+    public int getVelocityY(int stream) {
+        return mVelocityY[stream];
+    }
+
+    /**
+     * Returns a stream as a filter of its own. The filter reads and changes the state of the stream in this batch, so it sees the
+     * samples passed to {@link #update(int[], int[], int[])} too. {@link SmoothingFilter#newInstance()} returns a separate
+     * {@link PdFilter}.
+     *
+     * @param stream index of the stream
+     */
+    public SmoothingFilter getStream(final int stream) {
+        if (stream < 0 || stream >= mStreams) throw new IndexOutOfBoundsException("stream " + stream);
+        return new SmoothingFilter() {
+            @Override
+            public void reset(int x, int y, int pressure) {
+                BatchPdFilter.this.reset(stream, x, y, pressure);
+            }
+
+            @Override
+            public void update(int x, int y, int pressure) {
+                BatchPdFilter.this.update(stream, x, y, pressure);
+            }
+
+            @Override
+            public float getX() {
+                return mX[stream];
+            }
+
+            @Override
+            public float getY() {
+                return mY[stream];
+            }
+
+            @Override
+            public float getPressure() {
+                return mPressure[stream];
+            }
+
+            @Override
+            public float getVelocityX() {
+                return mVelocityX[stream];
+            }
+
+            @Override
+            public float getVelocityY() {
+                return mVelocityY[stream];
+            }
+
+            @Override
+            public float getAccelerationX() {
+                return mAccelerationX[stream];
+            }
+
+            @Override
+            public float getAccelerationY() {
+                return mAccelerationY[stream];
+            }
+
+            @Override
+            public float getLag() {
+                return PdFilter.LAG;
+            }
+
+            @Override
+            public SmoothingFilter newInstance() {
+                return new PdFilter();
+            }
+        };
+    }
+
+    /**
+     * Advances one axis of every stream. The loop body has no branches and no dependency between streams, so it can be vectorized.
+     */
+    private static void advance(int[] sample, int[] position, int[] velocity, int[] acceleration, int count) {
+        for (int i = 0; i < count; i++) {
+            int v = velocity[i];
+            int a = PdFilter.KPP * (sample[i] - position[i]) - PdFilter.KDD * v;
+            position[i] += v;
+            int next = ((v << 13) + a) >> 13;
+            velocity[i] = next;
+            acceleration[i] = next - v;
+        }
+    }
+
+    private static void advance(int[] sample, int[] position, int[] velocity, int count) {
+        for (int i = 0; i < count; i++) {
+            int v = velocity[i];
+            int a = PdFilter.KPP * (sample[i] - position[i]) - PdFilter.KDD * v;
+            position[i] += v;
+            velocity[i] = ((v << 13) + a) >> 13;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.filter;
+
+import com.improvelectronics.sync.j2se.Filtering;
+import com.improvelectronics.sync.j2se.SyncSegmentListener;
+import com.improvelectronics.sync.session.SessionReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Compares the smoothing filters on recorded sessions. Every filter is run over the same samples and rated on
+ * <ul>
+ * <li>latency: how long the filtered position trails the samples along the direction of motion, in milliseconds,</li>
+ * <li>jitter: the root mean square of the change of the filtered velocity between samples, in digitizer units, next to the same value
+ * for the samples themselves,</li>
+ * <li>segments: the number of segments drawn,</li>
+ * <li>throughput: samples filtered per second by {@link Filtering} with the filter, best of several runs.</li>
+ * </ul>
+ * Usage: {@code FilterBenchmark session-file...}
+ */
+public class FilterBenchmark {
+
+    // Slowest speed in digitizer units per sample that counts for the latency, below it the direction of motion is mostly noise.
+    private static final float MIN_SPEED = 5.0f;
+
+    // Number of samples the direction of motion is measured over.
+    private static final int DIRECTION_SAMPLES = 4;
+
+    private static final int THROUGHPUT_RUNS = 5;
+
+    private int[] mX = new int[1 << 16], mY = new int[1 << 16], mPressure = new int[1 << 16];
+    private byte[] mFlags = new byte[1 << 16];
+    private int mCount;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: FilterBenchmark session-file...");
+            System.exit(1);
+        }
+
+        FilterBenchmark benchmark = new FilterBenchmark();
+        for (String arg : args) benchmark.read(new File(arg));
+        System.out.println(benchmark.mCount + " samples");
+        System.out.println(String.format(Locale.US, "%-10s %12s %10s %10s %14s", "filter", "latency ms", "jitter", "segments",
+                "samples/s"));
+        benchmark.run("raw", null);
+        benchmark.run("pd", new PdFilter());
+        benchmark.run("one-euro", new OneEuroFilter());
+        benchmark.run("kalman", new KalmanFilter());
+    }
+
+    /**
+     * Adds the samples of a session file.
+     */
+    public void read(File file) throws IOException {
+        SessionReader reader = new SessionReader(file);
+        try {
+            while (reader.next()) {
+                if (mCount == mX.length) {
+                    int length = mCount * 2;
+                    mX = Arrays.copyOf(mX, length);
+                    mY = Arrays.copyOf(mY, length);
+                    mPressure = Arrays.copyOf(mPressure, length);
+                    mFlags = Arrays.copyOf(mFlags, length);
+                }
+                mX[mCount] = reader.getX();
+                mY[mCount] = reader.getY();
+                mPressure[mCount] = reader.getPressure();
+                mFlags[mCount] = reader.getFlags();
+                mCount++;
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Rates a filter and prints a line with the results. Without a filter the samples themselves are rated.
+     */
+    public void run(String name, SmoothingFilter filter) {
+        SegmentCounter counter = new SegmentCounter();
+        Filtering filtering = filter == null ? null : new Filtering(filter.newInstance());
+        SmoothingFilter smoother = filtering == null ? null : filtering.getSmoother();
+
+        long moving = 0, accelerations = 0;
+        double lag = 0, jitter = 0;
+        int traceSamples = 0;
+        float lastX = 0, lastY = 0, lastVelocityX = 0, lastVelocityY = 0;
+
+        for (int i = 0; i < mCount; i++) {
+            if (filtering != null) filtering.filter(mX[i], mY[i], mPressure[i], mFlags[i], counter);
+            if (!Filtering.isContact(mFlags[i])) {
+                traceSamples = 0;
+                continue;
+            }
+
+            float x = smoother == null ? mX[i] : smoother.getX();
+            float y = smoother == null ? mY[i] : smoother.getY();
+            traceSamples++;
+
+            // Change of the velocity of the filtered position.
+            if (traceSamples > 1) {
+                float velocityX = x - lastX, velocityY = y - lastY;
+                if (traceSamples > 2) {
+                    float ax = velocityX - lastVelocityX, ay = velocityY - lastVelocityY;
+                    jitter += ax * ax + ay * ay;
+                    accelerations++;
+                }
+                lastVelocityX = velocityX;
+                lastVelocityY = velocityY;
+            }
+            lastX = x;
+            lastY = y;
+
+            // Lag of the filtered position behind the sample along the direction the samples moved in.
+            if (traceSamples > DIRECTION_SAMPLES) {
+                int j = i - DIRECTION_SAMPLES;
+                float dx = (mX[i] - mX[j]) / (float) DIRECTION_SAMPLES, dy = (mY[i] - mY[j]) / (float) DIRECTION_SAMPLES;
+                float speed = (float) Math.sqrt(dx * dx + dy * dy);
+                if (speed >= MIN_SPEED) {
+                    lag += ((mX[i] - x) * dx + (mY[i] - y) * dy) / (speed * speed);
+                    moving++;
+                }
+            }
+        }
+
+        String throughput = filter == null ? "" : String.format(Locale.US, "%14.0f", throughput(filter));
+        System.out.println(String.format(Locale.US, "%-10s %12.2f %10.3f %10s %s", name,
+                moving == 0 ? 0 : lag / moving * Filtering.SAMPLE_INTERVAL_MS, accelerations == 0 ? 0 : Math.sqrt(jitter / accelerations),
+                filter == null ? "" : Long.toString(counter.mSegments), throughput));
+    }
+
+    private double throughput(SmoothingFilter filter) {
+        SegmentCounter counter = new SegmentCounter();
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < THROUGHPUT_RUNS; run++) {
+            Filtering filtering = new Filtering(filter.newInstance());
+            long start = System.nanoTime();
+            for (int i = 0; i < mCount; i++) filtering.filter(mX[i], mY[i], mPressure[i], mFlags[i], counter);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return mCount * 1e9 / Math.max(best, 1);
+    }
+
+    private static class SegmentCounter implements SyncSegmentListener {
+        long mSegments;
+
+        @Override
+        public void onSegment(float x0, float y0, float x1, float y1, float lineWidth) {
+            mSegments++;
+        }
+
+        @Override
+        public void onTraceEnd() {
+        }
+    }
+}
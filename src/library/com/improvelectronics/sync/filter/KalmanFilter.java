@@ -0,0 +1,169 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.filter;
+
+/**
+ * Kalman filter with a constant velocity model for every axis. Changes of the velocity are treated as noise, so the filter follows a
+ * stylus moving at a constant speed without lag and smooths the jitter of the digitizer around it; the ratio of the two noise levels
+ * sets how quickly it follows a change of direction.
+ */
+public class KalmanFilter implements SmoothingFilter {
+
+    /**
+     * Default variance of the change of the velocity between two samples, in digitizer units squared per sample interval to the fourth.
+     */
+    public static final float DEFAULT_PROCESS_NOISE = 4.0f;
+
+    /**
+     * Default variance of a sample around the true position, in digitizer units squared.
+     */
+    public static final float DEFAULT_MEASUREMENT_NOISE = 64.0f;
+
+    // The pressure changes little between samples but its readings are noisy.
+    private static final float PRESSURE_PROCESS_NOISE = 1.0f;
+    private static final float PRESSURE_MEASUREMENT_NOISE = 100.0f;
+
+    // Variance of the velocity at the start of a trace, nothing is known about it.
+    private static final float INITIAL_VELOCITY_VARIANCE = 10000.0f;
+
+    private final float mProcessNoise, mMeasurementNoise;
+    private final Axis mX, mY, mPressure;
+
+    public KalmanFilter() {
+        this(DEFAULT_PROCESS_NOISE, DEFAULT_MEASUREMENT_NOISE);
+    }
+
+    /**
+     * @param processNoise     variance of the change of the velocity between two samples, higher follows turns more closely
+     * @param measurementNoise variance of a sample around the true position, higher smooths more
+     */
+    public KalmanFilter(float processNoise, float measurementNoise) {
+        mProcessNoise = processNoise;
+        mMeasurementNoise = measurementNoise;
+        mX = new Axis(processNoise, measurementNoise);
+        mY = new Axis(processNoise, measurementNoise);
+        mPressure = new Axis(PRESSURE_PROCESS_NOISE, PRESSURE_MEASUREMENT_NOISE);
+    }
+
+    @Override
+    public void reset(int x, int y, int pressure) {
+        mX.reset(x);
+        mY.reset(y);
+        mPressure.reset(pressure);
+    }
+
+    @Override
+    public void update(int x, int y, int pressure) {
+        mX.update(x);
+        mY.update(y);
+        mPressure.update(pressure);
+    }
+
+    @Override
+    public float getX() {
+        return mX.mPosition;
+    }
+
+    @Override
+    public float getY() {
+        return mY.mPosition;
+    }
+
+    @Override
+    public float getPressure() {
+        return mPressure.mPosition;
+    }
+
+    @Override
+    public float getVelocityX() {
+        return mX.mVelocity;
+    }
+
+    @Override
+    public float getVelocityY() {
+        return mY.mVelocity;
+    }
+
+    @Override
+    public float getAccelerationX() {
+        return mX.mAcceleration;
+    }
+
+    @Override
+    public float getAccelerationY() {
+        return mY.mAcceleration;
+    }
+
+    @Override
+    public float getLag() {
+        // The model includes the velocity, so a constant speed is followed without lag.
+        return 0;
+    }
+
+    @Override
+    public SmoothingFilter newInstance() {
+        return new KalmanFilter(mProcessNoise, mMeasurementNoise);
+    }
+
+    /**
+     * State of one axis: position and velocity, and their covariance.
+     */
+    private static class Axis {
+        private final float mQ, mR;
+        float mPosition, mVelocity, mAcceleration;
+        private float mP00, mP01, mP11;
+
+        Axis(float processNoise, float measurementNoise) {
+            mQ = processNoise;
+            mR = measurementNoise;
+        }
+
+        void reset(float position) {
+            mPosition = position;
+            mVelocity = 0;
+            mAcceleration = 0;
+            mP00 = mR;
+            mP01 = 0;
+            mP11 = INITIAL_VELOCITY_VARIANCE;
+        }
+
+        void update(float measurement) {
+            // Predict one sample ahead, with the noise of a random change of velocity.
+            mPosition += mVelocity;
+            mP00 += 2 * mP01 + mP11 + mQ / 4;
+            mP01 += mP11 + mQ / 2;
+            mP11 += mQ;
+
+            // Correct with the measurement.
+            float s = mP00 + mR;
+            float k0 = mP00 / s, k1 = mP01 / s;
+            float residual = measurement - mPosition;
+            mPosition += k0 * residual;
+            mAcceleration = k1 * residual;
+            mVelocity += mAcceleration;
+            mP11 -= k1 * mP01;
+            mP01 -= k0 * mP01;
+            mP00 -= k0 * mP00;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.filter;
+
+import com.improvelectronics.sync.j2se.Filtering;
+
+/**
+ * The 1€ filter of Casiez, Roussel and Vogel: a low-pass filter whose cutoff frequency rises with the speed of the stylus. Slow writing
+ * gets a low cutoff, which removes the jitter of the digitizer, and fast writing a high one, which keeps the ink close to the stylus.
+ * The speed is the filtered speed of the position in both axes, so x and y are smoothed alike; the pressure is smoothed with the cutoff of
+ * the position.
+ */
+public class OneEuroFilter implements SmoothingFilter {
+
+    /**
+     * Default cutoff frequency in Hz when the stylus does not move.
+     */
+    public static final float DEFAULT_MIN_CUTOFF = 2.0f;
+
+    /**
+     * Default increase of the cutoff frequency in Hz for every digitizer unit per second of speed.
+     */
+    public static final float DEFAULT_BETA = 0.002f;
+
+    /**
+     * Default cutoff frequency in Hz of the filter that smooths the speed.
+     */
+    public static final float DEFAULT_DERIVATIVE_CUTOFF = 1.0f;
+
+    private static final float RATE = 1000.0f / Filtering.SAMPLE_INTERVAL_MS;
+
+    private final float mMinCutoff, mBeta, mDerivativeCutoff;
+    private final float mDerivativeAlpha;
+
+    private float mX, mY, mPressure;
+    private float mDerivativeX, mDerivativeY;
+    private float mVelocityX, mVelocityY;
+    private float mAccelerationX, mAccelerationY;
+    private float mAlpha = 1;
+
+    public OneEuroFilter() {
+        this(DEFAULT_MIN_CUTOFF, DEFAULT_BETA, DEFAULT_DERIVATIVE_CUTOFF);
+    }
+
+    /**
+     * @param minCutoff        cutoff frequency in Hz when the stylus does not move, lower removes more jitter
+     * @param beta             increase of the cutoff frequency in Hz for every digitizer unit per second of speed, higher lowers the lag
+     * @param derivativeCutoff cutoff frequency in Hz of the filter that smooths the speed
+     */
+    public OneEuroFilter(float minCutoff, float beta, float derivativeCutoff) {
+        mMinCutoff = minCutoff;
+        mBeta = beta;
+        mDerivativeCutoff = derivativeCutoff;
+        mDerivativeAlpha = alpha(derivativeCutoff);
+    }
+
+    @Override
+    public void reset(int x, int y, int pressure) {
+        mX = x;
+        mY = y;
+        mPressure = pressure;
+        mDerivativeX = mDerivativeY = 0;
+        mVelocityX = mVelocityY = 0;
+        mAccelerationX = mAccelerationY = 0;
+        mAlpha = 1;
+    }
+
+    @Override
+    public void update(int x, int y, int pressure) {
+        // Smoothed speed in digitizer units per second.
+        mDerivativeX += mDerivativeAlpha * ((x - mX) * RATE - mDerivativeX);
+        mDerivativeY += mDerivativeAlpha * ((y - mY) * RATE - mDerivativeY);
+        float speed = (float) Math.sqrt(mDerivativeX * mDerivativeX + mDerivativeY * mDerivativeY);
+        mAlpha = alpha(mMinCutoff + mBeta * speed);
+
+        float vx = mAlpha * (x - mX), vy = mAlpha * (y - mY);
+        mX += vx;
+        mY += vy;
+        mPressure += mAlpha * (pressure - mPressure);
+
+        mAccelerationX = vx - mVelocityX;
+        mAccelerationY = vy - mVelocityY;
+        mVelocityX = vx;
+        mVelocityY = vy;
+    }
+
+    @Override
+    public float getX() {
+        return mX;
+    }
+
+    @Override
+    public float getY() {
+        return mY;
+    }
+
+    @Override
+    public float getPressure() {
+        return mPressure;
+    }
+
+    @Override
+    public float getVelocityX() {
+        return mVelocityX;
+    }
+
+    @Override
+    public float getVelocityY() {
+        return mVelocityY;
+    }
+
+    @Override
+    public float getAccelerationX() {
+        return mAccelerationX;
+    }
+
+    @Override
+    public float getAccelerationY() {
+        return mAccelerationY;
+    }
+
+    @Override
+    public float getLag() {
+        // A low-pass filter that moves by alpha of the distance every sample trails a ramp by (1 - alpha) / alpha samples.
+        return (1 - mAlpha) / mAlpha;
+    }
+
+    @Override
+    public SmoothingFilter newInstance() {
+        return new OneEuroFilter(mMinCutoff, mBeta, mDerivativeCutoff);
+    }
+
+    private static float alpha(float cutoff) {
+        float tau = (float) (1 / (2 * Math.PI * cutoff));
+        return 1 / (1 + tau * RATE);
+    }
+}
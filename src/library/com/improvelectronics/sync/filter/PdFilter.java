@@ -0,0 +1,118 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.filter;
+
+/**
+ * The dynamic filter of the Boogie Board Sync: a mass that is pulled towards every sample by a proportional and derivative controller.
+ * It is computed in fixed point exactly like the firmware does, so the segments drawn from it match the PDFs saved by the Sync. This is the
+ * filter {@link com.improvelectronics.sync.j2se.Filtering} uses by default.
+ */
+public class PdFilter implements SmoothingFilter {
+
+    // Dynamic filter Proportional and Derivative controller gains
+    // (includes effects of mass and sample time (K*T/mass)).
+    static final int KPP = 1229;   // 1229/8192 = 0.1500 ~0.15f
+    static final int KDD = 4915;   // 4915/8192 = 0.6000 ~0.6f
+
+    // The acceleration is zero when KPP * lag = KDD * velocity, measured before the position moves by one more velocity step.
+    static final float LAG = (float) (KDD - KPP) / KPP;
+
+    private int mX, mY, mPressure;
+    private int mVelocityX, mVelocityY, mVelocityPressure;
+    private int mAccelerationX, mAccelerationY;
+
+    @Override
+    public void reset(int x, int y, int pressure) {
+        mX = x;
+        mY = y;
+        mPressure = pressure;
+        mVelocityX = mVelocityY = mVelocityPressure = 0;
+        mAccelerationX = mAccelerationY = 0;
+    }
+
+    @Override
+    public void update(int x, int y, int pressure) {
+        // Calculate 8192 (= 2^13) x acceleration.
+        int ax = KPP * (x - mX) - KDD * mVelocityX;
+        int ay = KPP * (y - mY) - KDD * mVelocityY;
+        int ap = KPP * (pressure - mPressure) - KDD * mVelocityPressure;
+
+        // Calculate new position.
+        mX += mVelocityX;
+        mY += mVelocityY;
+        mPressure += mVelocityPressure;
+
+        // Calculate new velocity.
+        int vx = mVelocityX, vy = mVelocityY;
+        mVelocityX = ((mVelocityX << 13) + ax) >> 13;
+        mVelocityY = ((mVelocityY << 13) + ay) >> 13;
+        mVelocityPressure = ((mVelocityPressure << 13) + ap) >> 13;
+        mAccelerationX = mVelocityX - vx;
+        mAccelerationY = mVelocityY - vy;
+    }
+
+    @Override
+    public float getX() {
+        return mX;
+    }
+
+    @Override
+    public float getY() {
+        return mY;
+    }
+
+    @Override
+    public float getPressure() {
+        return mPressure;
+    }
+
+    @Override
+    public float getVelocityX() {
+        return mVelocityX;
+    }
+
+    @Override
+    public float getVelocityY() {
+        return mVelocityY;
+    }
+
+    @Override
+    public float getAccelerationX() {
+        return mAccelerationX;
+    }
+
+    @Override
+    public float getAccelerationY() {
+        return mAccelerationY;
+    }
+
+    @Override
+    public float getLag() {
+        return LAG;
+    }
+
+    @Override
+    public SmoothingFilter newInstance() {
+        return new PdFilter();
+    }
+}
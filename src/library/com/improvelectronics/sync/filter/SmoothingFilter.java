@@ -0,0 +1,90 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.filter;
+
+/**
+ * Smooths the positions and pressures of the samples of a trace before {@link com.improvelectronics.sync.j2se.Filtering} turns them into
+ * segments. The filter is told about the first sample of every trace with {@link #reset(int, int, int)} and about every later sample with
+ * {@link #update(int, int, int)}, once per capture report; the state it keeps is what the getters return.
+ * </p>
+ * Velocities and accelerations are measured in digitizer units per sample interval, so they do not depend on the sample rate of the Sync.
+ * Implementations must not allocate in {@link #reset(int, int, int)} and {@link #update(int, int, int)}, as they run for every capture
+ * report, and are used by one thread.
+ */
+public interface SmoothingFilter {
+
+    /**
+     * Starts a new trace at a sample.
+     *
+     * @param x        digitizer x coordinate
+     * @param y        digitizer y coordinate
+     * @param pressure digitizer pressure reading
+     */
+    public void reset(int x, int y, int pressure);
+
+    /**
+     * Adds the next sample of the trace. At the end of a trace the last sample is passed a few more times so the filter can converge.
+     *
+     * @param x        digitizer x coordinate
+     * @param y        digitizer y coordinate
+     * @param pressure digitizer pressure reading
+     */
+    public void update(int x, int y, int pressure);
+
+    public float getX();
+
+    public float getY();
+
+    public float getPressure();
+
+    /**
+     * Returns the x velocity of the filtered position in digitizer units per sample interval.
+     */
+    public float getVelocityX();
+
+    /**
+     * Returns the y velocity of the filtered position in digitizer units per sample interval.
+     */
+    public float getVelocityY();
+
+    /**
+     * Returns the change of the x velocity at the last sample, in digitizer units per sample interval squared.
+     */
+    public float getAccelerationX();
+
+    /**
+     * Returns the change of the y velocity at the last sample, in digitizer units per sample interval squared.
+     */
+    public float getAccelerationY();
+
+    /**
+     * Returns the number of sample intervals the filtered position currently trails the samples by when the stylus moves at a constant
+     * speed. Used to predict the position of the stylus.
+     */
+    public float getLag();
+
+    /**
+     * Returns a new filter with the same settings and no state, for filtering another stream of samples.
+     */
+    public SmoothingFilter newInstance();
+}
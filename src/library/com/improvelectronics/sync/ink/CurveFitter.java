@@ -0,0 +1,298 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.ink;
+
+import com.improvelectronics.sync.j2se.SyncCurveListener;
+import com.improvelectronics.sync.j2se.SyncSegmentListener;
+import com.improvelectronics.sync.j2se.SyncStroke;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fits the points of a trace with piecewise cubic Bézier curves as they arrive from {@link com.improvelectronics.sync.j2se.Filtering}.
+ * A piece is extended with every new point as long as a single curve stays within the error bound of all the points it covers; when it no
+ * longer does, the last curve that did is passed on and a new piece starts at its end, with the same tangent so the trace stays smooth.
+ * </p>
+ * Each fit is a least-squares fit with fixed end tangents and chord-length parameters (Schneider's algorithm without the recursive split),
+ * and a piece covers at most {@link #MAX_POINTS} points, so the work per point and the delay before a piece is passed on are bounded. The
+ * line width is interpolated linearly between the ends of a piece.
+ */
+public class CurveFitter implements SyncSegmentListener {
+
+    /**
+     * Default largest distance in digitizer units between a point and the curve fitted through it.
+     */
+    public static final float DEFAULT_MAX_ERROR = 4.0f;
+
+    /**
+     * Largest number of points covered by a single piece.
+     */
+    public static final int MAX_POINTS = 64;
+
+    private final List<SyncCurveListener> mListeners;
+    private final float mMaxErrorSquared;
+
+    // Points of the current piece and their line widths.
+    private final float[] mPoints = new float[MAX_POINTS * 2];
+    private final float[] mWidths = new float[MAX_POINTS];
+    private final float[] mParameters = new float[MAX_POINTS];
+    private int mCount;
+    private int mPiecesInTrace;
+
+    // Unit tangent at the start of the piece, zero until it is known.
+    private float mStartTangentX, mStartTangentY;
+
+    // Curve that fits all points of the piece.
+    private float mFitX1, mFitY1, mFitX2, mFitY2;
+    private float mFitEndTangentX, mFitEndTangentY;
+
+    // Curve computed by the last call to fit().
+    private float mCurveX1, mCurveY1, mCurveX2, mCurveY2;
+    private float mEndTangentX, mEndTangentY;
+
+    private long mPointCount, mCurveCount;
+
+    public CurveFitter() {
+        this(DEFAULT_MAX_ERROR);
+    }
+
+    /**
+     * @param maxError largest distance in digitizer units between a point and the curve fitted through it
+     */
+    public CurveFitter(float maxError) {
+        mListeners = new ArrayList<SyncCurveListener>();
+        mMaxErrorSquared = maxError * maxError;
+    }
+
+    /**
+     * Adds a listener for fitted curves.
+     *
+     * @return false indicates listener has already been added
+     */
+    public boolean addListener(SyncCurveListener listener) {
+        if (mListeners.contains(listener)) return false;
+        else mListeners.add(listener);
+        return true;
+    }
+
+    /**
+     * Removes a listener that was previously added with {@link #addListener(SyncCurveListener)}.
+     *
+     * @return false indicates listener was not originally added
+     */
+    public boolean removeListener(SyncCurveListener listener) {
+        if (!mListeners.contains(listener)) return false;
+        else mListeners.remove(listener);
+        return true;
+    }
+
+    /**
+     * Returns true if there are listeners for the fitted curves.
+     */
+    public boolean hasListeners() {
+        return !mListeners.isEmpty();
+    }
+
+    /**
+     * Fits a complete stroke, for example one read back from storage.
+     *
+     * @param stroke   stroke to fit
+     * @param maxError largest distance in digitizer units between a vertex and the curve fitted through it
+     * @param listener listener for the fitted curves
+     */
+    public static void fit(SyncStroke stroke, float maxError, SyncCurveListener listener) {
+        CurveFitter fitter = new CurveFitter(maxError);
+        fitter.addListener(listener);
+
+        int vertices = stroke.getVertexCount();
+        if (vertices == 0) return;
+        if (vertices == 1) {
+            fitter.onSegment(stroke.getX(0), stroke.getY(0), stroke.getX(0), stroke.getY(0), stroke.getWidth(0));
+        }
+        for (int i = 1; i < vertices; i++) {
+            fitter.onSegment(stroke.getX(i - 1), stroke.getY(i - 1), stroke.getX(i), stroke.getY(i), stroke.getWidth(i));
+        }
+        fitter.onTraceEnd();
+    }
+
+    @Override
+    public void onSegment(float x0, float y0, float x1, float y1, float lineWidth) {
+        if (mListeners.isEmpty()) return;
+
+        if (mCount == 0) addPoint(x0, y0, lineWidth);
+        addPoint(x1, y1, lineWidth);
+    }
+
+    @Override
+    public void onTraceEnd() {
+        if (mCount == 1 && mPiecesInTrace == 0) {
+            // A dot.
+            float x = mPoints[0], y = mPoints[1];
+            emit(x, y, x, y, x, y, x, y, mWidths[0], mWidths[0]);
+        } else if (mCount > 1) {
+            emit(mPoints[0], mPoints[1], mFitX1, mFitY1, mFitX2, mFitY2, mPoints[mCount * 2 - 2], mPoints[mCount * 2 - 1], mWidths[0],
+                    mWidths[mCount - 1]);
+        }
+        mCount = 0;
+        mPiecesInTrace = 0;
+        mStartTangentX = mStartTangentY = 0;
+        for (SyncCurveListener listener : mListeners) listener.onTraceEnd();
+    }
+
+    /**
+     * Returns the number of points received for every curve passed on, 1 before any curve was passed on.
+     */
+    public float getCompressionRatio() {
+        return mCurveCount == 0 ? 1.0f : (float) mPointCount / mCurveCount;
+    }
+
+    private void addPoint(float x, float y, float width) {
+        // Skip points on top of the last one, they add nothing and break the tangents.
+        if (mCount > 0 && x == mPoints[mCount * 2 - 2] && y == mPoints[mCount * 2 - 1]) return;
+        mPointCount++;
+
+        if (mCount == MAX_POINTS) breakPiece(mCount - 1);
+
+        mPoints[mCount * 2] = x;
+        mPoints[mCount * 2 + 1] = y;
+        mWidths[mCount] = width;
+        mCount++;
+        if (mCount < 2) return;
+
+        if (mStartTangentX == 0 && mStartTangentY == 0) {
+            float dx = mPoints[2] - mPoints[0], dy = mPoints[3] - mPoints[1];
+            float length = (float) Math.sqrt(dx * dx + dy * dy);
+            mStartTangentX = dx / length;
+            mStartTangentY = dy / length;
+        }
+
+        if (!fit()) {
+            // The new point does not fit, pass on the curve without it and start over from the point before.
+            breakPiece(mCount - 2);
+            fit();
+        }
+
+        mFitX1 = mCurveX1;
+        mFitY1 = mCurveY1;
+        mFitX2 = mCurveX2;
+        mFitY2 = mCurveY2;
+        mFitEndTangentX = mEndTangentX;
+        mFitEndTangentY = mEndTangentY;
+    }
+
+    /**
+     * Passes on the last curve that fit, which ends at the given point, and starts a new piece there with the same tangent.
+     */
+    private void breakPiece(int end) {
+        emit(mPoints[0], mPoints[1], mFitX1, mFitY1, mFitX2, mFitY2, mPoints[end * 2], mPoints[end * 2 + 1], mWidths[0], mWidths[end]);
+        mPiecesInTrace++;
+
+        mStartTangentX = -mFitEndTangentX;
+        mStartTangentY = -mFitEndTangentY;
+        int remaining = mCount - end;
+        System.arraycopy(mPoints, end * 2, mPoints, 0, remaining * 2);
+        System.arraycopy(mWidths, end, mWidths, 0, remaining);
+        mCount = remaining;
+    }
+
+    /**
+     * Fits a single curve to the points of the piece with the tangent at the start held fixed.
+     *
+     * @return true if every point is within the error bound
+     */
+    private boolean fit() {
+        int last = mCount - 1;
+        float x0 = mPoints[0], y0 = mPoints[1];
+        float x3 = mPoints[last * 2], y3 = mPoints[last * 2 + 1];
+
+        // Tangent at the end, pointing back into the curve, from the last two or three points.
+        float tx = mPoints[(last - 1) * 2] - x3, ty = mPoints[(last - 1) * 2 + 1] - y3;
+        if (last >= 2) {
+            tx += mPoints[(last - 2) * 2] - x3;
+            ty += mPoints[(last - 2) * 2 + 1] - y3;
+        }
+        float tangentLength = (float) Math.sqrt(tx * tx + ty * ty);
+        if (tangentLength > 0) {
+            mEndTangentX = tx / tangentLength;
+            mEndTangentY = ty / tangentLength;
+        } else {
+            mEndTangentX = -mStartTangentX;
+            mEndTangentY = -mStartTangentY;
+        }
+
+        // Chord-length parameters.
+        mParameters[0] = 0;
+        for (int i = 1; i <= last; i++) {
+            float dx = mPoints[i * 2] - mPoints[i * 2 - 2], dy = mPoints[i * 2 + 1] - mPoints[i * 2 - 1];
+            mParameters[i] = mParameters[i - 1] + (float) Math.sqrt(dx * dx + dy * dy);
+        }
+        float chord = mParameters[last];
+        for (int i = 1; i <= last; i++) mParameters[i] /= chord;
+
+        // Least-squares lengths of the two tangents.
+        float c00 = 0, c01 = 0, c11 = 0, x0r = 0, x1r = 0;
+        for (int i = 0; i <= last; i++) {
+            float u = mParameters[i], v = 1 - u;
+            float b0 = v * v * v, b1 = 3 * u * v * v, b2 = 3 * u * u * v, b3 = u * u * u;
+            float a0x = mStartTangentX * b1, a0y = mStartTangentY * b1;
+            float a1x = mEndTangentX * b2, a1y = mEndTangentY * b2;
+            c00 += a0x * a0x + a0y * a0y;
+            c01 += a0x * a1x + a0y * a1y;
+            c11 += a1x * a1x + a1y * a1y;
+
+            float rx = mPoints[i * 2] - (x0 * (b0 + b1) + x3 * (b2 + b3));
+            float ry = mPoints[i * 2 + 1] - (y0 * (b0 + b1) + y3 * (b2 + b3));
+            x0r += a0x * rx + a0y * ry;
+            x1r += a1x * rx + a1y * ry;
+        }
+
+        float det = c00 * c11 - c01 * c01;
+        float alpha1 = det == 0 ? 0 : (x0r * c11 - x1r * c01) / det;
+        float alpha2 = det == 0 ? 0 : (c00 * x1r - c01 * x0r) / det;
+
+        // Fall back to a third of the chord when the solution is degenerate, as Schneider does.
+        float distance = (float) Math.sqrt((x3 - x0) * (x3 - x0) + (y3 - y0) * (y3 - y0));
+        float epsilon = 1e-6f * distance;
+        if (alpha1 < epsilon || alpha2 < epsilon) alpha1 = alpha2 = distance / 3;
+
+        mCurveX1 = x0 + mStartTangentX * alpha1;
+        mCurveY1 = y0 + mStartTangentY * alpha1;
+        mCurveX2 = x3 + mEndTangentX * alpha2;
+        mCurveY2 = y3 + mEndTangentY * alpha2;
+
+        for (int i = 1; i < last; i++) {
+            float u = mParameters[i], v = 1 - u;
+            float b0 = v * v * v, b1 = 3 * u * v * v, b2 = 3 * u * u * v, b3 = u * u * u;
+            float dx = x0 * b0 + mCurveX1 * b1 + mCurveX2 * b2 + x3 * b3 - mPoints[i * 2];
+            float dy = y0 * b0 + mCurveY1 * b1 + mCurveY2 * b2 + y3 * b3 - mPoints[i * 2 + 1];
+            if (dx * dx + dy * dy > mMaxErrorSquared) return false;
+        }
+        return true;
+    }
+
+    private void emit(float x0, float y0, float cx1, float cy1, float cx2, float cy2, float x1, float y1, float width0, float width1) {
+        mCurveCount++;
+        for (SyncCurveListener listener : mListeners) listener.onCurve(x0, y0, cx1, cy1, cx2, cy2, x1, y1, width0, width1);
+    }
+}
@@ -0,0 +1,179 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.ink;
+
+import com.improvelectronics.sync.j2se.SyncSegmentListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Passes the segments of one filter pass on to several listeners, each at its own resolution. A thumbnail needs far fewer points than an
+ * archive, but both can be served from the same {@link com.improvelectronics.sync.j2se.Filtering} pass instead of filtering the samples
+ * once per resolution.
+ * </p>
+ * Every listener has a minimum distance and a maximum angle. Incoming vertices are dropped for a listener until the distance from the last
+ * vertex it got reaches the minimum distance. When an incoming segment turns by more than the maximum angle from the vertices held back,
+ * the vertex where it turns is passed on, so corners survive a coarse resolution. The merged segment gets the length weighted average of
+ * the line widths it replaces, and the end of a trace is always passed on. Like the filter, the fanout is used by one thread.
+ */
+public class DecimationFanout implements SyncSegmentListener {
+    private final List<Subscriber> mSubscribers;
+
+    public DecimationFanout() {
+        mSubscribers = new ArrayList<Subscriber>();
+    }
+
+    /**
+     * Adds a listener at a resolution. The listener gets segments from the next segment on.
+     *
+     * @param listener    listener for the decimated segments
+     * @param minDistance distance in digitizer units between the vertices passed on, zero to pass on every vertex
+     * @param maxAngle    turn in radians after which a vertex is passed on even if it is closer, zero to only use the distance
+     * @return false indicates listener has already been added
+     */
+    public boolean addListener(SyncSegmentListener listener, float minDistance, float maxAngle) {
+        if (indexOf(listener) >= 0) return false;
+        else mSubscribers.add(new Subscriber(listener, minDistance, maxAngle));
+        return true;
+    }
+
+    /**
+     * @param listener listener for the decimated segments
+     * @return false indicates listener was not originally added
+     */
+    public boolean removeListener(SyncSegmentListener listener) {
+        int index = indexOf(listener);
+        if (index < 0) return false;
+        else mSubscribers.remove(index);
+        return true;
+    }
+
+    public boolean hasListeners() {
+        return !mSubscribers.isEmpty();
+    }
+
+    /**
+     * Returns the number of segments passed on to a listener for every segment received, or 0 if the listener was not added.
+     */
+    public float getDecimationRatio(SyncSegmentListener listener) {
+        int index = indexOf(listener);
+        if (index < 0) return 0;
+        Subscriber subscriber = mSubscribers.get(index);
+        return subscriber.mInput == 0 ? 1.0f : (float) subscriber.mOutput / subscriber.mInput;
+    }
+
+    @Override
+    public void onSegment(float x0, float y0, float x1, float y1, float lineWidth) {
+        for (int i = 0, count = mSubscribers.size(); i < count; i++) mSubscribers.get(i).onSegment(x0, y0, x1, y1, lineWidth);
+    }
+
+    @Override
+    public void onTraceEnd() {
+        for (int i = 0, count = mSubscribers.size(); i < count; i++) mSubscribers.get(i).onTraceEnd();
+    }
+
+    private int indexOf(SyncSegmentListener listener) {
+        for (int i = 0; i < mSubscribers.size(); i++) {
+            if (mSubscribers.get(i).mListener == listener) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Decimation state of one listener.
+     */
+    private static class Subscriber {
+        final SyncSegmentListener mListener;
+        final float mMinDistanceSquared;
+        final float mMinTurnCos;
+        long mInput, mOutput;
+
+        // Last vertex passed on.
+        boolean mInTrace;
+        float mAnchorX, mAnchorY;
+
+        // Vertex held back and the sums for the line width of the merged segment.
+        boolean mPending;
+        float mPendingX, mPendingY;
+        float mWidthSum, mLengthSum;
+
+        Subscriber(SyncSegmentListener listener, float minDistance, float maxAngle) {
+            mListener = listener;
+            mMinDistanceSquared = minDistance * minDistance;
+            mMinTurnCos = maxAngle > 0 ? (float) Math.cos(maxAngle) : -2;
+        }
+
+        void onSegment(float x0, float y0, float x1, float y1, float lineWidth) {
+            mInput++;
+            // The corner is the vertex held back, where this segment starts. Pass on the run up to it and start a new one there.
+            if (mPending && turned(x1 - x0, y1 - y0)) flush();
+            if (!mInTrace) {
+                mInTrace = true;
+                mAnchorX = x0;
+                mAnchorY = y0;
+            }
+
+            float length = (float) Math.hypot(x1 - x0, y1 - y0);
+            // A dot has no length but must keep its width.
+            mWidthSum += lineWidth * Math.max(length, 1e-3f);
+            mLengthSum += Math.max(length, 1e-3f);
+            mPending = true;
+            mPendingX = x1;
+            mPendingY = y1;
+
+            float dx = x1 - mAnchorX, dy = y1 - mAnchorY;
+            float distanceSquared = dx * dx + dy * dy;
+            if (distanceSquared >= mMinDistanceSquared) flush();
+        }
+
+        void onTraceEnd() {
+            if (mPending) flush();
+            if (mInTrace) mListener.onTraceEnd();
+            mInTrace = false;
+        }
+
+        /**
+         * Returns true if a segment turns by more than the maximum angle from the direction of the vertices held back.
+         */
+        private boolean turned(float dx, float dy) {
+            if (mMinTurnCos < -1) return false;
+            float runX = mPendingX - mAnchorX, runY = mPendingY - mAnchorY;
+            float lengths = (runX * runX + runY * runY) * (dx * dx + dy * dy);
+            if (lengths == 0) return false;
+            float cos = (dx * runX + dy * runY) / (float) Math.sqrt(lengths);
+            return cos < mMinTurnCos;
+        }
+
+        private void flush() {
+            mListener.onSegment(mAnchorX, mAnchorY, mPendingX, mPendingY, mWidthSum / mLengthSum);
+            mOutput++;
+
+            mAnchorX = mPendingX;
+            mAnchorY = mPendingY;
+            mPending = false;
+            mWidthSum = 0;
+            mLengthSum = 0;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.ink;
+
+import com.improvelectronics.sync.Config;
+import com.improvelectronics.sync.j2se.SyncStroke;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the last pages drawn on the Sync after it was erased or saved, so they can be shown again ("undo erase") or exported later.
+ * </p>
+ * {@link #seal(int, StrokeStore.Snapshot)} takes a snapshot of the strokes and returns right away; the strokes are packed into a
+ * {@link SyncPage} on a background thread, since older strokes may have to be read back from the spill file of the {@link StrokeStore}.
+ * At most a number of pages and a number of bytes are kept, the oldest pages are dropped first. Pages can also be handed to a
+ * {@link PageSink} as they are sealed, for example to keep every page on disk.
+ */
+public class PageHistory {
+    private static final Logger Log = Logger.getLogger(PageHistory.class.getName());
+    private static final boolean DEBUG = Config.DEBUG;
+
+    /**
+     * Number of pages kept by default.
+     */
+    public static final int DEFAULT_MAX_PAGES = 16;
+
+    /**
+     * Number of bytes the pages may take on the heap by default.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    private final int mMaxPages;
+    private final long mMaxBytes;
+    private final ExecutorService mExecutor;
+
+    // Guarded by this.
+    private final ArrayDeque<SyncPage> mPages = new ArrayDeque<SyncPage>();
+    private long mBytes;
+    private final List<PageSink> mSinks = new ArrayList<PageSink>();
+
+    // Only used by the thread calling seal. Callers that seal from several threads hold a lock of their own around every call.
+    private int mNextNumber = 1;
+    private long mLastSealedVersion = -1;
+
+    public PageHistory() {
+        this(DEFAULT_MAX_PAGES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxPages number of pages to keep in memory, zero to keep none and only hand pages to the sinks
+     * @param maxBytes number of bytes the pages may take on the heap, the newest page is kept even if it is larger
+     */
+    public PageHistory(int maxPages, long maxBytes) {
+        mMaxPages = maxPages;
+        mMaxBytes = maxBytes;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PageHistory");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Seals the strokes of a snapshot into a new page. Does nothing if the snapshot is empty or is the same one that was sealed last,
+     * which happens when the Sync saves and is then erased without drawing in between.
+     *
+     * @param reason   {@link SyncPage#REASON_ERASE} or {@link SyncPage#REASON_SAVE}
+     * @param snapshot strokes of the page
+     * @return false if no page was sealed
+     */
+    public boolean seal(final int reason, final StrokeStore.Snapshot snapshot) {
+        if (snapshot.isEmpty() || snapshot.getVersion() == mLastSealedVersion) return false;
+        mLastSealedVersion = snapshot.getVersion();
+
+        final int number = mNextNumber++;
+        final long time = System.currentTimeMillis();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pageSealed(SyncPage.seal(number, reason, time, snapshot));
+                } catch (RuntimeException e) {
+                    Log.log(Level.SEVERE, "unable to seal page " + number, e);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Seals strokes that are not in a {@link StrokeStore}, for example read from a session file. The list must not change until the page
+     * is sealed.
+     *
+     * @param reason  {@link SyncPage#REASON_ERASE} or {@link SyncPage#REASON_SAVE}
+     * @param strokes strokes of the page
+     */
+    public void seal(final int reason, final List<SyncStroke> strokes) {
+        if (strokes.isEmpty()) return;
+        final int number = mNextNumber++;
+        final long time = System.currentTimeMillis();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                pageSealed(SyncPage.seal(number, reason, time, strokes));
+            }
+        });
+    }
+
+    /**
+     * Returns the pages in memory, oldest first.
+     */
+    public synchronized List<SyncPage> getPages() {
+        return new ArrayList<SyncPage>(mPages);
+    }
+
+    /**
+     * Returns the newest page in memory, or null.
+     */
+    public synchronized SyncPage getLastPage() {
+        return mPages.peekLast();
+    }
+
+    /**
+     * Returns a page in memory by its number, or null if it was evicted or has not been sealed yet.
+     */
+    public synchronized SyncPage getPage(int number) {
+        for (SyncPage page : mPages) {
+            if (page.getNumber() == number) return page;
+        }
+        return null;
+    }
+
+    public synchronized int size() {
+        return mPages.size();
+    }
+
+    /**
+     * Returns the estimated number of bytes the pages in memory take on the heap.
+     */
+    public synchronized long getSizeInBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Drops every page in memory. Pages that are still being sealed are added afterwards.
+     */
+    public synchronized void clear() {
+        mPages.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * Waits until every page passed to a seal method so far has been sealed and handed to the sinks.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     * @return false if the time ran out
+     */
+    public boolean awaitSealed(long timeout) throws InterruptedException {
+        final Object done = new Object();
+        final boolean[] sealed = new boolean[1];
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (done) {
+                    sealed[0] = true;
+                    done.notifyAll();
+                }
+            }
+        });
+
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (done) {
+            while (!sealed[0]) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) return false;
+                done.wait(wait);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Seals the pages that are pending and stops the background thread. Pages cannot be sealed afterwards.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+        try {
+            mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds a sink that receives every page sealed from now on.
+     *
+     * @param sink Class that implements PageSink.
+     * @return false indicates sink was already added
+     */
+    public synchronized boolean addSink(PageSink sink) {
+        if (mSinks.contains(sink)) return false;
+        else mSinks.add(sink);
+        return true;
+    }
+
+    /**
+     * @param sink Class that implements PageSink.
+     * @return false indicates sink was not originally added
+     */
+    public synchronized boolean removeSink(PageSink sink) {
+        if (!mSinks.contains(sink)) return false;
+        else mSinks.remove(sink);
+        return true;
+    }
+
+    /**
+     * Adds a sealed page and evicts the oldest pages over the limits, then hands the page to the sinks. Runs on the background thread.
+     */
+    private void pageSealed(SyncPage page) {
+        List<PageSink> sinks;
+        synchronized (this) {
+            if (mMaxPages > 0) {
+                mPages.addLast(page);
+                mBytes += page.getSizeInBytes();
+                while (mPages.size() > mMaxPages || (mBytes > mMaxBytes && mPages.size() > 1)) {
+                    SyncPage evicted = mPages.removeFirst();
+                    mBytes -= evicted.getSizeInBytes();
+                    if (DEBUG) Log.log(Level.INFO, "evicted page " + evicted.getNumber());
+                }
+            }
+            sinks = new ArrayList<PageSink>(mSinks);
+        }
+
+        for (PageSink sink : sinks) {
+            try {
+                sink.onPageSealed(page);
+            } catch (RuntimeException e) {
+                Log.log(Level.SEVERE, "page sink failed for page " + page.getNumber(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.ink;
+
+import com.improvelectronics.sync.j2se.SyncSegmentListener;
+
+/**
+ * Streaming simplification stage that sits between {@link com.improvelectronics.sync.j2se.Filtering} and whatever consumes its segments.
+ * Slow writing produces long runs of short, nearly collinear segments; this stage merges every run whose points all lie within a tolerance
+ * of the merged segment into one segment.
+ * </p>
+ * The stage works online. Points are held back in a window of bounded size, so a vertex is passed on at most that many segments after it
+ * arrived, and the end of a trace flushes everything. Segments are only merged while their line widths stay within a tolerance of each
+ * other, so the width changes that come from pressure and speed are kept; a merged segment gets the average width of the segments it
+ * replaces. A tolerance of zero passes every segment on unchanged.
+ * </p>
+ * Like the filter, the stage keeps state and is used by one thread.
+ */
+public class SegmentSimplifier implements SyncSegmentListener {
+
+    /**
+     * Default distance in digitizer units a dropped point may be from the merged segment.
+     */
+    public static final float DEFAULT_TOLERANCE = 4.0f;
+
+    /**
+     * Default number of points held back before a segment is passed on.
+     */
+    public static final int DEFAULT_WINDOW = 32;
+
+    private final SyncSegmentListener mListener;
+    private final int mWindow;
+    private volatile float mTolerance;
+    private volatile float mWidthTolerance;
+
+    // Settings latched at the start of the trace, so changes never split a run.
+    private float mTraceTolerance, mTraceWidthTolerance;
+
+    // Last vertex passed on, the points held back since and the sum of the line widths of the segments ending at them.
+    private boolean mInTrace;
+    private float mAnchorX, mAnchorY;
+    private final float[] mPending;
+    private int mPendingCount;
+    private float mRunWidthSum;
+
+    private long mInputSegments, mOutputSegments;
+
+    /**
+     * Creates a stage with the default tolerances and window.
+     *
+     * @param listener listener the simplified segments are passed on to
+     */
+    public SegmentSimplifier(SyncSegmentListener listener) {
+        this(listener, DEFAULT_TOLERANCE, DEFAULT_TOLERANCE, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param listener       listener the simplified segments are passed on to
+     * @param tolerance      distance in digitizer units a dropped point may be from the merged segment, zero to disable the stage
+     * @param widthTolerance difference in line width in digitizer units allowed between segments that are merged
+     * @param window         maximum number of points held back
+     */
+    public SegmentSimplifier(SyncSegmentListener listener, float tolerance, float widthTolerance, int window) {
+        if (window < 1) throw new IllegalArgumentException("window must be at least 1");
+        mListener = listener;
+        mWindow = window;
+        mTolerance = tolerance;
+        mWidthTolerance = widthTolerance;
+        mPending = new float[window * 2];
+    }
+
+    /**
+     * Sets the tolerances. They take effect at the start of the next trace, so this can be called from any thread.
+     *
+     * @param tolerance      distance in digitizer units a dropped point may be from the merged segment, zero to disable the stage
+     * @param widthTolerance difference in line width in digitizer units allowed between segments that are merged
+     */
+    public void setTolerance(float tolerance, float widthTolerance) {
+        mTolerance = tolerance;
+        mWidthTolerance = widthTolerance;
+    }
+
+    public float getTolerance() {
+        return mTolerance;
+    }
+
+    @Override
+    public void onSegment(float x0, float y0, float x1, float y1, float lineWidth) {
+        mInputSegments++;
+
+        if (!mInTrace) {
+            mInTrace = true;
+            mTraceTolerance = mTolerance;
+            mTraceWidthTolerance = mWidthTolerance;
+        } else if (mPendingCount > 0 && (x0 != mPending[mPendingCount * 2 - 2] || y0 != mPending[mPendingCount * 2 - 1])) {
+            // The segment does not continue the last one, start over from its first point.
+            flush();
+        }
+
+        if (mTraceTolerance <= 0) {
+            mOutputSegments++;
+            mListener.onSegment(x0, y0, x1, y1, lineWidth);
+            return;
+        }
+
+        if (mPendingCount == 0) {
+            mAnchorX = x0;
+            mAnchorY = y0;
+        } else if (mPendingCount == mWindow || !fits(x1, y1, lineWidth)) {
+            flush();
+        }
+
+        mPending[mPendingCount * 2] = x1;
+        mPending[mPendingCount * 2 + 1] = y1;
+        mPendingCount++;
+        mRunWidthSum += lineWidth;
+    }
+
+    @Override
+    public void onTraceEnd() {
+        if (mPendingCount > 0) flush();
+        mInTrace = false;
+        mListener.onTraceEnd();
+    }
+
+    /**
+     * Returns the number of segments received from the filter.
+     */
+    public long getInputSegmentCount() {
+        return mInputSegments;
+    }
+
+    /**
+     * Returns the number of segments passed on.
+     */
+    public long getOutputSegmentCount() {
+        return mOutputSegments;
+    }
+
+    /**
+     * Returns the number of segments received for every segment passed on, 1 when nothing was simplified yet.
+     */
+    public float getCompressionRatio() {
+        return mOutputSegments == 0 ? 1.0f : (float) mInputSegments / mOutputSegments;
+    }
+
+    /**
+     * Resets the counters returned by {@link #getCompressionRatio()}.
+     */
+    public void resetStatistics() {
+        mInputSegments = 0;
+        mOutputSegments = 0;
+    }
+
+    /**
+     * Returns true if the held back points stay within the tolerance when the run is extended to the given point.
+     */
+    private boolean fits(float x, float y, float lineWidth) {
+        float runWidth = mRunWidthSum / mPendingCount;
+        if (Math.abs(lineWidth - runWidth) > mTraceWidthTolerance) return false;
+
+        float dx = x - mAnchorX, dy = y - mAnchorY;
+        float lengthSquared = dx * dx + dy * dy;
+        float toleranceSquared = mTraceTolerance * mTraceTolerance;
+
+        for (int i = 0; i < mPendingCount; i++) {
+            float px = mPending[i * 2] - mAnchorX, py = mPending[i * 2 + 1] - mAnchorY;
+
+            // Distance to the segment, not the line, so points behind the anchor or past the end are not dropped.
+            float t = lengthSquared == 0 ? 0 : (px * dx + py * dy) / lengthSquared;
+            if (t < 0) t = 0;
+            else if (t > 1) t = 1;
+            float ex = px - t * dx, ey = py - t * dy;
+            if (ex * ex + ey * ey > toleranceSquared) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Passes on the segment from the anchor to the last held back point and makes that point the new anchor.
+     */
+    private void flush() {
+        float x = mPending[mPendingCount * 2 - 2];
+        float y = mPending[mPendingCount * 2 - 1];
+        mOutputSegments++;
+        mListener.onSegment(mAnchorX, mAnchorY, x, y, mRunWidthSum / mPendingCount);
+
+        mAnchorX = x;
+        mAnchorY = y;
+        mPendingCount = 0;
+        mRunWidthSum = 0;
+    }
+}
@@ -0,0 +1,314 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.ink;
+
+import com.improvelectronics.sync.j2se.SyncCaptureReport;
+import com.improvelectronics.sync.j2se.SyncStroke;
+import com.improvelectronics.sync.j2se.SyncStrokeListener;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform grid over the digitizer surface that finds the strokes intersecting a rectangle or near a point without looking at every
+ * stroke. Strokes are referred to by their position in a stroke list, normally the {@link StrokeStore} of the streaming service, and the
+ * index is kept up to date as a {@link SyncStrokeListener}: every new segment adds the stroke to the few cells its bounds cover.
+ * </p>
+ * Every cell remembers the generation it was filled in, so {@link #clear()} only has to start a new generation and takes constant time no
+ * matter how much was drawn. All methods are synchronized; queries read the vertices of the strokes, so they should be done on a list the
+ * index was fed from.
+ */
+public class StrokeIndex implements SyncStrokeListener {
+
+    /**
+     * Default width and height of a grid cell in digitizer units, giving a grid of 80 by 55 cells.
+     */
+    public static final float DEFAULT_CELL_SIZE = 256.0f;
+
+    private static final int INITIAL_CELL_CAPACITY = 8;
+
+    private final List<SyncStroke> mStrokes;
+    private final float mCellSize;
+    private final int mColumns, mRows;
+
+    // Stroke positions in each cell, the number used and the generation the cell was last written in.
+    private final int[][] mCells;
+    private final int[] mCellCounts;
+    private final int[] mCellGenerations;
+    private int mGeneration = 1;
+
+    // Bounds of every indexed stroke, including half its line width, and the number of vertices indexed so far.
+    private float[] mBounds = new float[256 * 4];
+    private int[] mIndexedVertices = new int[256];
+    private int mCount;
+
+    // Marks the strokes already reported by a query.
+    private int[] mQueryMarks = new int[256];
+    private int mQuery;
+
+    /**
+     * Creates an index with the default cell size.
+     *
+     * @param strokes list the positions in the index refer to, with strokes added in the order they are started
+     */
+    public StrokeIndex(List<SyncStroke> strokes) {
+        this(strokes, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * @param strokes  list the positions in the index refer to, with strokes added in the order they are started
+     * @param cellSize width and height of a grid cell in digitizer units
+     */
+    public StrokeIndex(List<SyncStroke> strokes, float cellSize) {
+        if (cellSize <= 0) throw new IllegalArgumentException("cellSize must be positive");
+        mStrokes = strokes;
+        mCellSize = cellSize;
+        mColumns = (int) Math.ceil(SyncCaptureReport.MAX_X / cellSize) + 1;
+        mRows = (int) Math.ceil(SyncCaptureReport.MAX_Y / cellSize) + 1;
+        mCells = new int[mColumns * mRows][];
+        mCellCounts = new int[mColumns * mRows];
+        mCellGenerations = new int[mColumns * mRows];
+    }
+
+    @Override
+    public synchronized void onStrokeStart(SyncStroke stroke) {
+        if (mCount * 4 == mBounds.length) {
+            mBounds = Arrays.copyOf(mBounds, mBounds.length * 2);
+            mIndexedVertices = Arrays.copyOf(mIndexedVertices, mIndexedVertices.length * 2);
+        }
+        int position = mCount++;
+        mBounds[position * 4] = Float.MAX_VALUE;
+        mBounds[position * 4 + 1] = Float.MAX_VALUE;
+        mBounds[position * 4 + 2] = -Float.MAX_VALUE;
+        mBounds[position * 4 + 3] = -Float.MAX_VALUE;
+        mIndexedVertices[position] = 0;
+        indexVertices(position, stroke);
+    }
+
+    @Override
+    public synchronized void onStrokeUpdate(SyncStroke stroke, int firstVertex) {
+        if (mCount > 0) indexVertices(mCount - 1, stroke);
+    }
+
+    @Override
+    public synchronized void onStrokeEnd(SyncStroke stroke) {
+        if (mCount > 0) indexVertices(mCount - 1, stroke);
+    }
+
+    /**
+     * Removes every stroke from the index in constant time. Call this before clearing the stroke list, so a query never looks up a
+     * position the list no longer has.
+     */
+    public synchronized void clear() {
+        mGeneration++;
+        mCount = 0;
+    }
+
+    /**
+     * Returns the number of strokes in the index.
+     */
+    public synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * Returns the positions of the strokes whose bounds intersect a rectangle, in the order the strokes were drawn. This is a cheap first
+     * pass; use {@link #getStrokes(Rectangle2D)} to also test the segments.
+     *
+     * @param minX left edge in digitizer units
+     * @param minY top edge in digitizer units
+     * @param maxX right edge in digitizer units
+     * @param maxY bottom edge in digitizer units
+     * @return stroke positions in ascending order
+     */
+    public synchronized int[] query(float minX, float minY, float maxX, float maxY) {
+        int[] found = new int[16];
+        int foundCount = 0;
+        int query = nextQuery();
+
+        int column0 = column(minX), column1 = column(maxX);
+        int row0 = row(minY), row1 = row(maxY);
+        for (int row = row0; row <= row1; row++) {
+            for (int column = column0; column <= column1; column++) {
+                int cell = row * mColumns + column;
+                if (mCellGenerations[cell] != mGeneration) continue;
+
+                int[] positions = mCells[cell];
+                for (int i = 0, count = mCellCounts[cell]; i < count; i++) {
+                    int position = positions[i];
+                    if (mQueryMarks[position] == query) continue;
+                    mQueryMarks[position] = query;
+
+                    int b = position * 4;
+                    if (mBounds[b] > maxX || mBounds[b + 2] < minX || mBounds[b + 1] > maxY || mBounds[b + 3] < minY) continue;
+                    if (foundCount == found.length) found = Arrays.copyOf(found, foundCount * 2);
+                    found[foundCount++] = position;
+                }
+            }
+        }
+
+        found = Arrays.copyOf(found, foundCount);
+        Arrays.sort(found);
+        return found;
+    }
+
+    /**
+     * Returns the strokes with a segment inside or crossing a rectangle, taking the line width into account.
+     *
+     * @param rectangle rectangle in digitizer units
+     * @return strokes in the order they were drawn
+     */
+    public synchronized List<SyncStroke> getStrokes(Rectangle2D rectangle) {
+        List<SyncStroke> strokes = new ArrayList<SyncStroke>();
+        Rectangle2D.Float grown = new Rectangle2D.Float();
+        int[] candidates = query((float) rectangle.getMinX(), (float) rectangle.getMinY(), (float) rectangle.getMaxX(),
+                (float) rectangle.getMaxY());
+
+        for (int position : candidates) {
+            // The list can be cleared by another thread just before the index is.
+            if (position >= mStrokes.size()) break;
+            SyncStroke stroke = mStrokes.get(position);
+            int vertices = mIndexedVertices[position];
+            for (int i = 0; i < vertices; i++) {
+                // Grow the rectangle by half the line width of the segment instead of widening the segment.
+                float halfWidth = stroke.getWidth(i) / 2;
+                grown.setRect(rectangle.getX() - halfWidth, rectangle.getY() - halfWidth, rectangle.getWidth() + 2 * halfWidth,
+                        rectangle.getHeight() + 2 * halfWidth);
+                boolean hit = i == 0 ? grown.contains(stroke.getX(0), stroke.getY(0))
+                        : grown.intersectsLine(stroke.getX(i - 1), stroke.getY(i - 1), stroke.getX(i), stroke.getY(i));
+                if (hit) {
+                    strokes.add(stroke);
+                    break;
+                }
+            }
+        }
+        return strokes;
+    }
+
+    /**
+     * Returns the strokes passing within a distance of a point, taking the line width into account.
+     *
+     * @param x         x in digitizer units
+     * @param y         y in digitizer units
+     * @param tolerance distance from the edge of the stroke that still counts as a hit, in digitizer units
+     * @return strokes in the order they were drawn
+     */
+    public synchronized List<SyncStroke> hitTest(float x, float y, float tolerance) {
+        List<SyncStroke> strokes = new ArrayList<SyncStroke>();
+        int[] candidates = query(x - tolerance, y - tolerance, x + tolerance, y + tolerance);
+
+        for (int position : candidates) {
+            // The list can be cleared by another thread just before the index is.
+            if (position >= mStrokes.size()) break;
+            SyncStroke stroke = mStrokes.get(position);
+            int vertices = mIndexedVertices[position];
+            for (int i = 0; i < vertices; i++) {
+                float reach = tolerance + stroke.getWidth(i) / 2;
+                double distanceSquared = i == 0 ? distanceSquared(x, y, stroke.getX(0), stroke.getY(0))
+                        : Line2D.ptSegDistSq(stroke.getX(i - 1), stroke.getY(i - 1), stroke.getX(i), stroke.getY(i), x, y);
+                if (distanceSquared <= reach * reach) {
+                    strokes.add(stroke);
+                    break;
+                }
+            }
+        }
+        return strokes;
+    }
+
+    /**
+     * Adds the segments of a stroke that were not indexed yet.
+     */
+    private void indexVertices(int position, SyncStroke stroke) {
+        int first = mIndexedVertices[position];
+        int vertices = stroke.getVertexCount();
+        int b = position * 4;
+
+        for (int i = first; i < vertices; i++) {
+            float halfWidth = stroke.getWidth(i) / 2;
+            float x0 = stroke.getX(i), y0 = stroke.getY(i);
+            float x1 = i > 0 ? stroke.getX(i - 1) : x0;
+            float y1 = i > 0 ? stroke.getY(i - 1) : y0;
+
+            float minX = Math.min(x0, x1) - halfWidth, maxX = Math.max(x0, x1) + halfWidth;
+            float minY = Math.min(y0, y1) - halfWidth, maxY = Math.max(y0, y1) + halfWidth;
+            mBounds[b] = Math.min(mBounds[b], minX);
+            mBounds[b + 1] = Math.min(mBounds[b + 1], minY);
+            mBounds[b + 2] = Math.max(mBounds[b + 2], maxX);
+            mBounds[b + 3] = Math.max(mBounds[b + 3], maxY);
+
+            int column0 = column(minX), column1 = column(maxX);
+            int row0 = row(minY), row1 = row(maxY);
+            for (int row = row0; row <= row1; row++) {
+                for (int column = column0; column <= column1; column++) addToCell(row * mColumns + column, position);
+            }
+        }
+        mIndexedVertices[position] = vertices;
+    }
+
+    private void addToCell(int cell, int position) {
+        if (mCellGenerations[cell] != mGeneration) {
+            mCellGenerations[cell] = mGeneration;
+            mCellCounts[cell] = 0;
+        }
+
+        int[] positions = mCells[cell];
+        int count = mCellCounts[cell];
+
+        // Consecutive segments of a stroke mostly fall in the same cell, and positions only grow, so checking the last entry is enough.
+        if (count > 0 && positions[count - 1] == position) return;
+
+        if (positions == null) {
+            positions = mCells[cell] = new int[INITIAL_CELL_CAPACITY];
+        } else if (count == positions.length) {
+            positions = mCells[cell] = Arrays.copyOf(positions, count * 2);
+        }
+        positions[count] = position;
+        mCellCounts[cell] = count + 1;
+    }
+
+    private int nextQuery() {
+        if (mQueryMarks.length < mCount) mQueryMarks = Arrays.copyOf(mQueryMarks, mBounds.length / 4);
+        if (++mQuery == 0) {
+            // Marks wrapped around, forget the old ones.
+            Arrays.fill(mQueryMarks, 0);
+            mQuery = 1;
+        }
+        return mQuery;
+    }
+
+    private int column(float x) {
+        return Math.max(0, Math.min(mColumns - 1, (int) (x / mCellSize)));
+    }
+
+    private int row(float y) {
+        return Math.max(0, Math.min(mRows - 1, (int) (y / mCellSize)));
+    }
+
+    private static double distanceSquared(float x0, float y0, float x1, float y1) {
+        double dx = x1 - x0, dy = y1 - y0;
+        return dx * dx + dy * dy;
+    }
+}
@@ -0,0 +1,276 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.ink;
+
+import com.improvelectronics.sync.j2se.Filtering;
+import com.improvelectronics.sync.j2se.SyncPredictionListener;
+import com.improvelectronics.sync.j2se.SyncSegmentListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prediction stage that draws a short provisional tail ahead of the ink, so it seems to stay under the stylus. The drawn ink trails the
+ * stylus by the time the {@link Filtering filter} needs to converge and by the Bluetooth delay; the tail covers that gap by extrapolating
+ * the velocity and acceleration of the filter.
+ * </p>
+ * The stage receives the drawn segments like any other {@link SyncSegmentListener} to know where the ink ends, and is told about every
+ * sample after it was filtered with {@link #onSample(Filtering, int, int, byte)}. Each sample produces a new provisional segment that
+ * replaces the previous one. A look ahead of zero turns the stage off.
+ * </p>
+ * The stage also measures what the prediction gains. For every sample of a moving stylus it compares how far the drawn ink and the
+ * predicted tip trail the sample along the direction of motion, converted to time with the speed of the stylus, and it compares every
+ * prediction with the sample that arrives at the predicted time. Like the filter, the stage keeps state and is used by one thread;
+ * the statistics can be read from any thread.
+ */
+public class StrokePredictor implements SyncSegmentListener {
+
+    /**
+     * Default time to look ahead of the last sample in milliseconds.
+     */
+    public static final float DEFAULT_LOOK_AHEAD = 20.0f;
+
+    /**
+     * Longest provisional segment in digitizer units (5 mm), so a sudden stop never shoots the tail across the page.
+     */
+    public static final float MAX_TAIL_LENGTH = 500.0f;
+
+    // Slowest speed in digitizer units per sample that is used for the latency statistics, below it the lag is mostly noise.
+    private static final float MIN_SPEED = 5.0f;
+
+    // Number of pending predictions kept to measure their error.
+    private static final int ERROR_HISTORY = 64;
+
+    private final List<SyncPredictionListener> mListeners;
+    private volatile float mLookAhead;
+
+    // End of the drawn trace, valid while mDrawn is set.
+    private boolean mDrawn;
+    private float mTipX, mTipY, mTipWidth;
+    private boolean mPredicting;
+    private final float[] mPrediction = new float[3];
+
+    // Last sample of the trace, used to estimate the speed of the stylus.
+    private boolean mHasSample;
+    private int mLastX, mLastY;
+
+    // Predictions waiting for the sample they predicted, indexed by sample number.
+    private long mSampleNumber;
+    private final long[] mPendingSample = new long[ERROR_HISTORY];
+    private final float[] mPendingX = new float[ERROR_HISTORY];
+    private final float[] mPendingY = new float[ERROR_HISTORY];
+    private final float[] mPendingFraction = new float[ERROR_HISTORY];
+
+    // Guarded by this.
+    private long mLagSamples;
+    private double mLagWithout, mLagWith;
+    private long mErrorSamples;
+    private double mErrorSum;
+
+    public StrokePredictor() {
+        this(DEFAULT_LOOK_AHEAD);
+    }
+
+    /**
+     * @param lookAhead time to look ahead of the last sample in milliseconds, zero to turn the stage off
+     */
+    public StrokePredictor(float lookAhead) {
+        mListeners = new ArrayList<SyncPredictionListener>();
+        mLookAhead = lookAhead;
+    }
+
+    /**
+     * Changes the time to look ahead. Takes effect with the next sample.
+     *
+     * @param lookAhead time to look ahead of the last sample in milliseconds, zero to turn the stage off
+     */
+    public void setLookAhead(float lookAhead) {
+        mLookAhead = lookAhead;
+    }
+
+    public float getLookAhead() {
+        return mLookAhead;
+    }
+
+    /**
+     * @param listener Class that implements SyncPredictionListener for provisional segments.
+     * @return false indicates listener has already been added
+     */
+    public boolean addListener(SyncPredictionListener listener) {
+        if (mListeners.contains(listener)) return false;
+        else mListeners.add(listener);
+        return true;
+    }
+
+    /**
+     * @param listener Class that implements SyncPredictionListener for provisional segments.
+     * @return false indicates listener was not originally added
+     */
+    public boolean removeListener(SyncPredictionListener listener) {
+        if (!mListeners.contains(listener)) return false;
+        else mListeners.remove(listener);
+        return true;
+    }
+
+    @Override
+    public void onSegment(float x0, float y0, float x1, float y1, float lineWidth) {
+        mDrawn = true;
+        mTipX = x1;
+        mTipY = y1;
+        mTipWidth = lineWidth;
+    }
+
+    @Override
+    public void onTraceEnd() {
+        mDrawn = false;
+        mHasSample = false;
+        clearPrediction();
+    }
+
+    /**
+     * Predicts the position of the stylus after a sample was filtered and passes the provisional segment on.
+     *
+     * @param filtering filter the sample was passed to
+     * @param x         digitizer x coordinate of the sample
+     * @param y         digitizer y coordinate of the sample
+     * @param flags     flags of the capture report
+     */
+    public void onSample(Filtering filtering, int x, int y, byte flags) {
+        mSampleNumber++;
+        float lookAhead = mLookAhead;
+        if (lookAhead <= 0 || !Filtering.isContact(flags) || !mDrawn || !filtering.predict(lookAhead, mPrediction)) {
+            clearPrediction();
+            mHasSample = false;
+            return;
+        }
+
+        float predictedX = mPrediction[0], predictedY = mPrediction[1];
+        float dx = predictedX - mTipX, dy = predictedY - mTipY;
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        if (length > MAX_TAIL_LENGTH) {
+            predictedX = mTipX + dx * MAX_TAIL_LENGTH / length;
+            predictedY = mTipY + dy * MAX_TAIL_LENGTH / length;
+        }
+
+        measure(x, y, predictedX, predictedY, lookAhead);
+
+        mPredicting = true;
+        float width = mPrediction[2] > 0 ? mPrediction[2] : mTipWidth;
+        for (SyncPredictionListener listener : mListeners) listener.onPrediction(mTipX, mTipY, predictedX, predictedY, width);
+    }
+
+    /**
+     * Returns the number of samples the latency statistics are based on.
+     */
+    public synchronized long getMeasuredSampleCount() {
+        return mLagSamples;
+    }
+
+    /**
+     * Returns how long the drawn ink trails the last sample on average, in milliseconds.
+     */
+    public synchronized float getLatencyWithoutPrediction() {
+        return mLagSamples == 0 ? 0 : (float) (mLagWithout / mLagSamples * Filtering.SAMPLE_INTERVAL_MS);
+    }
+
+    /**
+     * Returns how long the predicted tip trails the last sample on average, in milliseconds. The value is negative when the tip is
+     * ahead of the last sample, which makes up for part of the Bluetooth delay.
+     */
+    public synchronized float getLatencyWithPrediction() {
+        return mLagSamples == 0 ? 0 : (float) (mLagWith / mLagSamples * Filtering.SAMPLE_INTERVAL_MS);
+    }
+
+    /**
+     * Returns how much earlier the ink appears under the stylus with the prediction, in milliseconds.
+     */
+    public synchronized float getLatencyImprovement() {
+        return getLatencyWithoutPrediction() - getLatencyWithPrediction();
+    }
+
+    /**
+     * Returns the average distance in digitizer units between a predicted position and the sample that arrived at the predicted time.
+     */
+    public synchronized float getAveragePredictionError() {
+        return mErrorSamples == 0 ? 0 : (float) (mErrorSum / mErrorSamples);
+    }
+
+    public synchronized void resetStatistics() {
+        mLagSamples = 0;
+        mLagWith = mLagWithout = 0;
+        mErrorSamples = 0;
+        mErrorSum = 0;
+    }
+
+    private void clearPrediction() {
+        if (!mPredicting) return;
+        mPredicting = false;
+        for (SyncPredictionListener listener : mListeners) listener.onPredictionCleared();
+    }
+
+    private void measure(int x, int y, float predictedX, float predictedY, float lookAhead) {
+        // Error of the prediction that was aimed between the last sample and this one, if it was made during this trace. The position
+        // of the stylus at the predicted time is interpolated between the two samples.
+        int slot = (int) (mSampleNumber % ERROR_HISTORY);
+        boolean checked = mHasSample && mPendingSample[slot] == mSampleNumber;
+        float error = 0;
+        if (checked) {
+            float fraction = mPendingFraction[slot];
+            float ex = mPendingX[slot] - (mLastX + (x - mLastX) * fraction);
+            float ey = mPendingY[slot] - (mLastY + (y - mLastY) * fraction);
+            error = (float) Math.sqrt(ex * ex + ey * ey);
+        }
+
+        float ahead = lookAhead / Filtering.SAMPLE_INTERVAL_MS;
+        int after = (int) Math.ceil(ahead);
+        if (after < ERROR_HISTORY) {
+            int target = (int) ((mSampleNumber + after) % ERROR_HISTORY);
+            mPendingSample[target] = mSampleNumber + after;
+            mPendingX[target] = predictedX;
+            mPendingY[target] = predictedY;
+            mPendingFraction[target] = ahead - (after - 1);
+        }
+
+        float speedX = x - mLastX, speedY = y - mLastY;
+        float speed = (float) Math.sqrt(speedX * speedX + speedY * speedY);
+        boolean moving = mHasSample && speed >= MIN_SPEED;
+        mHasSample = true;
+        mLastX = x;
+        mLastY = y;
+        if (!moving && !checked) return;
+
+        synchronized (this) {
+            if (checked) {
+                mErrorSamples++;
+                mErrorSum += error;
+            }
+            if (moving) {
+                // Distance along the direction of motion divided by the speed gives the lag in samples.
+                float ux = speedX / speed, uy = speedY / speed;
+                mLagSamples++;
+                mLagWithout += ((x - mTipX) * ux + (y - mTipY) * uy) / speed;
+                mLagWith += ((x - predictedX) * ux + (y - predictedY) * uy) / speed;
+            }
+        }
+    }
+}
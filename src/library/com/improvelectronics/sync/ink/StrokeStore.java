@@ -0,0 +1,450 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.ink;
+
+import com.improvelectronics.sync.Config;
+import com.improvelectronics.sync.j2se.SyncStroke;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only list of strokes with a bound on the heap it uses. The most recent strokes are kept in memory; once the completed strokes
+ * take more than the budget, the oldest ones are written to an append-only spill file and dropped from the heap. Spilled strokes are read
+ * back on demand when they are accessed, and the most recently read ones are kept in a small cache.
+ * </p>
+ * Strokes are added by a single writer, the thread filtering the capture reports. Other threads should read them through a
+ * {@link Snapshot}, an immutable view of the completed strokes at one version of the store. Taking a snapshot copies nothing and never
+ * blocks the writer, and {@link Snapshot#getChangesSince(long)} lets a renderer process only the strokes completed since the version it
+ * last drew. {@link #clear()} starts a new generation of the store, so snapshots taken before stay valid.
+ */
+public class StrokeStore extends AbstractList<SyncStroke> {
+    private static final Logger Log = Logger.getLogger(StrokeStore.class.getName());
+    private static final boolean DEBUG = Config.DEBUG;
+
+    /**
+     * Default heap budget for the strokes kept in memory.
+     */
+    public static final long DEFAULT_HEAP_BUDGET = 32L * 1024 * 1024;
+
+    /**
+     * Number of spilled strokes that are kept in memory after they were read back.
+     */
+    private static final int PAGE_CACHE_STROKES = 256;
+
+    // Rough size of a stroke object and its two arrays, excluding the array contents.
+    private static final int STROKE_OVERHEAD = 64;
+
+    private final long mHeapBudget;
+    private final File mSpillDirectory;
+    private volatile Generation mGeneration;
+
+    // Spill files of replaced generations, closed once no snapshot can reach their generation any more.
+    private final ReferenceQueue<Generation> mRetiredQueue = new ReferenceQueue<Generation>();
+    private final Set<RetiredSpill> mRetiredSpills = new HashSet<RetiredSpill>();
+
+    public StrokeStore() {
+        this(DEFAULT_HEAP_BUDGET, null);
+    }
+
+    /**
+     * @param heapBudget     bytes the completed strokes may take on the heap before the oldest are spilled
+     * @param spillDirectory directory for the spill file, null for the default temporary directory
+     */
+    public StrokeStore(long heapBudget, File spillDirectory) {
+        mHeapBudget = heapBudget;
+        mSpillDirectory = spillDirectory;
+        mGeneration = new Generation(0);
+    }
+
+    @Override
+    public synchronized boolean add(SyncStroke stroke) {
+        mGeneration.add(stroke);
+        modCount++;
+        if (stroke.isComplete()) strokeCompleted(stroke);
+        return true;
+    }
+
+    /**
+     * Tells the store that a stroke it holds is complete. The stroke shows up in snapshots taken from now on, its size is counted against
+     * the heap budget and it may be spilled.
+     *
+     * @param stroke stroke that was completed
+     */
+    public synchronized void strokeCompleted(SyncStroke stroke) {
+        Generation generation = mGeneration;
+
+        // Ignore strokes that were removed by clear() while still in progress. The stroke is almost always the last one.
+        int index = generation.mSize - 1;
+        while (index >= generation.mSpilledCount && generation.mStrokes.get(index) != stroke) index--;
+        if (index < generation.mSpilledCount) return;
+
+        generation.mResidentBytes += sizeOf(stroke);
+        generation.advanceCompleted();
+        if (generation.mResidentBytes > mHeapBudget) generation.spill();
+    }
+
+    /**
+     * Returns a stroke, including the stroke still in progress. Use {@link #snapshot()} to read the strokes from another thread than the
+     * one adding them.
+     */
+    @Override
+    public SyncStroke get(int index) {
+        Generation generation = mGeneration;
+        int size = generation.mSize;
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        return generation.get(index);
+    }
+
+    /**
+     * Returns the number of strokes, including the stroke still in progress.
+     */
+    @Override
+    public int size() {
+        return mGeneration.mSize;
+    }
+
+    /**
+     * Removes every stroke and starts a new generation. Snapshots taken before keep their strokes.
+     */
+    @Override
+    public synchronized void clear() {
+        Generation old = mGeneration;
+        mGeneration = new Generation(old.mBaseVersion + old.mCompleted + 1);
+        modCount++;
+        old.retire();
+        releaseRetiredSpills();
+    }
+
+    /**
+     * Returns an immutable view of the completed strokes. This can be called from any thread and never blocks.
+     */
+    public Snapshot snapshot() {
+        Generation generation = mGeneration;
+        return new Snapshot(generation, generation.mCompleted);
+    }
+
+    /**
+     * Returns the current version of the store. The version grows by one for every completed stroke and for every clear.
+     */
+    public long getVersion() {
+        Generation generation = mGeneration;
+        return generation.mBaseVersion + generation.mCompleted;
+    }
+
+    /**
+     * Returns the number of strokes that have been moved to the spill file.
+     */
+    public int getSpilledCount() {
+        return mGeneration.mSpilledCount;
+    }
+
+    /**
+     * Returns the estimated number of bytes taken on the heap by the completed strokes that were not spilled.
+     */
+    public synchronized long getResidentBytes() {
+        return mGeneration.mResidentBytes;
+    }
+
+    /**
+     * Releases the spill files. The store is empty afterwards, and snapshots taken before can no longer read the strokes that were spilled.
+     */
+    public synchronized void close() {
+        clear();
+        for (RetiredSpill spill : mRetiredSpills) spill.release();
+        mRetiredSpills.clear();
+    }
+
+    /**
+     * Closes the spill files of the generations that are no longer reachable from any snapshot.
+     */
+    private void releaseRetiredSpills() {
+        Reference<? extends Generation> reference;
+        while ((reference = mRetiredQueue.poll()) != null) {
+            RetiredSpill spill = (RetiredSpill) reference;
+            spill.release();
+            mRetiredSpills.remove(spill);
+        }
+    }
+
+    /**
+     * Estimates the heap taken by a stroke.
+     */
+    static long sizeOf(SyncStroke stroke) {
+        return STROKE_OVERHEAD + 4L * (stroke.getCoordinates().length + stroke.getWidths().length) + stroke.getDetailSizeInBytes();
+    }
+
+    /**
+     * Immutable view of the completed strokes of a store at one version. A snapshot only holds a reference to the strokes of the store and
+     * the number of strokes it covers, so it is cheap to take and to keep.
+     */
+    public static class Snapshot extends AbstractList<SyncStroke> {
+        private final Generation mGeneration;
+        private final int mSize;
+
+        private Snapshot(Generation generation, int size) {
+            mGeneration = generation;
+            mSize = size;
+        }
+
+        @Override
+        public SyncStroke get(int index) {
+            if (index < 0 || index >= mSize) throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+            return mGeneration.get(index);
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * Returns the version of the store this snapshot was taken at.
+         */
+        public long getVersion() {
+            return mGeneration.mBaseVersion + mSize;
+        }
+
+        /**
+         * Returns true if this snapshot holds every stroke that existed at the given version, that is the store was not cleared in between.
+         *
+         * @param version version of an earlier snapshot
+         */
+        public boolean isContinuationOf(long version) {
+            return version >= mGeneration.mBaseVersion && version <= getVersion();
+        }
+
+        /**
+         * Returns the strokes completed after the given version. If the store was cleared in between, every stroke of this snapshot is
+         * returned and the caller has to start over, see {@link #isContinuationOf(long)}.
+         *
+         * @param version version of an earlier snapshot
+         */
+        public List<SyncStroke> getChangesSince(long version) {
+            if (!isContinuationOf(version)) return this;
+            return subList((int) (version - mGeneration.mBaseVersion), mSize);
+        }
+    }
+
+    /**
+     * The strokes added between two clears. Only the writer modifies a generation. Slots of the stroke array are published through
+     * volatile writes, so a reader that finds a cleared slot also sees the spill offset written before it.
+     */
+    private class Generation {
+        private final long mBaseVersion;
+
+        private volatile AtomicReferenceArray<SyncStroke> mStrokes = new AtomicReferenceArray<SyncStroke>(256);
+        private volatile long[] mSpillOffsets = new long[256];
+        private volatile int mSize;
+        private volatile int mCompleted;
+
+        // Strokes before this index have been spilled.
+        private volatile int mSpilledCount;
+        private long mResidentBytes;
+
+        private File mSpillFile;
+        private RandomAccessFile mSpill;
+        private boolean mSpillFailed;
+        private ByteBuffer mRecord = ByteBuffer.allocate(4096);
+
+        private final Map<Integer, SyncStroke> mPageCache = new LinkedHashMap<Integer, SyncStroke>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, SyncStroke> eldest) {
+                return size() > PAGE_CACHE_STROKES;
+            }
+        };
+
+        Generation(long baseVersion) {
+            mBaseVersion = baseVersion;
+        }
+
+        void add(SyncStroke stroke) {
+            AtomicReferenceArray<SyncStroke> strokes = mStrokes;
+            if (mSize == strokes.length()) {
+                // Old arrays are left untouched for readers that still use them.
+                AtomicReferenceArray<SyncStroke> bigger = new AtomicReferenceArray<SyncStroke>(mSize * 2);
+                for (int i = 0; i < mSize; i++) bigger.set(i, strokes.get(i));
+                long[] offsets = new long[mSize * 2];
+                System.arraycopy(mSpillOffsets, 0, offsets, 0, mSize);
+                mSpillOffsets = offsets;
+                mStrokes = strokes = bigger;
+            }
+            strokes.set(mSize, stroke);
+            mSize++;
+        }
+
+        /**
+         * Moves the completed count past every leading stroke that is complete.
+         */
+        void advanceCompleted() {
+            int completed = mCompleted;
+            while (completed < mSize && mStrokes.get(completed).isComplete()) completed++;
+            mCompleted = completed;
+        }
+
+        SyncStroke get(int index) {
+            SyncStroke stroke = mStrokes.get(index);
+            if (stroke != null) return stroke;
+
+            synchronized (mPageCache) {
+                stroke = mPageCache.get(index);
+            }
+            if (stroke == null) {
+                try {
+                    stroke = readStroke(mSpillOffsets[index]);
+                } catch (IOException e) {
+                    throw new IllegalStateException("unable to read spilled stroke " + index, e);
+                }
+                synchronized (mPageCache) {
+                    mPageCache.put(index, stroke);
+                }
+            }
+            return stroke;
+        }
+
+        void spill() {
+            if (mSpillFailed) return;
+
+            try {
+                if (mSpill == null) {
+                    mSpillFile = File.createTempFile("sync-strokes", ".spill", mSpillDirectory);
+                    mSpillFile.deleteOnExit();
+                    mSpill = new RandomAccessFile(mSpillFile, "rw");
+                    if (DEBUG) Log.log(Level.INFO, "spilling strokes to " + mSpillFile);
+                }
+
+                // Spill the oldest completed strokes until the budget is met again, keeping at least half of it for recent strokes.
+                long target = mHeapBudget / 2;
+                while (mResidentBytes > target && mSpilledCount < mCompleted) {
+                    int index = mSpilledCount;
+                    SyncStroke stroke = mStrokes.get(index);
+                    mSpillOffsets[index] = writeStroke(stroke);
+                    mStrokes.set(index, null);
+                    mResidentBytes -= sizeOf(stroke);
+                    mSpilledCount = index + 1;
+                }
+            } catch (IOException e) {
+                Log.log(Level.SEVERE, "unable to spill strokes, keeping them in memory", e);
+                mSpillFailed = true;
+            }
+        }
+
+        /**
+         * Deletes the spill file once the generation is replaced. The file is left open, so snapshots of this generation can still read it
+         * on platforms that allow deleting open files, and is closed once the last of those snapshots is gone.
+         */
+        void retire() {
+            if (mSpill == null) return;
+            if (!mSpillFile.delete()) {
+                if (DEBUG) Log.log(Level.INFO, "unable to delete " + mSpillFile + " while it is open, deleting it once it is closed");
+            }
+            mRetiredSpills.add(new RetiredSpill(this, mRetiredQueue, mSpillFile, mSpill));
+        }
+
+        private long writeStroke(SyncStroke stroke) throws IOException {
+            int vertices = stroke.getVertexCount();
+            ByteBuffer record = recordBuffer(8 + 4 + vertices * 12);
+            record.putLong(stroke.getId());
+            record.putInt(vertices);
+            record.asFloatBuffer().put(stroke.getCoordinates(), 0, vertices * 2).put(stroke.getWidths(), 0, vertices);
+            record.position(record.limit());
+            record.flip();
+
+            FileChannel channel = mSpill.getChannel();
+            long offset = channel.size();
+            long position = offset;
+            while (record.hasRemaining()) position += channel.write(record, position);
+            return offset;
+        }
+
+        private ByteBuffer recordBuffer(int length) {
+            if (mRecord.capacity() < length) mRecord = ByteBuffer.allocate(Integer.highestOneBit(length) << 1);
+            mRecord.clear();
+            mRecord.limit(length);
+            return mRecord;
+        }
+
+        /**
+         * Reads a spilled stroke. This is called by readers, positional reads on the channel are safe from any thread.
+         */
+        private SyncStroke readStroke(long offset) throws IOException {
+            FileChannel channel = mSpill.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(12);
+            readFully(channel, header, offset);
+            long id = header.getLong(0);
+            int vertices = header.getInt(8);
+
+            ByteBuffer record = ByteBuffer.allocate(vertices * 12);
+            readFully(channel, record, offset + 12);
+            float[] coordinates = new float[vertices * 2];
+            float[] widths = new float[vertices];
+            record.asFloatBuffer().get(coordinates).get(widths);
+            return new SyncStroke(id, coordinates, widths, vertices);
+        }
+    }
+
+    /**
+     * Spill file of a replaced generation. It is enqueued once the generation is only phantom reachable, so it must not refer to it.
+     */
+    private static class RetiredSpill extends PhantomReference<Generation> {
+        private final File mFile;
+        private final RandomAccessFile mSpill;
+
+        RetiredSpill(Generation generation, ReferenceQueue<Generation> queue, File file, RandomAccessFile spill) {
+            super(generation, queue);
+            mFile = file;
+            mSpill = spill;
+        }
+
+        void release() {
+            try {
+                mSpill.close();
+            } catch (IOException e) {
+                Log.log(Level.WARNING, "unable to close " + mFile, e);
+            }
+            if (mFile.exists() && !mFile.delete()) Log.log(Level.WARNING, "unable to delete " + mFile);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) throw new IOException("spill file is truncated");
+        }
+        buffer.flip();
+    }
+}
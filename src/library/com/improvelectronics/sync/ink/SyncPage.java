@@ -0,0 +1,158 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.ink;
+
+import com.improvelectronics.sync.j2se.SyncStroke;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable page of ink: the strokes that were on the Sync when it was erased or saved. The strokes are packed into a few primitive arrays,
+ * so a sealed page takes about as much memory as its vertices and nothing else.
+ */
+public class SyncPage {
+
+    /**
+     * The page was sealed because the Sync was erased.
+     */
+    public static final int REASON_ERASE = 1;
+
+    /**
+     * The page was sealed because the Sync saved it.
+     */
+    public static final int REASON_SAVE = 2;
+
+    private final int mNumber;
+    private final int mReason;
+    private final long mTime;
+    private final long[] mIds;
+    private final int[] mFirstVertex;
+    private final float[] mCoordinates;
+    private final float[] mWidths;
+
+    private SyncPage(int number, int reason, long time, long[] ids, int[] firstVertex, float[] coordinates, float[] widths) {
+        mNumber = number;
+        mReason = reason;
+        mTime = time;
+        mIds = ids;
+        mFirstVertex = firstVertex;
+        mCoordinates = coordinates;
+        mWidths = widths;
+    }
+
+    /**
+     * Packs strokes into a page.
+     *
+     * @param number  number of the page in the session
+     * @param reason  {@link #REASON_ERASE} or {@link #REASON_SAVE}
+     * @param time    wall-clock time the page was sealed in milliseconds
+     * @param strokes strokes of the page, which must not change while they are packed
+     * @return the page
+     */
+    public static SyncPage seal(int number, int reason, long time, List<SyncStroke> strokes) {
+        int count = strokes.size();
+        int vertices = 0;
+        for (int i = 0; i < count; i++) vertices += strokes.get(i).getVertexCount();
+
+        long[] ids = new long[count];
+        int[] firstVertex = new int[count + 1];
+        float[] coordinates = new float[vertices * 2];
+        float[] widths = new float[vertices];
+
+        int vertex = 0;
+        for (int i = 0; i < count; i++) {
+            SyncStroke stroke = strokes.get(i);
+            int strokeVertices = stroke.getVertexCount();
+            ids[i] = stroke.getId();
+            firstVertex[i] = vertex;
+            System.arraycopy(stroke.getCoordinates(), 0, coordinates, vertex * 2, strokeVertices * 2);
+            System.arraycopy(stroke.getWidths(), 0, widths, vertex, strokeVertices);
+            vertex += strokeVertices;
+        }
+        firstVertex[count] = vertex;
+        return new SyncPage(number, reason, time, ids, firstVertex, coordinates, widths);
+    }
+
+    public int getNumber() {
+        return mNumber;
+    }
+
+    /**
+     * Returns why the page was sealed, {@link #REASON_ERASE} or {@link #REASON_SAVE}.
+     */
+    public int getReason() {
+        return mReason;
+    }
+
+    /**
+     * Returns the wall-clock time the page was sealed in milliseconds.
+     */
+    public long getTime() {
+        return mTime;
+    }
+
+    public int getStrokeCount() {
+        return mIds.length;
+    }
+
+    public int getVertexCount() {
+        return mWidths.length;
+    }
+
+    /**
+     * Returns a stroke of the page. The stroke is unpacked every time this is called.
+     *
+     * @param index index of the stroke in drawing order
+     */
+    public SyncStroke getStroke(int index) {
+        int from = mFirstVertex[index], to = mFirstVertex[index + 1];
+        return new SyncStroke(mIds[index], Arrays.copyOfRange(mCoordinates, from * 2, to * 2), Arrays.copyOfRange(mWidths, from, to),
+                to - from);
+    }
+
+    /**
+     * Returns the strokes of the page as a list, for example to export them. The strokes are unpacked as they are accessed.
+     */
+    public List<SyncStroke> getStrokes() {
+        return new AbstractList<SyncStroke>() {
+            @Override
+            public SyncStroke get(int index) {
+                return getStroke(index);
+            }
+
+            @Override
+            public int size() {
+                return mIds.length;
+            }
+        };
+    }
+
+    /**
+     * Returns the estimated number of bytes the page takes on the heap.
+     */
+    public long getSizeInBytes() {
+        return 64 + 12L * mIds.length + 12L * mWidths.length;
+    }
+}
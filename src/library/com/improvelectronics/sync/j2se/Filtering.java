@@ -22,9 +22,20 @@
 
 package com.improvelectronics.sync.j2se;
 
+import com.improvelectronics.sync.filter.PdFilter;
+import com.improvelectronics.sync.filter.SmoothingFilter;
+
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Turns the capture reports returned from the Boogie Board Sync into line segments with a line width. The reports are smoothed with a
+ * {@link SmoothingFilter} and a new segment is only drawn once the filtered position has moved far enough from the last one. By default
+ * this is the {@link PdFilter dynamic filter} of the Sync itself, so the segments match the PDFs it saves.
+ * </p>
+ * Every instance keeps its own filter state, so a separate instance is needed for every stream of capture reports that is filtered.
+ * Instances are not thread safe.
+ */
 public class Filtering {
     public enum PathState {
         NO_POINTS, ONE_POINT, MULTIPLE_POINTS
@@ -37,31 +48,105 @@ public class Filtering {
     // Set distance threshold for drawing a new segment (10*0.01mm = 0.1mm).
     private static final int DISTANCE_THRESHOLD_SQUARED = (10 * 10);
 
-    private static PathState mPathState = PathState.NO_POINTS;
-    private static Filter mFilter = new Filter();
+    private PathState mPathState = PathState.NO_POINTS;
+    private final Filter mFilter = new Filter();
+    private final SmoothingFilter mSmoother;
 
     // State of line width filter.
-    private static float mOldLineWidth = -1.0f;
+    private float mOldLineWidth = -1.0f;
+
+    // Last coordinate received, used for finalizing a trace at pen up.
+    private int mLastX, mLastY, mLastPressure;
+
+    /**
+     * Creates a filter that smooths with the dynamic filter of the Sync.
+     */
+    public Filtering() {
+        this(new PdFilter());
+    }
+
+    /**
+     * @param smoother filter that smooths the samples, used only by this instance
+     */
+    public Filtering(SmoothingFilter smoother) {
+        mSmoother = smoother;
+    }
+
+    /**
+     * Returns the filter that smooths the samples.
+     */
+    public SmoothingFilter getSmoother() {
+        return mSmoother;
+    }
+
+    /**
+     * Filters a capture report and returns the paths that should be drawn for it.
+     *
+     * @param captureReport report returned from the Sync
+     * @return paths to draw, empty if nothing new should be drawn
+     */
+    public List<SyncPath> filterSyncCaptureReport(SyncCaptureReport captureReport) {
+        final List<SyncPath> paths = new ArrayList<SyncPath>();
+        filter((int) captureReport.getX(), (int) captureReport.getY(), (int) captureReport.getPressure(), captureReport.getFlags(),
+                new SyncSegmentListener() {
+                    @Override
+                    public void onSegment(float x0, float y0, float x1, float y1, float lineWidth) {
+                        SyncPath path = new SyncPath();
+                        path.moveTo(x0, y0);
+                        path.setStrokeWidth(lineWidth);
+                        path.lineTo(x1, y1);
+                        paths.add(path);
+                    }
 
-    private static SyncCaptureReport mLastCapture;
+                    @Override
+                    public void onTraceEnd() {
+                    }
+                });
+        return paths;
+    }
 
-    public static List<SyncPath> filterSyncCaptureReport(SyncCaptureReport captureReport) {
+    /**
+     * Filters a single sample and passes the segments that should be drawn for it to a listener. This does not allocate, which makes it the
+     * better choice when large amounts of samples are filtered.
+     *
+     * @param x        digitizer x coordinate
+     * @param y        digitizer y coordinate
+     * @param pressure digitizer pressure reading
+     * @param flags    flags of the capture report
+     * @param listener receives the segments and the end of the trace
+     */
+    public void filter(int x, int y, int pressure, byte flags, SyncSegmentListener listener) {
+        filter(x, y, pressure, flags, 1, listener);
+    }
+
+    /**
+     * Filters a sample that came a number of sample periods after the previous one, because samples in between were lost. The speed used
+     * for the line width is measured over the real time, so a gap does not make the stylus seem faster.
+     *
+     * @param x        digitizer x coordinate
+     * @param y        digitizer y coordinate
+     * @param pressure digitizer pressure reading
+     * @param flags    flags of the capture report
+     * @param elapsed  sample periods since the previous sample, 1 if none were lost
+     * @param listener receives the segments and the end of the trace
+     */
+    public void filter(int x, int y, int pressure, byte flags, int elapsed, SyncSegmentListener listener) {
         float lineWidth;
         int distSquared;
         float velAvg, pressAvg;
         int i;
-        List<SyncPath> paths = new ArrayList<SyncPath>();
+        boolean contact = isContact(flags);
 
         // Process based on number of points already received in current trace.
         switch (mPathState) {
             case NO_POINTS:
-                if ((captureReport.getFlags() & (RDY_FLAG + TSW_FLAG)) == (RDY_FLAG + TSW_FLAG))  // Contact?
+                if (contact)  // Contact?
                 {
                     // Have first point.
                     mPathState = PathState.ONE_POINT;
 
                     // Initialize the dynamic filter.
-                    setFilterPosition(mFilter, captureReport);
+                    setFilterPosition(mFilter, x, y, pressure);
 
                     // Reset filter for line width.
                     resetLineWidthFilter();
@@ -69,10 +154,10 @@ public class Filtering {
                 break;
 
             case ONE_POINT:
-                if ((captureReport.getFlags() & (RDY_FLAG + TSW_FLAG)) == (RDY_FLAG + TSW_FLAG))  // Contact?
+                if (contact)  // Contact?
                 {
                     // Apply filter and get distance**2 of filtered position from last rendered position.
-                    distSquared = applyFilter(mFilter, captureReport);
+                    distSquared = applyFilter(mFilter, x, y, pressure, elapsed);
 
                     // Render new position to PDF if sufficiently far from last rendered position.
                     if (distSquared >= DISTANCE_THRESHOLD_SQUARED) {
@@ -80,10 +165,10 @@ public class Filtering {
 
                         // Compute/draw the first segment of the trace to PDF.
                         velAvg = (float) Math.sqrt(distSquared) / mFilter.time;
-                        pressAvg = ((float) mFilter.last.pressure + mFilter.current.pressure) / 2;
+                        pressAvg = (mFilter.last.pressure + mSmoother.getPressure()) / 2;
                         lineWidth = computeLineWidth(velAvg, pressAvg);
 
-                        paths.add(createPathWithLineWidth(lineWidth));
+                        emitSegment(listener, lineWidth);
 
                         // Reset "last" point for filter.
                         setLastFilter(mFilter);
@@ -94,27 +179,28 @@ public class Filtering {
 
                     // Draw the dot/period for the single point to PDF.
                     velAvg = -1.0f;
-                    pressAvg = mFilter.current.pressure;
+                    pressAvg = mSmoother.getPressure();
                     lineWidth = computeLineWidth(velAvg, pressAvg);
 
-                    paths.add(createPathWithLineWidth(lineWidth));
+                    emitSegment(listener, lineWidth);
+                    listener.onTraceEnd();
                 }
                 break;
 
             case MULTIPLE_POINTS:
-                if ((captureReport.getFlags() & (RDY_FLAG + TSW_FLAG)) == (RDY_FLAG + TSW_FLAG))  // Contact?
+                if (contact)  // Contact?
                 {
                     // Apply filter and get distance**2 of filtered position from last rendered position.
-                    distSquared = applyFilter(mFilter, captureReport);
+                    distSquared = applyFilter(mFilter, x, y, pressure, elapsed);
 
                     // Render new position to PDF if sufficiently far from last rendered position.
                     if (distSquared >= DISTANCE_THRESHOLD_SQUARED) {
                         // Compute/draw the next trace segment to PDF.
                         velAvg = (float)Math.sqrt(distSquared) / mFilter.time;
-                        pressAvg = ((float) mFilter.last.pressure + mFilter.current.pressure) / 2;
+                        pressAvg = (mFilter.last.pressure + mSmoother.getPressure()) / 2;
                         lineWidth = computeLineWidth(velAvg, pressAvg);
 
-                        paths.add(createPathWithLineWidth(lineWidth));
+                        emitSegment(listener, lineWidth);
 
                         // Reset "last" point for filter.
                         setLastFilter(mFilter);
@@ -126,101 +212,149 @@ public class Filtering {
                     // Will use fixed (current) velocity to compute line width during final convergence
                     // to prevent artificial blobbing at the end of traces (due to artificial slowdown
                     // induced by repeating final digitizer coordinate).
-                    velAvg = (float)Math.sqrt(mFilter.velocity.x * mFilter.velocity.x + mFilter.velocity.y * mFilter.velocity.y);
+                    velAvg = (float) Math.sqrt(mSmoother.getVelocityX() * mSmoother.getVelocityX()
+                            + mSmoother.getVelocityY() * mSmoother.getVelocityY());
 
                     // Provide filter final coordinate multiple times to converge on pen up point.
                     for (i = 0; i < 4; i++) {
                         // Apply filter and get distance**2 of filtered position from last rendered position.
-                        distSquared = applyFilter(mFilter, mLastCapture);
+                        distSquared = applyFilter(mFilter, mLastX, mLastY, mLastPressure, 1);
 
                         // Render new position to PDF if sufficiently far from last rendered position.
                         if (distSquared >= DISTANCE_THRESHOLD_SQUARED) {
                             // Compute line width.
-                            pressAvg = ((float) mFilter.last.pressure + mFilter.current.pressure) / 2;
+                            pressAvg = (mFilter.last.pressure + mSmoother.getPressure()) / 2;
                             lineWidth = computeLineWidth(velAvg, pressAvg);
 
-                            paths.add(createPathWithLineWidth(lineWidth));
+                            emitSegment(listener, lineWidth);
 
                             // Reset "last" point for filter.
                             setLastFilter(mFilter);
                         }
                     }
+                    listener.onTraceEnd();
                 }
                 break;
         }
 
         // Store coordinate for finalizing trace at pen up.
-        mLastCapture = captureReport;
+        mLastX = x;
+        mLastY = y;
+        mLastPressure = pressure;
+    }
 
-        return paths;
+    /**
+     * Returns the number of sample periods between two samples from their sample indexes, as passed to
+     * {@link #filter(int, int, int, byte, int, SyncSegmentListener)}.
+     *
+     * @param previousIndex sample index of the previous sample, negative if there is none
+     * @param index         sample index of the sample
+     * @return sample periods, at least 1
+     */
+    public static int elapsedSamples(long previousIndex, long index) {
+        if (previousIndex < 0 || index <= previousIndex) return 1;
+        return (int) Math.min(index - previousIndex, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the state of the trace currently being filtered. A trace always ends, and the filter forgets everything about it, once the
+     * state returns to {@link PathState#NO_POINTS}.
+     *
+     * @return path state
+     */
+    public PathState getPathState() {
+        return mPathState;
+    }
+
+    /**
+     * Extrapolates where the filtered position of the stylus will be, from the velocity and acceleration of the filter. The
+     * {@link SmoothingFilter#getLag() lag} of the filter is added to the look ahead, so a look ahead of zero predicts the position of the
+     * last sample without its noise.
+     *
+     * @param milliseconds time to look ahead of the last sample
+     * @param prediction   receives the predicted x and y coordinates and the line width of the last segment, which is -1 if no segment
+     *                     of the trace has been drawn yet
+     * @return false if no trace is being filtered
+     */
+    public boolean predict(float milliseconds, float[] prediction) {
+        if (mPathState == PathState.NO_POINTS) return false;
+
+        float samples = mSmoother.getLag() + milliseconds / MS_PER_SAMPLE;
+        float half = samples * samples / 2;
+        prediction[0] = mSmoother.getX() + mSmoother.getVelocityX() * samples + mSmoother.getAccelerationX() * half;
+        prediction[1] = mSmoother.getY() + mSmoother.getVelocityY() * samples + mSmoother.getAccelerationY() * half;
+        prediction[2] = mOldLineWidth;
+        return true;
+    }
+
+    /**
+     * Drops the trace currently being filtered without drawing the rest of it.
+     */
+    public void reset() {
+        mPathState = PathState.NO_POINTS;
+        resetLineWidthFilter();
+    }
+
+    /**
+     * Returns true if the flags of a capture report mean the stylus is touching the surface. Whenever a sample without contact is filtered
+     * the state returns to {@link PathState#NO_POINTS}.
+     *
+     * @param flags flags of the capture report
+     */
+    public static boolean isContact(byte flags) {
+        return (flags & (RDY_FLAG + TSW_FLAG)) == (RDY_FLAG + TSW_FLAG);
     }
 
     /**
      * Clears line width filter for start of a new trace.
      */
-    private static void resetLineWidthFilter() {
+    private void resetLineWidthFilter() {
         mOldLineWidth = -1.0f;
     }
 
     /**
-     * Initializes a provided dynamic filter with the first point in a trace.
+     * Initializes the filter with the first point in a trace.
      *
      * @param f
-     * @param captureReport
+     * @param x
+     * @param y
+     * @param pressure
      */
-    private static void setFilterPosition(Filter f, SyncCaptureReport captureReport) {
-        f.last.x = f.current.x = (int) captureReport.getX();
-        f.last.y = f.current.y = (int) captureReport.getY();
-        f.last.pressure = f.current.pressure = (int) captureReport.getPressure();
-        f.velocity.x = f.velocity.y = f.velocity.pressure = 0;
+    private void setFilterPosition(Filter f, int x, int y, int pressure) {
+        f.last.x = x;
+        f.last.y = y;
+        f.last.pressure = pressure;
         f.time = 0;
+        mSmoother.reset(x, y, pressure);
     }
 
     /**
-     * Notifies a provided dynamic filter that a new segment has been drawn.
+     * Notifies the filter that a new segment has been drawn.
      *
      * @param f
      */
-    private static void setLastFilter(Filter f) {
-        f.last.x = f.current.x;
-        f.last.y = f.current.y;
-        f.last.pressure = f.current.pressure;
+    private void setLastFilter(Filter f) {
+        f.last.x = mSmoother.getX();
+        f.last.y = mSmoother.getY();
+        f.last.pressure = mSmoother.getPressure();
         f.time = 0;
     }
 
-    // Dynamic filter Proportional and Derivative controller gains
-    // (includes effects of mass and sample time (K*T/mass)).
-    private static final int KPP = 1229;   // 1229/8192 = 0.1500 ~0.15f
-    private static final int KDD = 4915;   // 4915/8192 = 0.6000 ~0.6f
-
-    // Updates dynamic filter state based on new reference coordinate.
-    private static int applyFilter(Filter f, SyncCaptureReport captureReport) {
-        int ax, ay, ap;
-        int dist_sq;
+    /**
+     * Time between two capture reports in milliseconds.
+     */
+    public static final float SAMPLE_INTERVAL_MS = 6.924f;
 
+    // Updates filter state based on new reference coordinate.
+    private int applyFilter(Filter f, int x, int y, int pressure, int elapsed) {
         // Update delta time (samples) since last segment drawn (threshold met).
-        if (f.time < 255)
-            f.time++;
-
-        // Calculate 8192 (= 2^13) x acceleration.
-        ax = KPP * ((int) captureReport.getX() - f.current.x) - KDD * f.velocity.x;
-        ay = KPP * ((int) captureReport.getY() - f.current.y) - KDD * f.velocity.y;
-        ap = KPP * ((int) captureReport.getPressure() - f.current.pressure) - KDD * f.velocity.pressure;
-
-        // Calculate new position.
-        f.current.x += f.velocity.x;
-        f.current.y += f.velocity.y;
-        f.current.pressure += f.velocity.pressure;
-
-        // Calculate new velocity.
-        f.velocity.x = (((int) f.velocity.x << 13) + ax) >> 13;
-        f.velocity.y = (((int) f.velocity.y << 13) + ay) >> 13;
-        f.velocity.pressure = (((int) f.velocity.pressure << 13) + ap) >> 13;
+        f.time = Math.min(f.time + elapsed, 255);
 
-        // Calculate squared distance of current point from "last" point.
-        dist_sq = ((f.current.x - f.last.x) * (f.current.x - f.last.x) + (f.current.y - f.last.y) * (f.current.y - f.last.y));
+        mSmoother.update(x, y, pressure);
 
-        return dist_sq;
+        // Calculate squared distance of current point from "last" point. Doubles are exact for the whole numbers of the dynamic filter.
+        double dx = mSmoother.getX() - f.last.x, dy = mSmoother.getY() - f.last.y;
+        return (int) (dx * dx + dy * dy);
     }
 
     /**
@@ -230,7 +364,7 @@ public class Filtering {
      * @param vel        velocity expressed in digitizer units per sample interval
      * @param pressure   digitizer pressure reading
      */
-    private static float computeLineWidth(float vel, float pressure) {
+    private float computeLineWidth(float vel, float pressure) {
         int i, j;
         float dist;
         float lwa, lwb, lw;
@@ -266,8 +400,10 @@ public class Filtering {
         }
 
         // Interpolate based on mass (pressure) first.
-        lwa = lineWidthMapArray[i - 1].lineWidth[j - 1] + (pressure - mass[j - 1]) * (lineWidthMapArray[i - 1].lineWidth[j] - lineWidthMapArray[i - 1].lineWidth[j - 1]) / (mass[j] - mass[j - 1]);
-        lwb = lineWidthMapArray[i].lineWidth[j - 1] + (pressure - mass[j - 1]) * (lineWidthMapArray[i].lineWidth[j] - lineWidthMapArray[i].lineWidth[j - 1]) / (mass[j] - mass[j - 1]);
+        lwa = lineWidthMapArray[i - 1].lineWidth[j - 1] + (pressure - mass[j - 1])
+                * (lineWidthMapArray[i - 1].lineWidth[j] - lineWidthMapArray[i - 1].lineWidth[j - 1]) / (mass[j] - mass[j - 1]);
+        lwb = lineWidthMapArray[i].lineWidth[j - 1] + (pressure - mass[j - 1])
+                * (lineWidthMapArray[i].lineWidth[j] - lineWidthMapArray[i].lineWidth[j - 1]) / (mass[j] - mass[j - 1]);
 
         // Interpolate based on speed (distance) second.
         lw = lwa + (dist - lineWidthMapArray[i - 1].distance) * (lwb - lwa) / (lineWidthMapArray[i].distance - lineWidthMapArray[i - 1].distance);
@@ -304,18 +440,14 @@ public class Filtering {
         return lw;
     }
 
-    private static SyncPath createPathWithLineWidth(float lineWidth) {
-        SyncPath path = new SyncPath();
-        path.moveTo(mFilter.last.x, mFilter.last.y);
-        path.setStrokeWidth(lineWidth);
-        path.lineTo(mFilter.current.x, mFilter.current.y);
-        return path;
+    private void emitSegment(SyncSegmentListener listener, float lineWidth) {
+        listener.onSegment(mFilter.last.x, mFilter.last.y, mSmoother.getX(), mSmoother.getY(), lineWidth);
     }
 
     // Digitizer resolution is 0.01 mm.
     private static final int TICKS_PER_MM = 100;
     // 144.425 samples per second
-    private static final float MS_PER_SAMPLE = 6.924f;
+    private static final float MS_PER_SAMPLE = SAMPLE_INTERVAL_MS;
     // Assuming stylus held at 30 deg angle.
     private static final float PEN_ANGLE_COS = 0.866f;
     // Scale factor for reported linewidth (to make recorded lines sharper than actual device).
@@ -389,15 +521,12 @@ public class Filtering {
     }
 
     private static class Filter {
+        // Position of the end of the last segment drawn.
         public Coordinate last;
-        public Coordinate current;
-        public Coordinate velocity;
         public int time;
 
         public Filter() {
             last = new Coordinate();
-            current = new Coordinate();
-            velocity = new Coordinate();
         }
     }
 
@@ -412,8 +541,8 @@ public class Filtering {
     }
 
     private static class Coordinate {
-        public int x;
-        public int y;
-        public int pressure;
+        public float x;
+        public float y;
+        public float pressure;
     }
 }
\ No newline at end of file
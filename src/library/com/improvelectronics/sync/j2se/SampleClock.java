@@ -0,0 +1,254 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.j2se;
+
+/**
+ * Derives the time every capture report was sampled at from the time it was received. The Sync samples at a fixed rate, but Bluetooth
+ * delivers the reports in bursts, so the receive times say little about the stylus. The clock instead counts sample periods, and uses the
+ * receive times only to stay in step with the Sync and to notice samples that never arrived.
+ * </p>
+ * All reports read from the connection at once are passed to {@link #deliver(long, int, boolean, boolean)}, which returns the number of
+ * samples that were lost before them, and then each gets its time from {@link #next()}. A report can never arrive before it was sampled,
+ * so the clock is moved back whenever a delivery arrives earlier than it expects, and it creeps forward slowly to follow a Sync that
+ * samples a little slower than nominal. The delay of a delivery beyond that lower edge varies with the connection; when the last report
+ * of a delivery is later than the longest recent delay by more than a few sample periods, reports that should have come in between were
+ * lost. The Sync stops sending while the stylus is out of range, so a silence after the stylus left is not counted as lost samples.
+ * </p>
+ * After a stall the backlog arrives over several reads, and every read but the last looks late by the rest of the backlog. A read that
+ * filled the buffer is therefore never judged on its own. A delivery that still looks late is not trusted right away either:
+ * {@link #deliver(long, int, boolean, boolean) deliver} returns {@link #HOLD}, and the next delivery is passed to
+ * {@link #resolve(long, int)} first, which takes the lost samples back as far as that delivery arrives earlier than the gap allows.
+ * </p>
+ * Times are in nanoseconds of {@link System#nanoTime()}. Instances are used by one thread, but the gap statistics can be read from any
+ * thread.
+ */
+public class SampleClock {
+
+    /**
+     * Period between two samples of the Sync in nanoseconds.
+     */
+    public static final long SAMPLE_PERIOD = (long) (Filtering.SAMPLE_INTERVAL_MS * 1000000);
+
+    /**
+     * Default number of sample periods a delivery may be late before samples are counted as lost.
+     */
+    public static final int DEFAULT_GAP_THRESHOLD = 3;
+
+    /**
+     * Returned by {@link #deliver(long, int, boolean, boolean)} for a delivery that looks late. Its reports are held until the next
+     * delivery is passed to {@link #resolve(long, int)}, or until {@link #resolve()} if no delivery is expected.
+     */
+    public static final int HOLD = -1;
+
+    // Nanoseconds the clock may creep forward per nanosecond, allows the clocks to drift by 0.5 %.
+    private static final double DRIFT = 0.005;
+
+    // Fraction of the recent longest delay forgotten with every delivery.
+    private static final int PEAK_DECAY = 256;
+
+    private final long mPeriod;
+    private final long mGapThreshold;
+
+    private boolean mStarted;
+    private long mNextTime;
+    private long mNextIndex;
+    private long mJitter;
+    private long mPeak;
+    private long mLastReceiveTime;
+
+    // Delivery that looked late: the samples it would have lost, its number of reports and its delay.
+    private boolean mHolding;
+    private int mHeldLost;
+    private int mHeldCount;
+    private long mHeldDelay;
+
+    private volatile long mGapCount;
+    private volatile long mLostSamples;
+
+    public SampleClock() {
+        this(SAMPLE_PERIOD, DEFAULT_GAP_THRESHOLD);
+    }
+
+    /**
+     * @param period       period between two samples in nanoseconds
+     * @param gapThreshold number of periods a delivery may be late before samples are counted as lost
+     */
+    public SampleClock(long period, int gapThreshold) {
+        mPeriod = period;
+        mGapThreshold = gapThreshold * period;
+    }
+
+    /**
+     * Starts over, for example after the connection was lost. The next delivery starts the clock again.
+     */
+    public void reset() {
+        mStarted = false;
+        mHolding = false;
+    }
+
+    /**
+     * Tells the clock about reports read from the connection at once.
+     *
+     * @param receiveTime time the reports were received
+     * @param count       number of capture reports
+     * @param continuous  false if the Sync may have stopped sending since the last delivery, because the stylus was out of range
+     * @param more        true if the read filled the buffer, so more of the same burst is waiting to be read
+     * @return number of samples lost before the first of the reports, or {@link #HOLD} if the delivery looks late
+     * @throws IllegalStateException if a held delivery was not resolved yet
+     */
+    public int deliver(long receiveTime, int count, boolean continuous, boolean more) {
+        if (count <= 0) return 0;
+        if (mHolding) throw new IllegalStateException("the held delivery must be resolved first");
+        long span = (count - 1) * mPeriod;
+        if (!mStarted || !continuous) {
+            long start = receiveTime - span;
+            // Keep counting sample periods through the silence, so indexes still measure time.
+            if (mStarted && start > mNextTime) mNextIndex += (start - mNextTime) / mPeriod;
+            mStarted = true;
+            mNextTime = start;
+            mJitter = 0;
+            mPeak = 0;
+            mLastReceiveTime = receiveTime;
+            return 0;
+        }
+
+        // Keep the clock on the lower edge of the receive times: pull it back when reports arrive earlier than it expects, and let it
+        // creep forward by the allowed drift when they arrive later, so it follows a Sync that samples a little slower than nominal.
+        long delay = receiveTime - (mNextTime + span);
+        long shift = Math.min((long) ((receiveTime - mLastReceiveTime) * DRIFT), delay);
+        mNextTime += shift;
+        delay -= shift;
+        mLastReceiveTime = receiveTime;
+
+        // The rest of the burst is still waiting, only its last read shows whether the burst is late.
+        if (more) return 0;
+
+        if (delay <= mPeak + mGapThreshold) {
+            mJitter += (delay - mJitter) / 16;
+            mPeak = Math.max(delay, mPeak - mPeak / PEAK_DECAY);
+            return 0;
+        }
+
+        // Part of the delay is the usual variation.
+        mHolding = true;
+        mHeldLost = (int) Math.max(1, (delay - mJitter + mPeriod / 2) / mPeriod);
+        mHeldCount = count;
+        mHeldDelay = delay;
+        return HOLD;
+    }
+
+    /**
+     * Decides how many samples were lost before a held delivery, from the delivery that came after it. The clock then gives the times of
+     * the held reports, and the later delivery is passed to {@link #deliver(long, int, boolean, boolean)} as usual.
+     *
+     * @param receiveTime time the later reports were received
+     * @param count       number of later capture reports, at least one
+     * @return number of samples lost before the first of the held reports, 0 if nothing is held
+     */
+    public int resolve(long receiveTime, int count) {
+        if (!mHolding) return 0;
+
+        // Had the samples been lost, the later delivery could not arrive before the clock expects it; as far as it does, they were not.
+        long delay = receiveTime - (mNextTime + (mHeldLost + mHeldCount + count - 1) * mPeriod);
+        int lost = mHeldLost;
+        if (delay < 0) lost -= (int) Math.min(lost, (-delay + mPeriod / 2) / mPeriod);
+        return confirm(lost);
+    }
+
+    /**
+     * Counts the samples of a held delivery as lost without waiting for another delivery, for example because the stylus left and the Sync
+     * stopped sending.
+     *
+     * @return number of samples lost before the first of the held reports, 0 if nothing is held
+     */
+    public int resolve() {
+        return mHolding ? confirm(mHeldLost) : 0;
+    }
+
+    /**
+     * Returns true if a delivery is held until the next one.
+     */
+    public boolean isHolding() {
+        return mHolding;
+    }
+
+    private int confirm(int lost) {
+        mHolding = false;
+        mNextTime += lost * mPeriod;
+        mNextIndex += lost;
+        if (lost > 0) {
+            mGapCount++;
+            mLostSamples += lost;
+        }
+
+        // What is left of the delay is the usual variation.
+        long delay = mHeldDelay - lost * mPeriod;
+        mJitter += (delay - mJitter) / 16;
+        mPeak = Math.max(delay, mPeak - mPeak / PEAK_DECAY);
+        return lost;
+    }
+
+    /**
+     * Returns the time the next report of the delivery was sampled at, and moves on to the report after it.
+     */
+    public long next() {
+        long time = mNextTime;
+        mNextTime += mPeriod;
+        mNextIndex++;
+        return time;
+    }
+
+    /**
+     * Returns the index of the sample last returned by {@link #next()}. Indexes count sample periods since the clock was created, so lost
+     * samples leave holes.
+     */
+    public long getSampleIndex() {
+        return mNextIndex - 1;
+    }
+
+    /**
+     * Returns the usual delay of a delivery beyond the shortest one, in nanoseconds.
+     */
+    public long getJitter() {
+        return mJitter;
+    }
+
+    /**
+     * Returns the number of times samples were lost.
+     */
+    public long getGapCount() {
+        return mGapCount;
+    }
+
+    /**
+     * Returns the total number of samples lost.
+     */
+    public long getLostSampleCount() {
+        return mLostSamples;
+    }
+
+    public void resetStatistics() {
+        mGapCount = 0;
+        mLostSamples = 0;
+    }
+}
@@ -0,0 +1,93 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.j2se;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Groups the segments produced by {@link Filtering} into strokes, one for every trace from pen down to pen up, and tells the listeners as
+ * strokes are started, updated and completed.
+ */
+public class StrokeBuilder implements SyncSegmentListener {
+    private final List<SyncStrokeListener> mListeners;
+    private SyncStroke mStroke;
+    private long mNextId;
+
+    public StrokeBuilder() {
+        mListeners = new ArrayList<SyncStrokeListener>();
+    }
+
+    /**
+     * Adds a listener for stroke events.
+     *
+     * @return false indicates listener has already been added
+     */
+    public boolean addListener(SyncStrokeListener listener) {
+        if (mListeners.contains(listener)) return false;
+        else mListeners.add(listener);
+        return true;
+    }
+
+    /**
+     * Removes a listener that was previously added with {@link #addListener(SyncStrokeListener)}.
+     *
+     * @return false indicates listener was not originally added
+     */
+    public boolean removeListener(SyncStrokeListener listener) {
+        if (!mListeners.contains(listener)) return false;
+        else mListeners.remove(listener);
+        return true;
+    }
+
+    /**
+     * Returns the stroke currently being drawn, or null if the stylus is up.
+     */
+    public SyncStroke getCurrentStroke() {
+        return mStroke;
+    }
+
+    @Override
+    public void onSegment(float x0, float y0, float x1, float y1, float lineWidth) {
+        if (mStroke == null) {
+            mStroke = new SyncStroke(mNextId++);
+            mStroke.addVertex(x0, y0, lineWidth);
+            mStroke.addVertex(x1, y1, lineWidth);
+            for (SyncStrokeListener listener : mListeners) listener.onStrokeStart(mStroke);
+        } else {
+            int first = mStroke.getVertexCount();
+            mStroke.addVertex(x1, y1, lineWidth);
+            for (SyncStrokeListener listener : mListeners) listener.onStrokeUpdate(mStroke, first);
+        }
+    }
+
+    @Override
+    public void onTraceEnd() {
+        if (mStroke == null) return;
+
+        SyncStroke stroke = mStroke;
+        mStroke = null;
+        stroke.complete();
+        for (SyncStrokeListener listener : mListeners) listener.onStrokeEnd(stroke);
+    }
+}
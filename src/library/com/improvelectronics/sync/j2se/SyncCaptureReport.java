@@ -79,6 +79,11 @@ public class SyncCaptureReport extends HIDInputReport {
     private long mPressure;
     private byte mFlags;
 
+    // Set by the streaming service when the report is received, -1 until then.
+    private long mReceiveTime = -1;
+    private long mSampleTime = -1;
+    private long mSampleIndex = -1;
+
     /**
      * Constructor that creates a {@link #SyncCaptureReport} with a buffer of data to parse.
      *
@@ -155,4 +160,34 @@ public class SyncCaptureReport extends HIDInputReport {
     public long getPressure() {
         return mPressure;
     }
+
+    /**
+     * Returns the time the report was read from the connection, in nanoseconds of {@link System#nanoTime()}, or -1 if it did not come
+     * from a connection. Reports read at once share the same time.
+     */
+    public long getReceiveTime() {
+        return mReceiveTime;
+    }
+
+    /**
+     * Returns the time the Sync sampled the report, in nanoseconds of {@link System#nanoTime()}, as derived by a {@link SampleClock}, or
+     * -1 if it did not come from a connection.
+     */
+    public long getSampleTime() {
+        return mSampleTime;
+    }
+
+    /**
+     * Returns the number of sample periods since the connection was made, or -1 if the report did not come from a connection. Samples
+     * that were lost leave holes in the numbering.
+     */
+    public long getSampleIndex() {
+        return mSampleIndex;
+    }
+
+    void setTiming(long receiveTime, long sampleTime, long sampleIndex) {
+        mReceiveTime = receiveTime;
+        mSampleTime = sampleTime;
+        mSampleIndex = sampleIndex;
+    }
 }
@@ -0,0 +1,51 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.j2se;
+
+/**
+ * Interface definition for a callback when {@link com.improvelectronics.sync.ink.CurveFitter} fits a new piece of a trace.
+ */
+public interface SyncCurveListener {
+
+    /**
+     * Called when a cubic Bézier piece of the current trace is complete. Consecutive pieces of a trace share their end points and have
+     * the same tangent where they meet. The line width changes linearly along the piece.
+     *
+     * @param x0     x coordinate the piece starts at, in digitizer units
+     * @param y0     y coordinate the piece starts at, in digitizer units
+     * @param cx1    x coordinate of the first control point
+     * @param cy1    y coordinate of the first control point
+     * @param cx2    x coordinate of the second control point
+     * @param cy2    y coordinate of the second control point
+     * @param x1     x coordinate the piece ends at, in digitizer units
+     * @param y1     y coordinate the piece ends at, in digitizer units
+     * @param width0 line width at the start of the piece in digitizer units
+     * @param width1 line width at the end of the piece in digitizer units
+     */
+    public void onCurve(float x0, float y0, float cx1, float cy1, float cx2, float cy2, float x1, float y1, float width0, float width1);
+
+    /**
+     * Called when the stylus was lifted and the current trace is complete.
+     */
+    public void onTraceEnd();
+}
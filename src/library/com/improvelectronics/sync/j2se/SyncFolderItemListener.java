@@ -0,0 +1,41 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.j2se;
+
+import com.improvelectronics.sync.obex.OBEXFtpFolderListingItem;
+
+/**
+ * Interface definition for a callback for every item of a folder listing as it is read from the Boogie Board Sync, before the whole
+ * listing has arrived. A folder with thousands of files can be shown while it is still being listed.
+ */
+public interface SyncFolderItemListener {
+
+    /**
+     * Called when the next item of a folder listing has been read. Items arrive in the order the Sync sends them; the listing passed to
+     * {@link SyncFtpListener#onFolderListingComplete(java.util.List, int)} is sorted.
+     *
+     * @param folder absolute path of the folder the listing is read for, ending in a slash, for example /SAVED/
+     * @param item   file or folder that was read
+     */
+    public void onFolderItem(String folder, OBEXFtpFolderListingItem item);
+}
@@ -0,0 +1,42 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.j2se;
+
+import com.improvelectronics.sync.obex.OBEXFtpFolderListingItem;
+
+import java.util.List;
+
+/**
+ * Interface definition for a callback when the listing of a folder on the Boogie Board Sync changed since it was cached.
+ */
+public interface SyncFolderListener {
+
+    /**
+     * Called when a new listing of a folder differs from the cached one. Items whose size or time changed are both removed and added.
+     *
+     * @param folder  absolute path of the folder the listing was read for, ending in a slash, for example /SAVED/
+     * @param added   items that are new in the folder
+     * @param removed items that are gone from the folder
+     */
+    public void onFolderChanged(String folder, List<OBEXFtpFolderListingItem> added, List<OBEXFtpFolderListingItem> removed);
+}
@@ -0,0 +1,448 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.j2se;
+
+import com.improvelectronics.sync.Config;
+import com.improvelectronics.sync.obex.OBEXFtpFolderListingItem;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies the pages saved on a Boogie Board Sync to a local directory, for example a shared drive. Every device gets its own directory,
+ * named after its Bluetooth address, with a manifest of the name, size and modification time of every file copied from it. A run reads
+ * the listing of the SAVED folder once and downloads only the files that are new or changed since the manifest was written, so repeated
+ * runs cost one listing plus the changes. Every verified download is added to the end of the manifest right away, so a run that is cut
+ * short never copies a file twice, and the manifest is written out whole at the end of the run.
+ * </p>
+ * Files can be deleted from the Sync once their download is verified, to keep the Sync from filling up. A file that shows up again with a
+ * name that was already copied, for example because the Sync reused the name after it was deleted, is stored under a new name instead of
+ * replacing the earlier copy.
+ * </p>
+ * Runs can be started by hand with {@link #run()}, on a {@link #start(long) schedule} or {@link #runOnSave(SyncStreamingService) whenever
+ * the Sync saves a page}. Scheduled runs are made one at a time on a background thread.
+ */
+public class SyncFolderMirror {
+    private static final Logger Log = Logger.getLogger(SyncFolderMirror.class.getName());
+    private static final boolean DEBUG = Config.DEBUG;
+
+    /**
+     * Folder the Sync saves pages to.
+     */
+    public static final String SAVED_FOLDER = "SAVED";
+
+    /**
+     * Name of the manifest in the directory of every device.
+     */
+    public static final String MANIFEST_NAME = ".manifest";
+
+    /**
+     * Time to wait after a save before the folder is read, so the Sync has finished writing the page.
+     */
+    public static final long SAVE_DELAY = 3000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final SyncFtpService mService;
+    private final File mDirectory;
+    private final String mFolder;
+    private volatile boolean mDeleteAfterDownload;
+    private final ScheduledExecutorService mExecutor;
+    private ScheduledFuture<?> mSchedule;
+    private final SaveListener mSaveListener = new SaveListener();
+
+    // Statistics of the last run.
+    private volatile int mLastDownloaded, mLastDeleted, mLastUnchanged;
+    private volatile long mLastBytes;
+
+    /**
+     * Creates a mirror of the SAVED folder.
+     *
+     * @param service   service connected to the Sync
+     * @param directory directory the directories of the devices are created in
+     */
+    public SyncFolderMirror(SyncFtpService service, File directory) {
+        this(service, directory, SAVED_FOLDER);
+    }
+
+    /**
+     * @param service   service connected to the Sync
+     * @param directory directory the directories of the devices are created in
+     * @param folder    folder in the root folder of the Sync to copy
+     */
+    public SyncFolderMirror(SyncFtpService service, File directory, String folder) {
+        mService = service;
+        mDirectory = directory;
+        mFolder = folder;
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SyncFolderMirror");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Turns on deleting files from the Sync once they are downloaded and their size is verified. Off by default.
+     */
+    public void setDeleteAfterDownload(boolean deleteAfterDownload) {
+        mDeleteAfterDownload = deleteAfterDownload;
+    }
+
+    public boolean isDeleteAfterDownload() {
+        return mDeleteAfterDownload;
+    }
+
+    /**
+     * Returns the directory the files of a device are copied to.
+     *
+     * @param deviceUrl URL of the device
+     */
+    public File getDeviceDirectory(String deviceUrl) {
+        // btgoep://0017E9A1B2C3:5;authenticate=false becomes 0017E9A1B2C3.
+        String address = deviceUrl;
+        int start = address.indexOf("//");
+        if (start >= 0) address = address.substring(start + 2);
+        int end = address.indexOf(':');
+        if (end >= 0) address = address.substring(0, end);
+        return new File(mDirectory, address.replaceAll("[^A-Za-z0-9_-]", "_"));
+    }
+
+    /**
+     * Copies the new and changed files of the connected Sync. Blocks until the run is done; other commands of the service wait for it,
+     * and find the session back in the folder it was in.
+     *
+     * @return the number of files downloaded
+     * @throws IOException if the Sync is not connected, the folder cannot be read or a download fails; the files downloaded before the
+     *                     failure are kept in the manifest
+     */
+    public synchronized int run() throws IOException {
+        String device = mService.getDeviceUrl();
+        if (device == null) throw new IOException("not connected to a Boogie Board Sync");
+        File directory = getDeviceDirectory(device);
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("unable to create " + directory);
+
+        File manifestFile = new File(directory, MANIFEST_NAME);
+        Map<String, Entry> manifest = readManifest(manifestFile);
+        Set<String> taken = new HashSet<String>();
+        for (Entry entry : manifest.values()) taken.add(entry.mLocalName);
+        int downloaded = 0, deleted = 0, unchanged = 0;
+        boolean changed = false;
+        long bytes = 0;
+
+        try {
+            synchronized (mService.getSessionLock()) {
+                // The run leaves the session in the folder it found it in, so commands of the client keep working on that folder.
+                String previousPath = mService.getSessionPath();
+                try {
+                    List<OBEXFtpFolderListingItem> items = mService.readRootFolder(mFolder);
+                    Set<String> listed = new HashSet<String>();
+
+                    for (OBEXFtpFolderListingItem item : items) {
+                        // Folders have a size of 0.
+                        if (item.getSize() == 0) continue;
+                        String name = item.getName();
+                        long time = item.getTime() == null ? -1 : item.getTime().getTime();
+                        listed.add(name);
+
+                        Entry entry = manifest.get(name);
+                        if (entry != null && entry.mSize == item.getSize() && entry.mTime == time
+                                && new File(directory, entry.mLocalName).length() == entry.mSize) {
+                            unchanged++;
+                            continue;
+                        }
+
+                        // A changed file replaces its copy, a new one never replaces a file that is already there.
+                        String localName = entry != null ? entry.mLocalName : uniqueName(directory, name, taken);
+                        bytes += mService.downloadFile(name, new File(directory, localName), item.getSize());
+                        Entry copy = new Entry(localName, item.getSize(), time);
+                        manifest.put(name, copy);
+                        appendManifest(manifestFile, name, copy);
+                        changed = true;
+                        downloaded++;
+                        if (DEBUG) Log.log(Level.INFO, "mirrored " + name + " to " + localName);
+
+                        if (mDeleteAfterDownload && mService.removeFile(name)) {
+                            manifest.remove(name);
+                            appendManifest(manifestFile, name, null);
+                            listed.remove(name);
+                            deleted++;
+                        }
+                    }
+
+                    // Files that are gone from the Sync no longer hold on to their name, their copies are kept.
+                    if (manifest.keySet().retainAll(listed)) changed = true;
+                } finally {
+                    if (!mService.restoreSessionPath(previousPath)) Log.log(Level.WARNING, "unable to change back to " + previousPath);
+                }
+            }
+        } finally {
+            mLastDownloaded = downloaded;
+            mLastDeleted = deleted;
+            mLastUnchanged = unchanged;
+            mLastBytes = bytes;
+            if (changed) writeManifest(manifestFile, manifest);
+        }
+        return downloaded;
+    }
+
+    /**
+     * Runs the mirror in the background at a fixed period, starting right away. Replaces an earlier schedule.
+     *
+     * @param period time between runs in milliseconds
+     */
+    public synchronized void start(long period) {
+        if (mSchedule != null) mSchedule.cancel(false);
+        mSchedule = mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                runQuietly();
+            }
+        }, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the schedule started with {@link #start(long)}.
+     */
+    public synchronized void stop() {
+        if (mSchedule != null) mSchedule.cancel(false);
+        mSchedule = null;
+    }
+
+    /**
+     * Runs the mirror in the background shortly after every save on a Sync.
+     *
+     * @param streamingService streaming service connected to the same Boogie Board Sync
+     * @return false indicates the streaming service is already watched
+     */
+    public boolean runOnSave(SyncStreamingService streamingService) {
+        return streamingService.addListener(mSaveListener);
+    }
+
+    /**
+     * Stops running the mirror on saves of a Sync.
+     *
+     * @return false indicates the streaming service was not watched
+     */
+    public boolean removeRunOnSave(SyncStreamingService streamingService) {
+        return streamingService.removeListener(mSaveListener);
+    }
+
+    /**
+     * Stops all background runs. The mirror cannot be scheduled again.
+     */
+    public void shutdown() {
+        stop();
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Returns the number of files downloaded by the last run.
+     */
+    public int getLastDownloadCount() {
+        return mLastDownloaded;
+    }
+
+    /**
+     * Returns the number of files deleted from the Sync by the last run.
+     */
+    public int getLastDeleteCount() {
+        return mLastDeleted;
+    }
+
+    /**
+     * Returns the number of files the last run found already copied.
+     */
+    public int getLastUnchangedCount() {
+        return mLastUnchanged;
+    }
+
+    /**
+     * Returns the number of bytes downloaded by the last run.
+     */
+    public long getLastByteCount() {
+        return mLastBytes;
+    }
+
+    private void runQuietly() {
+        if (mService.getState() != SyncFtpService.STATE_CONNECTED) return;
+        try {
+            int downloaded = run();
+            if (DEBUG) Log.log(Level.INFO, "mirror run downloaded " + downloaded + " files");
+        } catch (IOException e) {
+            Log.log(Level.WARNING, "mirror run failed", e);
+        }
+    }
+
+    /**
+     * Returns a local name for a new file: its own name, or the name with a number added if a file of that name is already there. The
+     * name is added to the names taken.
+     */
+    private static String uniqueName(File directory, String name, Set<String> taken) {
+        String candidate = name;
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name, extension = dot > 0 ? name.substring(dot) : "";
+        for (int i = 1; taken.contains(candidate) || new File(directory, candidate).exists(); i++) {
+            candidate = base + "-" + i + extension;
+        }
+        taken.add(candidate);
+        return candidate;
+    }
+
+    /**
+     * Reads a manifest: one line per file with the name on the Sync, the size, the modification time and the local name, separated by
+     * tabs. A later line for the same name replaces the earlier one, and a line with an empty local name removes it. A last line without
+     * a line break was cut short by a crash and is skipped.
+     */
+    private static Map<String, Entry> readManifest(File file) throws IOException {
+        Map<String, Entry> manifest = new HashMap<String, Entry>();
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file.toPath());
+        } catch (NoSuchFileException e) {
+            return manifest;
+        }
+
+        String[] lines = new String(bytes, UTF_8).split("\n", -1);
+        if (!lines[lines.length - 1].isEmpty()) Log.log(Level.WARNING, "skipping incomplete manifest line: " + lines[lines.length - 1]);
+        for (int i = 0; i < lines.length - 1; i++) {
+            String[] fields = lines[i].split("\t", -1);
+            if (fields.length != 4) {
+                Log.log(Level.WARNING, "skipping malformed manifest line: " + lines[i]);
+            } else if (fields[3].isEmpty()) {
+                manifest.remove(fields[0]);
+            } else {
+                try {
+                    manifest.put(fields[0], new Entry(fields[3], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                } catch (NumberFormatException e) {
+                    Log.log(Level.WARNING, "skipping malformed manifest line: " + lines[i]);
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Adds one file to the end of a manifest and waits until the line is on disk.
+     *
+     * @param entry copy of the file, null if the file was removed
+     */
+    private static void appendManifest(File file, String name, Entry entry) throws IOException {
+        FileOutputStream stream = new FileOutputStream(file, true);
+        try {
+            stream.write(line(name, entry).getBytes(UTF_8));
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static String line(String name, Entry entry) {
+        if (entry == null) return name + "\t-1\t-1\t\n";
+        return name + '\t' + entry.mSize + '\t' + entry.mTime + '\t' + entry.mLocalName + '\n';
+    }
+
+    /**
+     * Writes a manifest to a temporary file and renames it, so a crash never leaves a partial manifest.
+     */
+    private static void writeManifest(File file, Map<String, Entry> manifest) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF_8));
+        try {
+            for (Map.Entry<String, Entry> entry : manifest.entrySet()) {
+                writer.write(line(entry.getKey(), entry.getValue()));
+            }
+        } finally {
+            writer.close();
+        }
+
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static class Entry {
+        final String mLocalName;
+        final long mSize;
+        final long mTime;
+
+        Entry(String localName, long size, long time) {
+            mLocalName = localName;
+            mSize = size;
+            mTime = time;
+        }
+    }
+
+    private class SaveListener implements SyncStreamingListener {
+        @Override
+        public void onSave() {
+            mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    runQuietly();
+                }
+            }, SAVE_DELAY, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void onStreamingStateChange(int prevState, int newState) {
+        }
+
+        @Override
+        public void onErase() {
+        }
+
+        @Override
+        public void onDrawnPaths(List<SyncPath> paths) {
+        }
+
+        @Override
+        public void onCaptureReport(SyncCaptureReport captureReport) {
+        }
+    }
+}
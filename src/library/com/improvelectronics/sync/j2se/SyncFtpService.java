@@ -23,21 +23,24 @@
 package com.improvelectronics.sync.j2se;
 
 import com.improvelectronics.sync.Config;
+import com.improvelectronics.sync.obex.OBEXFtpDownloader;
 import com.improvelectronics.sync.obex.OBEXFtpFolderListingItem;
+import com.improvelectronics.sync.obex.OBEXFtpFolderListingReader;
+import com.improvelectronics.sync.obex.OBEXFtpListingCache;
 import com.improvelectronics.sync.obex.OBEXFtpUtils;
+import com.intel.bluetooth.obex.BlueCoveOBEX;
 import com.javaquery.bluetooth.ServicesSearch;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.bluetooth.UUID;
@@ -79,6 +82,12 @@ public class SyncFtpService {
     private ConnectThread mConnectThread;
     private ConnectedThread mConnectedThread;
     private ArrayList<String> devicesUrlList;
+    private String mDeviceUrl;
+    private final OBEXFtpListingCache mListingCache;
+    private final List<SyncFolderListener> mFolderListeners;
+    private final List<SyncFolderItemListener> mFolderItemListeners;
+    private final ExecutorService mRefreshExecutor;
+    private volatile boolean mBackgroundRefresh;
     private static final String ACTION_BASE = "com.improvelectronics.sync.android.SyncFtpService.action";
 
     /**
@@ -145,6 +154,17 @@ public class SyncFtpService {
         mListeners = new ArrayList<>();
         devicesUrlList = new ArrayList<>();
         mConnectionId = -1L;
+        mListingCache = new OBEXFtpListingCache();
+        mFolderListeners = new ArrayList<>();
+        mFolderItemListeners = new ArrayList<>();
+        mRefreshExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FolderRefresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
         
         if(syncURL == null) {
             findPairedDevices();
@@ -178,6 +198,55 @@ public class SyncFtpService {
         return true;
     }
 
+    /**
+     * Adds a listener that is told when a new listing of a folder differs from the cached one.
+     *
+     * @param listener Class that implements SyncFolderListener for asynchronous callbacks.
+     * @return false indicates listener has already been added
+     */
+    public synchronized boolean addFolderListener(SyncFolderListener listener) {
+        if (mFolderListeners.contains(listener)) return false;
+        else mFolderListeners.add(listener);
+        return true;
+    }
+
+    /**
+     * Removes a listener that was previously added with {@link #addFolderListener(SyncFolderListener)}.
+     *
+     * @param listener Class that implements SyncFolderListener for asynchronous callbacks.
+     * @return false indicates listener was not originally added
+     */
+    public synchronized boolean removeFolderListener(SyncFolderListener listener) {
+        if (!mFolderListeners.contains(listener)) return false;
+        else mFolderListeners.remove(listener);
+        return true;
+    }
+
+    /**
+     * Adds a listener that is given every item of a folder listing as soon as it is read from the Sync, before the listing is complete.
+     * Listings served from the cache are not passed to it.
+     *
+     * @param listener Class that implements SyncFolderItemListener for asynchronous callbacks.
+     * @return false indicates listener has already been added
+     */
+    public synchronized boolean addFolderItemListener(SyncFolderItemListener listener) {
+        if (mFolderItemListeners.contains(listener)) return false;
+        else mFolderItemListeners.add(listener);
+        return true;
+    }
+
+    /**
+     * Removes a listener that was previously added with {@link #addFolderItemListener(SyncFolderItemListener)}.
+     *
+     * @param listener Class that implements SyncFolderItemListener for asynchronous callbacks.
+     * @return false indicates listener was not originally added
+     */
+    public synchronized boolean removeFolderItemListener(SyncFolderItemListener listener) {
+        if (!mFolderItemListeners.contains(listener)) return false;
+        else mFolderItemListeners.remove(listener);
+        return true;
+    }
+
     /**
      * Start the ConnectThread to initiate a connection to a remote device.
      *
@@ -201,6 +270,7 @@ public class SyncFtpService {
         }
 
         // Start the thread to connect with the given device
+        mDeviceUrl = connectionUrl;
         mConnectThread = new ConnectThread(connectionUrl);
         mConnectThread.start();
         updateDeviceState(STATE_CONNECTING);
@@ -286,6 +356,11 @@ public class SyncFtpService {
 
     /**
      * Request the current folder listing of the connected Boogie Board Sync. This is an asynchronous call.
+     * </p>
+     * Listings are cached per device and absolute path of the folder. A listing read within the
+     * {@link OBEXFtpListingCache#getTimeToLive() time to live} is passed to the listeners without reading it from the Sync again, only the
+     * folder is changed. With {@link #setBackgroundRefresh(boolean) background refresh} on, a stale listing is passed on right away too and
+     * read again in the background; the {@link SyncFolderListener folder listeners} are told what changed.
      *
      * @param folderName
      * @return immediate check if the command could be sent
@@ -295,6 +370,66 @@ public class SyncFtpService {
             mConnectedThread.listFolder(folderName);
         }
     }
+
+    /**
+     * Reads the listing of a folder again in the background, whether or not the cached one is stale. The current folder is the same
+     * afterwards. The {@link SyncFolderListener folder listeners} are told what changed.
+     *
+     * @param folderName folder to read, relative to the current folder like the name passed to {@link #listFolder(String)}
+     */
+    public void refreshFolder(String folderName) {
+        if (mState != STATE_CONNECTED) return;
+
+        ConnectedThread connectedThread = mConnectedThread;
+        scheduleRefresh(connectedThread, connectedThread.resolvePath(folderName));
+    }
+
+    private void scheduleRefresh(final ConnectedThread connectedThread, final String path) {
+        mRefreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connectedThread.refreshFolder(path);
+                } catch (IOException ex) {
+                    Log.log(Level.WARNING, "unable to refresh folder listing of " + path, ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Turns on reading stale listings again in the background while the cached listing is passed on. Off by default.
+     */
+    public void setBackgroundRefresh(boolean backgroundRefresh) {
+        mBackgroundRefresh = backgroundRefresh;
+    }
+
+    /**
+     * Returns the cache of folder listings, for example to change the time to live.
+     *
+     * @return listing cache
+     */
+    public OBEXFtpListingCache getListingCache() {
+        return mListingCache;
+    }
+
+    /**
+     * Drops the cached listings of the connected Boogie Board Sync, so the next listing is read from the Sync. Files that are deleted
+     * through this service do this automatically.
+     */
+    public void invalidateListings() {
+        if (mDeviceUrl != null) mListingCache.invalidate(mDeviceUrl);
+    }
+
+    /**
+     * Drops the cached listings whenever the Sync saves a page, since the page is written to the SAVED folder.
+     *
+     * @param streamingService streaming service connected to the same Boogie Board Sync
+     * @return false indicates the streaming service is already watched
+     */
+    public boolean invalidateOnSave(SyncStreamingService streamingService) {
+        return streamingService.addListener(mSaveListener);
+    }
     
     /**
      * Changes the current folder of the connected Boogie Board Sync. This is an
@@ -329,10 +464,88 @@ public class SyncFtpService {
      */
     public void getFile(String fileName) {
         if (mState == STATE_CONNECTED) {
-            mConnectedThread.getFile(fileName);
+            mConnectedThread.getFile(fileName, -1);
+        }
+    }
+
+    /**
+     * Get a file from the Boogie Board Sync that was returned by a folder listing. This is an asynchronous call.
+     * </p>
+     * The file is preallocated to the size from the listing, and the download fails if a different number of bytes arrives.
+     *
+     * @param item File to be retrieved
+     */
+    public void getFile(OBEXFtpFolderListingItem item) {
+        if (mState == STATE_CONNECTED) {
+            mConnectedThread.getFile(item.getName(), item.getSize());
         }
     }
 
+    /**
+     * Returns the URL of the Boogie Board Sync the service connects to, or null before the first connection.
+     *
+     * @return device URL
+     */
+    public String getDeviceUrl() {
+        return mDeviceUrl;
+    }
+
+    /**
+     * Returns the object to hold while running several blocking commands in a row, so no other command runs in between.
+     */
+    Object getSessionLock() throws IOException {
+        return connectedThread();
+    }
+
+    /**
+     * Returns the absolute path of the current folder of the session, ending in a slash. Hold the {@link #getSessionLock() session lock}
+     * until the folder is restored with {@link #restoreSessionPath(String)}.
+     */
+    String getSessionPath() throws IOException {
+        return connectedThread().sessionPath;
+    }
+
+    /**
+     * Changes the session back to a folder returned by {@link #getSessionPath()}. The {@link #getDirectoryUri() directory URI} is left
+     * alone, it only follows {@link #changeFolder(String)} and matches the session again once the folder is restored.
+     *
+     * @return true if the folder was changed
+     */
+    boolean restoreSessionPath(String path) throws IOException {
+        return connectedThread().goToPath(path);
+    }
+
+    /**
+     * Reads the listing of a folder in the root folder of the Sync, which becomes the current folder. Blocks until the listing is read.
+     */
+    List<OBEXFtpFolderListingItem> readRootFolder(String folderName) throws IOException {
+        return connectedThread().readRootFolder(folderName);
+    }
+
+    /**
+     * Downloads a file in the current folder of the Sync. Blocks until the file is written.
+     *
+     * @return the number of bytes downloaded
+     */
+    long downloadFile(String fileName, File target, long size) throws IOException {
+        return connectedThread().download(fileName, target, size);
+    }
+
+    /**
+     * Deletes a file in the current folder of the Sync. Blocks until the Sync replied.
+     *
+     * @return true if the file was deleted
+     */
+    boolean removeFile(String fileName) throws IOException {
+        return connectedThread().removeFile(fileName);
+    }
+
+    private ConnectedThread connectedThread() throws IOException {
+        ConnectedThread connectedThread = mConnectedThread;
+        if (mState != STATE_CONNECTED || connectedThread == null) throw new IOException("not connected to a Boogie Board Sync");
+        return connectedThread;
+    }
+
     /**
      * Returns the current directory of the Boogie Board Sync. This will return null if there is no current connection to a Boogie Board Sync.
      *
@@ -373,6 +586,46 @@ public class SyncFtpService {
         }
     }
 
+    private final SyncStreamingListener mSaveListener = new SyncStreamingListener() {
+        @Override
+        public void onStreamingStateChange(int prevState, int newState) {
+        }
+
+        @Override
+        public void onErase() {
+        }
+
+        @Override
+        public void onSave() {
+            invalidateListings();
+        }
+
+        @Override
+        public void onDrawnPaths(List<SyncPath> paths) {
+        }
+
+        @Override
+        public void onCaptureReport(SyncCaptureReport captureReport) {
+        }
+    };
+
+    /**
+     * Caches a listing that was just read and tells the folder listeners what changed since the cached one.
+     */
+    private void listingRead(String folderName, List<OBEXFtpFolderListingItem> items) {
+        List<OBEXFtpFolderListingItem> old = mListingCache.put(mDeviceUrl, folderName, items);
+        if (old == null) return;
+
+        List<OBEXFtpFolderListingItem> added = new ArrayList<>(), removed = new ArrayList<>();
+        if (!OBEXFtpListingCache.diff(old, items, added, removed)) return;
+
+        List<SyncFolderListener> listeners;
+        synchronized (this) {
+            listeners = new ArrayList<>(mFolderListeners);
+        }
+        for (SyncFolderListener listener : listeners) listener.onFolderChanged(folderName, added, removed);
+    }
+
     private class MessageHandler {
         public void handleMessage(int what, Object obj, int arg1, int arg2) {
             // Parse the message that was returned from the background thread.
@@ -431,10 +684,11 @@ public class SyncFtpService {
                     }
                 }
 
-                // GET_FILE action, returns a byte array of the directory listing.
+                // GET_DIRECTORY action, returns the items of the directory listing.
                 else if (action == ACTION_GET_DIRECTORY) {
                     if (result == RESULT_OK) {
-                        List<OBEXFtpFolderListingItem> directory = OBEXFtpUtils.parseXML((String)obj);
+                        @SuppressWarnings("unchecked")
+                        List<OBEXFtpFolderListingItem> directory = (List<OBEXFtpFolderListingItem>) obj;
                         for (SyncFtpListener listener : mListeners) listener.onFolderListingComplete(directory, RESULT_OK);
                     } else {
                         for (SyncFtpListener listener : mListeners) listener.onFolderListingComplete(null, RESULT_FAIL);
@@ -542,10 +796,23 @@ public class SyncFtpService {
      */
     private class ConnectedThread extends Thread {
         private final ClientSession clientSession;
+        private final OBEXFtpDownloader downloader;
+        
+        // Folder the session is in, as an absolute path ending in a slash. A new session starts in the root folder.
+        private String sessionPath = "/";
 
         public ConnectedThread(ClientSession conn) {
             Log.log(Level.INFO, "create ConnectedThread: ");
             clientSession = conn;
+            
+            // Read files a negotiated OBEX packet at a time.
+            int packetSize = OBEXFtpDownloader.DEFAULT_PACKET_SIZE;
+            try {
+                packetSize = BlueCoveOBEX.getPacketSize(conn);
+            } catch (RuntimeException ex) {
+                Log.log(Level.WARNING, "unable to read the OBEX packet size", ex);
+            }
+            downloader = new OBEXFtpDownloader(packetSize);
         }
         
         /**
@@ -561,56 +828,158 @@ public class SyncFtpService {
          */
         public void listFolder(String folderName) {
             try {
-                //Go the desired folder
-                HeaderSet header = clientSession.createHeaderSet();
-                header.setHeader(HeaderSet.NAME, folderName);
-                HeaderSet result = clientSession.setPath(header, false, false);
+                List<OBEXFtpFolderListingItem> items = openFolder(folderName);
                 
-                if(result.getResponseCode() == ResponseCodes.OBEX_HTTP_OK) {
-                    //Retreive the contents of the folder
-                    header = clientSession.createHeaderSet();
-                    header.setHeader(HeaderSet.TYPE, OBEXFtpUtils.FOLDER_LISTING_TYPE);
-                    
-                    Operation op = clientSession.get(header);
-                    BufferedReader br = new BufferedReader(new InputStreamReader(op.openInputStream()));
-                    
-                    String line;
-                    String xmlString = "";
-                    
-                    while ((line = br.readLine()) != null) {
-                        xmlString = xmlString + line + "\n";
-                    }
-                    
-                    // close the streams
-                    br.close();
-                    op.close();
-                    
+                if(items != null) {
                     // call the message handeler
-                    mMessageHandler.handleMessage(MESSAGE_ACTION, xmlString, ACTION_GET_DIRECTORY, RESULT_OK);
-                    if(DEBUG) Log.log(Level.INFO, "Obex XML String:\n" + xmlString);
+                    mMessageHandler.handleMessage(MESSAGE_ACTION, items, ACTION_GET_DIRECTORY, RESULT_OK);
                 } else {
                     mMessageHandler.handleMessage(MESSAGE_ACTION, null, ACTION_GET_DIRECTORY, RESULT_FAIL);
                     Log.log(Level.SEVERE, "Unable to change to " + folderName);
                 }
             } catch (IOException ex) {
+                mMessageHandler.handleMessage(MESSAGE_ACTION, null, ACTION_GET_DIRECTORY, RESULT_FAIL);
                 Log.log(Level.SEVERE, null, ex);
             }
         }
         
+        /**
+         * Changes to a folder and returns its listing, from the cache if it is there.
+         * @param folderName 
+         * @return the listing, null if the folder could not be opened
+         */
+        private synchronized List<OBEXFtpFolderListingItem> openFolder(String folderName) throws IOException {
+            String path = resolvePath(folderName);
+            List<OBEXFtpFolderListingItem> items = mListingCache.get(mDeviceUrl, path);
+            boolean stale = false;
+            if (items == null && mBackgroundRefresh) {
+                items = mListingCache.peek(mDeviceUrl, path);
+                stale = items != null;
+            }
+            if (items == null) return readFolder(folderName);
+            
+            // The client is in the folder after listing it, whether or not the listing is read.
+            if (!setPath(folderName)) return null;
+            if (DEBUG) Log.log(Level.INFO, "folder listing of " + path + " served from cache");
+            if (stale) scheduleRefresh(this, path);
+            return items;
+        }
+        
+        /**
+         * Changes to a folder, then reads its listing and caches it. Synchronized, like the other commands, so a background refresh never
+         * runs at the same time as a command of the client.
+         * @param folderName 
+         * @return the listing, null if the folder could not be opened
+         */
+        private synchronized List<OBEXFtpFolderListingItem> readFolder(String folderName) throws IOException {
+            if (!setPath(folderName)) return null;
+            return readListing();
+        }
+        
+        /**
+         * Reads a folder again and changes back to the folder the session was in.
+         * @param path absolute path of the folder
+         */
+        private synchronized void refreshFolder(String path) throws IOException {
+            String previousPath = sessionPath;
+            try {
+                if (!goToPath(path)) throw new IOException("unable to change to " + path);
+                readListing();
+            } finally {
+                if (!goToPath(previousPath)) Log.log(Level.WARNING, "unable to change back to " + previousPath);
+            }
+        }
+        
+        /**
+         * Reads the listing of the current folder and caches it.
+         * @return the listing
+         */
+        private synchronized List<OBEXFtpFolderListingItem> readListing() throws IOException {
+            String path = sessionPath;
+            
+            //Retreive the contents of the folder
+            HeaderSet header = clientSession.createHeaderSet();
+            header.setHeader(HeaderSet.TYPE, OBEXFtpUtils.FOLDER_LISTING_TYPE);
+            
+            // Parse the items as the listing arrives and pass each one on right away. The whole listing is still collected, since the
+            // listeners of the service, the cache and the change detection all work on the sorted listing.
+            List<SyncFolderItemListener> itemListeners;
+            synchronized (SyncFtpService.this) {
+                itemListeners = new ArrayList<>(mFolderItemListeners);
+            }
+            Operation op = clientSession.get(header);
+            List<OBEXFtpFolderListingItem> items = new ArrayList<>();
+            try {
+                OBEXFtpFolderListingReader reader = new OBEXFtpFolderListingReader(op.openInputStream());
+                try {
+                    OBEXFtpFolderListingItem item;
+                    while ((item = reader.next()) != null) {
+                        items.add(item);
+                        for (SyncFolderItemListener listener : itemListeners) listener.onFolderItem(path, item);
+                    }
+                } finally {
+                    reader.close();
+                }
+            } finally {
+                op.close();
+            }
+            OBEXFtpFolderListingReader.sort(items);
+            if(DEBUG) Log.log(Level.INFO, "Obex folder listing: " + items.size() + " items");
+            
+            listingRead(path, items);
+            return items;
+        }
+        
+        /**
+         * Changes the folder of the session and keeps track of its path.
+         * @param folderName folder in the current folder, "" for the root folder or ".." for the parent folder
+         * @return true if the folder was changed
+         */
+        private synchronized boolean setPath(String folderName) throws IOException {
+            HeaderSet header = clientSession.createHeaderSet();
+            header.setHeader(HeaderSet.NAME, folderName);
+            HeaderSet result = clientSession.setPath(header, false, false);
+            if(result.getResponseCode() != ResponseCodes.OBEX_HTTP_OK) return false;
+            
+            sessionPath = resolvePath(folderName);
+            return true;
+        }
+        
+        /**
+         * Changes the folder of the session to an absolute path, from the root folder down.
+         * @param path absolute path ending in a slash
+         * @return true if the folder was changed
+         */
+        private synchronized boolean goToPath(String path) throws IOException {
+            if (path.equals(sessionPath)) return true;
+            if (!setPath("")) return false;
+            for (String folder : path.split("/")) {
+                if (!folder.isEmpty() && !setPath(folder)) return false;
+            }
+            return true;
+        }
+        
+        /**
+         * Returns the absolute path of a folder relative to the current folder of the session.
+         * @param folderName folder in the current folder, "" for the root folder or ".." for the parent folder
+         * @return absolute path ending in a slash
+         */
+        private synchronized String resolvePath(String folderName) {
+            if (folderName.isEmpty() || folderName.equals("/")) return "/";
+            if (folderName.equals("..")) {
+                int slash = sessionPath.lastIndexOf('/', sessionPath.length() - 2);
+                return slash < 0 ? "/" : sessionPath.substring(0, slash + 1);
+            }
+            return sessionPath + folderName + "/";
+        }
+        
         /**
          * Delete a file from the sync
          * @param fileName 
          */
-        private void deleteFile(String fileName) {
+        private synchronized void deleteFile(String fileName) {
             try {
-                //Go the desired folder
-                HeaderSet header = clientSession.createHeaderSet();
-                header.setHeader(HeaderSet.NAME, fileName);
-                
-                HeaderSet response = clientSession.delete(header);
-                
-                if (response.getResponseCode() == ResponseCodes.OBEX_HTTP_OK) {
-                    if(DEBUG) Log.log(Level.INFO, "deleted file");
+                if (removeFile(fileName)) {
                     mMessageHandler.handleMessage(MESSAGE_ACTION, fileName, ACTION_PUT, RESULT_OK);
                 } else {
                     mMessageHandler.handleMessage(MESSAGE_ACTION, fileName, ACTION_PUT, RESULT_FAIL);
@@ -621,53 +990,84 @@ public class SyncFtpService {
         }
         
         /**
-         * Method to get a file from the BBSync
+         * Deletes a file in the current folder of the Sync and drops the cached listings.
          * @param fileName 
+         * @return true if the file was deleted
          */
-        private void getFile(String fileName) {
+        private synchronized boolean removeFile(String fileName) throws IOException {
+            HeaderSet header = clientSession.createHeaderSet();
+            header.setHeader(HeaderSet.NAME, fileName);
+            
+            HeaderSet response = clientSession.delete(header);
+            if (response.getResponseCode() != ResponseCodes.OBEX_HTTP_OK) return false;
+            
+            if(DEBUG) Log.log(Level.INFO, "deleted file");
+            invalidateListings();
+            return true;
+        }
+        
+        /**
+         * Method to get a file from the BBSync. The body is read until it ends, not just while bytes are available, so a stall between
+         * packets does not truncate the file.
+         * @param fileName 
+         * @param size size from the folder listing, -1 to use the length header of the response
+         */
+        private synchronized void getFile(String fileName, long size) {
             try {
-                //Go the desired folder
-                HeaderSet header = clientSession.createHeaderSet();
-                header.setHeader(HeaderSet.NAME, fileName);
-                
-                Operation op = clientSession.get(header);
-                InputStream is = op.openInputStream();
-                
                 File file = new File(storeDirectory, fileName);
-                FileOutputStream fos = new FileOutputStream(file);
-                
-                byte b[] = new byte[1024];
-                int len;
-                
-                while (is.available() > 0 && (len = is.read(b)) > 0) {
-                    fos.write (b, 0, len);
-                }
-                
-                // close the streams
-                fos.close();
-                is.close();
+                long bytes = download(fileName, file, size);
                 
                 mMessageHandler.handleMessage(MESSAGE_ACTION, file, ACTION_GET_FILE, RESULT_OK);
-                if(DEBUG)Log.log(Level.INFO, "File stored in: {0}", file.getAbsolutePath());
+                if(DEBUG)Log.log(Level.INFO, "File stored in: {0}, " + bytes + " bytes at " + Math.round(downloader.getLastThroughput())
+                        + " bytes/s", file.getAbsolutePath());
             } catch (IOException ex) {
                 mMessageHandler.handleMessage(MESSAGE_ACTION, null, ACTION_GET_FILE, RESULT_FAIL);
                 Log.log(Level.SEVERE, null, ex);
             }
         }
         
+        /**
+         * Downloads a file in the current folder of the Sync.
+         * @param fileName 
+         * @param target file to write
+         * @param size size from the folder listing, -1 to use the length header of the response
+         * @return the number of bytes downloaded
+         */
+        private synchronized long download(String fileName, File target, long size) throws IOException {
+            HeaderSet header = clientSession.createHeaderSet();
+            header.setHeader(HeaderSet.NAME, fileName);
+            
+            Operation op = clientSession.get(header);
+            try {
+                if (size < 0) size = op.getLength();
+                return downloader.download(op.openInputStream(), target, size);
+            } finally {
+                op.close();
+            }
+        }
+        
+        /**
+         * Reads the listing of a folder in the root folder of the Sync, which becomes the current folder.
+         * @param folderName 
+         * @return the listing
+         */
+        private synchronized List<OBEXFtpFolderListingItem> readRootFolder(String folderName) throws IOException {
+            if (!setPath("")) throw new IOException("unable to change to the root folder");
+            
+            List<OBEXFtpFolderListingItem> items = readFolder(folderName);
+            if(items == null) throw new IOException("unable to change to " + folderName);
+            return items;
+        }
+        
         /**
          * Method to list folder
          * 
          * @param folderName 
          */
-        private void changeFolder(String folderName) {
+        private synchronized void changeFolder(String folderName) {
             try {
                 //Go the desired folder
-                HeaderSet header = clientSession.createHeaderSet();
-                header.setHeader(HeaderSet.NAME, folderName);
-                HeaderSet result = clientSession.setPath(header, false, false);
-                
-                if(result.getResponseCode() == ResponseCodes.OBEX_HTTP_OK) {
+                if (setPath(folderName)) {
                     mMessageHandler.handleMessage(MESSAGE_ACTION, folderName, ACTION_SET_PATH, RESULT_OK);
                 } else {
                     mMessageHandler.handleMessage(MESSAGE_ACTION, folderName, ACTION_SET_PATH, RESULT_FAIL);
@@ -0,0 +1,47 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.j2se;
+
+/**
+ * Interface definition for a callback when {@link com.improvelectronics.sync.ink.StrokePredictor} extrapolates where the stylus is heading.
+ */
+public interface SyncPredictionListener {
+
+    /**
+     * Called with a provisional segment from the end of the drawn trace to the predicted position of the stylus. Every provisional
+     * segment replaces the previous one; it is not part of the trace and should be drawn separately, for example in an overlay that is
+     * cleared before the next one is drawn.
+     *
+     * @param x0        x coordinate the drawn trace ends at, in digitizer units
+     * @param y0        y coordinate the drawn trace ends at, in digitizer units
+     * @param x1        predicted x coordinate of the stylus, in digitizer units
+     * @param y1        predicted y coordinate of the stylus, in digitizer units
+     * @param lineWidth width of the segment in digitizer units
+     */
+    public void onPrediction(float x0, float y0, float x1, float y1, float lineWidth);
+
+    /**
+     * Called when the last provisional segment should be removed, because the stylus was lifted or prediction was turned off.
+     */
+    public void onPredictionCleared();
+}
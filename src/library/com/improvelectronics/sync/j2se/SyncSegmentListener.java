@@ -0,0 +1,45 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.j2se;
+
+/**
+ * Interface definition for a callback when {@link Filtering} produces a new line segment.
+ */
+public interface SyncSegmentListener {
+
+    /**
+     * Called when a new segment of the current trace should be drawn. Consecutive segments of a trace share their end points.
+     *
+     * @param x0        x coordinate the segment starts at, in digitizer units
+     * @param y0        y coordinate the segment starts at, in digitizer units
+     * @param x1        x coordinate the segment ends at, in digitizer units
+     * @param y1        y coordinate the segment ends at, in digitizer units
+     * @param lineWidth width of the segment in digitizer units
+     */
+    public void onSegment(float x0, float y0, float x1, float y1, float lineWidth);
+
+    /**
+     * Called when the stylus was lifted and the current trace is complete.
+     */
+    public void onTraceEnd();
+}
@@ -28,8 +28,21 @@ import com.improvelectronics.sync.Config;
 import com.improvelectronics.sync.hid.HIDMessage;
 import com.improvelectronics.sync.hid.HIDSetReport;
 import com.improvelectronics.sync.hid.HIDUtilities;
+import com.improvelectronics.sync.ink.CurveFitter;
+import com.improvelectronics.sync.ink.DecimationFanout;
+import com.improvelectronics.sync.ink.PageHistory;
+import com.improvelectronics.sync.ink.SegmentSimplifier;
+import com.improvelectronics.sync.ink.StrokeIndex;
+import com.improvelectronics.sync.ink.StrokePredictor;
+import com.improvelectronics.sync.ink.StrokeStore;
+import com.improvelectronics.sync.ink.SyncPage;
+import com.improvelectronics.sync.render.DirtyRegionListener;
+import com.improvelectronics.sync.render.InkBounds;
+import com.improvelectronics.sync.session.SessionRecorder;
 import com.javaquery.bluetooth.ServicesSearch;
 
+import java.awt.geom.Rectangle2D;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -60,14 +73,47 @@ public class SyncStreamingService {
     private static final UUID CONNECT_UUID = new UUID("d6a56f8088f811e3baa80800200c9a66", false);
     
     private static final boolean DEBUG = Config.DEBUG;;
+
+    // Flag of a capture report for when the stylus is in detectable range.
+    private static final byte READY_FLAG = 0x01 << 2;
     private List<SyncStreamingListener> mListeners;
     private int mState, mMode;
     private ConnectThread mConnectThread;
     private ConnectedThread mConnectedThread;
     private AcceptThread mAcceptThread;
-    private List<SyncPath> mPaths;
+    private StrokeStore mStrokes;
+    private final StrokeIndex mStrokeIndex;
+    private final InkBounds mBounds;
+    private final Filtering mFiltering;
+    private final StrokeBuilder mStrokeBuilder;
+    private final SegmentDispatcher mSegmentDispatcher;
+    private final SegmentSimplifier mSimplifier;
+    private final CurveFitter mCurveFitter;
+    private final StrokePredictor mPredictor;
+    private final DecimationFanout mFanout;
+    private final PageHistory mPageHistory;
+
+    // Guards the strokes, their index, the bounds and the page history, which are changed by the reader thread and by eraseSync.
+    private final Object mPageLock = new Object();
     private ArrayList<String> devicesUrlList;
 
+    // Recording of the capture reports, null when not recording.
+    private SessionRecorder mRecorder;
+    private long mRecordingStartIndex;
+
+    // Timing of the capture reports and the last report, used to fill in lost samples.
+    private final SampleClock mSampleClock;
+    private volatile boolean mInterpolateGaps;
+
+    // Reports of a read that looked late, held until the next read shows whether samples were lost before them.
+    private List<SyncCaptureReport> mHeldReports;
+    private long mHeldReceiveTime;
+    private int mLastX, mLastY, mLastPressure;
+    private byte mLastFlags;
+
+    // Longest run of lost samples that is filled in, longer gaps are more likely a lifted stylus than a straight line.
+    private static final int MAX_INTERPOLATED_SAMPLES = 32;
+
     // Used for updating the local time of the Sync.
     private static final int YEAR_OFFSET = 1980;
 
@@ -152,8 +198,49 @@ public class SyncStreamingService {
     public static final int SAVE_BUTTON = 13;
 
     public SyncStreamingService(String syncURL) {
+        this(syncURL, new StrokeStore());
+    }
+
+    /**
+     * Creates the service with a store for the strokes drawn on the Sync, for example one with a different heap budget.
+     *
+     * @param syncURL     connection URL of the Sync, null to connect to the first paired Sync
+     * @param strokeStore store that holds the strokes drawn on the Sync
+     */
+    public SyncStreamingService(String syncURL, StrokeStore strokeStore) {
         // Set the default properties.
-        mPaths = new ArrayList<SyncPath>();
+        mStrokes = strokeStore;
+        mStrokeIndex = new StrokeIndex(strokeStore);
+        mBounds = new InkBounds();
+        mFiltering = new Filtering();
+        mStrokeBuilder = new StrokeBuilder();
+        mCurveFitter = new CurveFitter();
+        mPredictor = new StrokePredictor(0);
+        mFanout = new DecimationFanout();
+        mSampleClock = new SampleClock();
+        mPageHistory = new PageHistory();
+        mSegmentDispatcher = new SegmentDispatcher();
+        mSimplifier = new SegmentSimplifier(mSegmentDispatcher, 0, 0, SegmentSimplifier.DEFAULT_WINDOW);
+        mStrokeBuilder.addListener(new SyncStrokeListener() {
+            @Override
+            public void onStrokeStart(SyncStroke stroke) {
+                mStrokes.add(stroke);
+                mStrokeIndex.onStrokeStart(stroke);
+                mBounds.onStrokeStart(stroke);
+            }
+
+            @Override
+            public void onStrokeUpdate(SyncStroke stroke, int firstVertex) {
+                mStrokeIndex.onStrokeUpdate(stroke, firstVertex);
+                mBounds.onStrokeUpdate(stroke, firstVertex);
+            }
+
+            @Override
+            public void onStrokeEnd(SyncStroke stroke) {
+                mStrokes.strokeCompleted(stroke);
+                mStrokeIndex.onStrokeEnd(stroke);
+            }
+        });
         mListeners = new ArrayList<SyncStreamingListener>();
         devicesUrlList = new ArrayList<>();
         mMessageHandler = new MessageHandler();
@@ -319,8 +406,11 @@ public class SyncStreamingService {
 
         if (DEBUG) Log.log(Level.INFO, "writing message to erase Boogie Board Sync's screen");
 
-        // Clean up paths.
-        mPaths.clear();
+        // Keep the page in the history and clean up strokes.
+        synchronized (mPageLock) {
+            erasePage();
+        }
+        mBounds.flush();
 
         // Create the HID message to be sent to the Sync to erase the screen.
         byte ERASE_MODE = 0x01;
@@ -380,17 +470,311 @@ public class SyncStreamingService {
         }
     }
 
+    /**
+     * Starts recording every capture report received from the Boogie Board Sync to a session file. Any recording already in progress is
+     * stopped first. Use {@link com.improvelectronics.sync.session.SessionReader SessionReader} to read the file back.
+     *
+     * @param file file to record to, replaced if it exists
+     * @throws IOException if the file could not be created
+     */
+    public synchronized void startRecording(File file) throws IOException {
+        stopRecording();
+        if (DEBUG) Log.log(Level.INFO, "start recording to " + file);
+        mRecorder = new SessionRecorder(file, System.currentTimeMillis());
+        mRecordingStartIndex = -1;
+    }
+
+    /**
+     * Stops the recording started with {@link #startRecording(File)} and closes the session file.
+     */
+    public synchronized void stopRecording() {
+        if (mRecorder == null) return;
+        if (DEBUG) Log.log(Level.INFO, "stop recording, " + mRecorder.getSampleCount() + " samples recorded");
+
+        try {
+            mRecorder.close();
+        } catch (IOException e) {
+            Log.log(Level.SEVERE, "unable to close recording", e);
+        }
+        mRecorder = null;
+    }
+
+    /**
+     * Returns true if the capture reports are being recorded.
+     *
+     * @return recording
+     */
+    public synchronized boolean isRecording() {
+        return mRecorder != null;
+    }
+
     public List<String> getPairedDevices() {
         return devicesUrlList;
     }
 
     /**
-     * Returns a list of paths that the Sync currently have drawn on it.
+     * Returns a list of paths that the Sync currently have drawn on it, one for every segment of the completed strokes. The list is built
+     * from a {@link #getSnapshot() snapshot} every time this is called, use {@link #getSnapshot()} when possible.
      *
      * @return paths
      */
     public List<SyncPath> getPaths() {
-        return mPaths;
+        List<SyncPath> paths = new ArrayList<SyncPath>();
+        for (SyncStroke stroke : mStrokes.snapshot()) paths.addAll(stroke.toPaths());
+        return paths;
+    }
+
+    /**
+     * Returns a list of strokes that the Sync currently have drawn on it. The last stroke may still be in progress. Older strokes may have
+     * been moved out of memory by the {@link StrokeStore} and are read back when they are accessed.
+     * </p>
+     * The list keeps changing while capture reports arrive. Use {@link #getSnapshot()} to read the strokes from another thread.
+     *
+     * @return strokes
+     */
+    public List<SyncStroke> getStrokes() {
+        return mStrokes;
+    }
+
+    /**
+     * Returns an immutable view of the completed strokes that does not change while capture reports arrive. Taking a snapshot is cheap
+     * and never blocks the reader thread. Renderers can keep the version of the last snapshot they drew and ask a newer snapshot for
+     * {@link StrokeStore.Snapshot#getChangesSince(long) the strokes completed since}.
+     *
+     * @return snapshot of the completed strokes
+     */
+    public StrokeStore.Snapshot getSnapshot() {
+        return mStrokes.snapshot();
+    }
+
+    /**
+     * Returns the strokes drawn on the Sync that have a segment inside or crossing a rectangle, for example to select or export part of
+     * the drawing. This uses a spatial index and does not look at every stroke.
+     *
+     * @param rectangle rectangle in digitizer units
+     * @return strokes in the order they were drawn
+     */
+    public List<SyncStroke> getStrokes(Rectangle2D rectangle) {
+        return mStrokeIndex.getStrokes(rectangle);
+    }
+
+    /**
+     * Returns the strokes drawn on the Sync that pass within a distance of a point.
+     *
+     * @param x         x in digitizer units
+     * @param y         y in digitizer units
+     * @param tolerance distance from the edge of a stroke that still counts as a hit, in digitizer units
+     * @return strokes in the order they were drawn
+     */
+    public List<SyncStroke> hitTest(float x, float y, float tolerance) {
+        return mStrokeIndex.hitTest(x, y, tolerance);
+    }
+
+    /**
+     * Returns the history of the pages that were on the Sync when it was erased or saved. The page that was just erased is the
+     * {@link PageHistory#getLastPage() last page} once it has been sealed, so it can be shown again or exported.
+     *
+     * @return page history
+     */
+    public PageHistory getPageHistory() {
+        return mPageHistory;
+    }
+
+    /**
+     * Returns the bounds of the ink on the Sync, including half the line width, or an empty rectangle if nothing is drawn. The bounds
+     * are kept up to date as segments arrive, so this does not look at the strokes.
+     *
+     * @return bounds in digitizer units
+     */
+    public Rectangle2D getPageBounds() {
+        return mBounds.getPageBounds();
+    }
+
+    /**
+     * Returns the bounds of all the ink drawn since the service was created, across erases.
+     *
+     * @return bounds in digitizer units
+     */
+    public Rectangle2D getSessionBounds() {
+        return mBounds.getSessionBounds();
+    }
+
+    /**
+     * Add a listener that is told which part of the page changed after every read from the Sync. The region covers every segment drawn
+     * in the read, including half its line width, and the whole old page when the Sync is erased.
+     *
+     * @param listener listener to add
+     * @return false indicates listener has already been added
+     */
+    public boolean addDirtyRegionListener(DirtyRegionListener listener) {
+        return mBounds.addListener(listener);
+    }
+
+    /**
+     * Removes a listener that was previously added with {@link #addDirtyRegionListener(DirtyRegionListener)}.
+     *
+     * @param listener listener to remove
+     * @return false indicates listener was not originally added
+     */
+    public boolean removeDirtyRegionListener(DirtyRegionListener listener) {
+        return mBounds.removeListener(listener);
+    }
+
+    /**
+     * Returns the spatial index over the strokes drawn on the Sync, for example to render tiles from.
+     *
+     * @return stroke index
+     */
+    public StrokeIndex getStrokeIndex() {
+        return mStrokeIndex;
+    }
+
+    /**
+     * Turns on simplification of the filtered segments before they are turned into strokes and paths. Runs of nearly collinear segments
+     * with about the same line width are merged, which saves memory and rendering time for slow writing. Segments are held back for up to
+     * {@link SegmentSimplifier#DEFAULT_WINDOW} samples. The setting takes effect with the next stroke.
+     *
+     * @param tolerance      distance in digitizer units a dropped point may be from the merged segment, zero to turn simplification off
+     * @param widthTolerance difference in line width in digitizer units allowed between segments that are merged
+     */
+    public void setSimplification(float tolerance, float widthTolerance) {
+        mSimplifier.setTolerance(tolerance, widthTolerance);
+    }
+
+    /**
+     * Returns the number of filtered segments for every segment kept by the simplification, 1 when it is turned off.
+     *
+     * @return compression ratio
+     */
+    public float getSimplificationRatio() {
+        return mSimplifier.getCompressionRatio();
+    }
+
+    /**
+     * Adds a listener that receives the strokes as smooth cubic Bézier curves instead of line segments. A curve is passed on once the
+     * next point no longer fits it, so curves arrive a little later than the segments. Remember to remove the listener with
+     * {@link #removeCurveListener(SyncCurveListener)} when finished.
+     *
+     * @param listener Class that implements SyncCurveListener for fitted curves.
+     * @return false indicates listener has already been added
+     */
+    public boolean addCurveListener(SyncCurveListener listener) {
+        return mCurveFitter.addListener(listener);
+    }
+
+    /**
+     * Removes a listener that was previously added with {@link #addCurveListener(SyncCurveListener)}.
+     *
+     * @param listener Class that implements SyncCurveListener for fitted curves.
+     * @return false indicates listener was not originally added
+     */
+    public boolean removeCurveListener(SyncCurveListener listener) {
+        return mCurveFitter.removeListener(listener);
+    }
+
+    /**
+     * Adds a listener that receives the filtered segments at a lower resolution, for example to draw a thumbnail. All listeners are
+     * served from the same filter pass. Remember to remove the listener with {@link #removeSegmentListener(SyncSegmentListener)} when
+     * finished.
+     *
+     * @param listener    Class that implements SyncSegmentListener for decimated segments.
+     * @param minDistance distance in digitizer units between the vertices passed on, zero to pass on every vertex
+     * @param maxAngle    turn in radians after which a vertex is passed on even if it is closer, zero to only use the distance
+     * @return false indicates listener has already been added
+     */
+    public boolean addSegmentListener(SyncSegmentListener listener, float minDistance, float maxAngle) {
+        return mFanout.addListener(listener, minDistance, maxAngle);
+    }
+
+    /**
+     * Removes a listener that was previously added with {@link #addSegmentListener(SyncSegmentListener, float, float)}.
+     *
+     * @param listener Class that implements SyncSegmentListener for decimated segments.
+     * @return false indicates listener was not originally added
+     */
+    public boolean removeSegmentListener(SyncSegmentListener listener) {
+        return mFanout.removeListener(listener);
+    }
+
+    /**
+     * Returns the clock that times the capture reports, for the number of gaps and lost samples.
+     *
+     * @return sample clock
+     */
+    public SampleClock getSampleClock() {
+        return mSampleClock;
+    }
+
+    /**
+     * Turns on filling in samples lost by the Bluetooth connection. Lost samples are put on a straight line between the reports before
+     * and after the gap if the stylus touched the surface on both sides, so the stroke does not get a sharp corner. Off by default.
+     *
+     * @param interpolate true to fill in lost samples
+     */
+    public void setGapInterpolation(boolean interpolate) {
+        mInterpolateGaps = interpolate;
+    }
+
+    /**
+     * Turns on prediction of the stylus position. After every capture report a provisional segment from the end of the drawn ink to the
+     * predicted position is passed to the listeners added with {@link #addPredictionListener(SyncPredictionListener)}, which hides most
+     * of the delay of the filter and part of the Bluetooth delay. The gain is measured by the {@link #getPredictor() predictor}.
+     *
+     * @param lookAhead time to look ahead of the last capture report in milliseconds, zero to turn prediction off
+     */
+    public void setPrediction(float lookAhead) {
+        mPredictor.setLookAhead(lookAhead);
+    }
+
+    /**
+     * Returns the prediction stage, for its latency and error statistics.
+     *
+     * @return predictor
+     */
+    public StrokePredictor getPredictor() {
+        return mPredictor;
+    }
+
+    /**
+     * Adds a listener that receives the provisional segments predicted ahead of the ink. Remember to remove the listener with
+     * {@link #removePredictionListener(SyncPredictionListener)} when finished.
+     *
+     * @param listener Class that implements SyncPredictionListener for provisional segments.
+     * @return false indicates listener has already been added
+     */
+    public boolean addPredictionListener(SyncPredictionListener listener) {
+        return mPredictor.addListener(listener);
+    }
+
+    /**
+     * Removes a listener that was previously added with {@link #addPredictionListener(SyncPredictionListener)}.
+     *
+     * @param listener Class that implements SyncPredictionListener for provisional segments.
+     * @return false indicates listener was not originally added
+     */
+    public boolean removePredictionListener(SyncPredictionListener listener) {
+        return mPredictor.removeListener(listener);
+    }
+
+    /**
+     * Adds a listener that is told when strokes are started, updated and completed. Remember to remove the listener with
+     * {@link #removeStrokeListener(SyncStrokeListener)} when finished.
+     *
+     * @param listener Class that implements SyncStrokeListener for stroke events.
+     * @return false indicates listener has already been added
+     */
+    public boolean addStrokeListener(SyncStrokeListener listener) {
+        return mStrokeBuilder.addListener(listener);
+    }
+
+    /**
+     * Removes a listener that was previously added with {@link #addStrokeListener(SyncStrokeListener)}.
+     *
+     * @param listener Class that implements SyncStrokeListener for stroke events.
+     * @return false indicates listener was not originally added
+     */
+    public boolean removeStrokeListener(SyncStrokeListener listener) {
+        return mStrokeBuilder.removeListener(listener);
     }
 
     /**
@@ -465,7 +849,15 @@ public class SyncStreamingService {
         if (newState == STATE_DISCONNECTED) {
             // Reset the mode of the Boogie Board Sync.
             mMode = MODE_NONE;
-            mPaths.clear();
+            mSampleClock.reset();
+            mHeldReports = null;
+            mLastFlags = 0;
+            synchronized (mPageLock) {
+                mStrokeIndex.clear();
+                mStrokes.clear();
+                mBounds.clear();
+            }
+            mBounds.flush();
 
             if (oldState == STATE_CONNECTED) showDisconnectionNotification();
         } else if (newState == STATE_CONNECTED) {
@@ -485,6 +877,10 @@ public class SyncStreamingService {
      */
     private class MessageHandler {
         public void handleMessage(int what, Object obj, int arg1) {
+            handleMessage(what, obj, arg1, System.nanoTime());
+        }
+
+        public void handleMessage(int what, Object obj, int arg1, long receiveTime) {
             // Parse the message that was returned from the background thread.
             if (what == MESSAGE_DATA) {
                 byte[] buffer = (byte[]) obj;
@@ -494,33 +890,41 @@ public class SyncStreamingService {
 
                 if (hidMessages == null) return;
 
-                // Received a capture report.
+                List<SyncCaptureReport> captureReports = new ArrayList<SyncCaptureReport>();
                 for (HIDMessage hidMessage : hidMessages) {
                     if (hidMessage == null) {
                         Log.log(Level.WARNING, "was unable to parse the returned message from the Sync");
                     } else if (hidMessage instanceof SyncCaptureReport) {
-                        SyncCaptureReport captureReport = (SyncCaptureReport) hidMessage;
-                        for (SyncStreamingListener listener : mListeners) listener.onCaptureReport(captureReport);
-
-                        // Filter the paths that are returned from the Boogie Board Sync.
-                        List<SyncPath> paths = Filtering.filterSyncCaptureReport(captureReport);
-                        if (paths.size() > 0) {
-                            for (SyncStreamingListener listener : mListeners) listener.onDrawnPaths(paths);
-                            mPaths.addAll(paths);
-                        }
+                        captureReports.add((SyncCaptureReport) hidMessage);
+                    }
+                }
 
-                        // Erase button was pushed.
-                        if (captureReport.hasEraseSwitchFlag()) {
-                            mPaths.clear();
-                            for (SyncStreamingListener listener : mListeners) listener.onErase();
-                        }
+                // Reports held back from the last read go first, now that this read shows whether samples were lost before them.
+                if (mHeldReports != null && !captureReports.isEmpty()) {
+                    List<SyncCaptureReport> heldReports = mHeldReports;
+                    mHeldReports = null;
+                    handleCaptureReports(heldReports, mSampleClock.resolve(receiveTime, captureReports.size()), mHeldReceiveTime);
+                }
 
-                        // Save button was pushed.
-                        if (captureReport.hasSaveFlag()) {
-                            for (SyncStreamingListener listener : mListeners) listener.onSave();
-                        }
+                // Put the capture reports on the sample clock, the Sync only keeps sending while the stylus is in range. A read that filled
+                // the buffer is part of a backlog that is still arriving.
+                int lost = mSampleClock.deliver(receiveTime, captureReports.size(), (mLastFlags & READY_FLAG) != 0,
+                        numBytes == buffer.length);
+                if (lost == SampleClock.HOLD) {
+                    // Wait for the next read to tell if the reports are late or samples were lost, unless the stylus left and the Sync
+                    // stops sending.
+                    if ((captureReports.get(captureReports.size() - 1).getFlags() & READY_FLAG) != 0) {
+                        mHeldReports = captureReports;
+                        mHeldReceiveTime = receiveTime;
+                        mBounds.flush();
+                        return;
                     }
+                    lost = mSampleClock.resolve();
                 }
+                handleCaptureReports(captureReports, lost, receiveTime);
+
+                // One dirty region for everything drawn or erased by this read.
+                mBounds.flush();
             }
 
             // Connected to a device from the accept or connect thread.
@@ -539,6 +943,141 @@ public class SyncStreamingService {
         }
     }
 
+    /**
+     * Times, records and filters the capture reports of one read, and passes them and what they drew on to the listeners.
+     *
+     * @param lost        number of samples lost before the first report
+     * @param receiveTime time the reports were received
+     */
+    private void handleCaptureReports(List<SyncCaptureReport> captureReports, int lost, long receiveTime) {
+        if (lost > 0 && DEBUG) Log.log(Level.INFO, lost + " samples lost");
+
+        for (SyncCaptureReport captureReport : captureReports) {
+            captureReport.setTiming(receiveTime, mSampleClock.next(), mSampleClock.getSampleIndex());
+            for (SyncStreamingListener listener : mListeners) listener.onCaptureReport(captureReport);
+            recordCaptureReport(captureReport);
+
+            // Filter the paths that are returned from the Boogie Board Sync, then keep the page in the history if the erase or save
+            // button was pushed. The listeners are told once the page is settled.
+            synchronized (mPageLock) {
+                filterCaptureReport(captureReport, lost);
+                if (captureReport.hasEraseSwitchFlag()) erasePage();
+                if (captureReport.hasSaveFlag()) mPageHistory.seal(SyncPage.REASON_SAVE, mStrokes.snapshot());
+            }
+            lost = 0;
+            List<SyncPath> paths = mSegmentDispatcher.takeDrawnPaths();
+            if (paths != null) {
+                for (SyncStreamingListener listener : mListeners) listener.onDrawnPaths(paths);
+            }
+
+            // Erase button was pushed.
+            if (captureReport.hasEraseSwitchFlag()) {
+                for (SyncStreamingListener listener : mListeners) listener.onErase();
+            }
+
+            // Save button was pushed.
+            if (captureReport.hasSaveFlag()) {
+                for (SyncStreamingListener listener : mListeners) listener.onSave();
+            }
+        }
+    }
+
+    /**
+     * Seals the strokes into a page of the history and starts an empty page. A stroke that is still being drawn is ended first, so it is
+     * kept whole on the page it was started on. Called with the page lock held.
+     */
+    private void erasePage() {
+        mStrokeBuilder.onTraceEnd();
+        mPageHistory.seal(SyncPage.REASON_ERASE, mStrokes.snapshot());
+        mStrokeIndex.clear();
+        mStrokes.clear();
+        mBounds.clear();
+    }
+
+    /**
+     * Filters a capture report that came after a number of lost samples. The lost samples are filled in on a straight line if the
+     * stylus touched the surface on both sides of the gap and interpolation is turned on, otherwise the filter is told how much time
+     * passed.
+     */
+    private void filterCaptureReport(SyncCaptureReport captureReport, int lost) {
+        int x = (int) captureReport.getX(), y = (int) captureReport.getY(), pressure = (int) captureReport.getPressure();
+        byte flags = captureReport.getFlags();
+
+        int elapsed = lost + 1;
+        if (lost > 0 && mInterpolateGaps && lost <= MAX_INTERPOLATED_SAMPLES && Filtering.isContact(mLastFlags)
+                && Filtering.isContact(flags)) {
+            for (int i = 1; i <= lost; i++) {
+                float t = (float) i / elapsed;
+                int ix = Math.round(mLastX + (x - mLastX) * t), iy = Math.round(mLastY + (y - mLastY) * t);
+                mFiltering.filter(ix, iy, Math.round(mLastPressure + (pressure - mLastPressure) * t), flags, mSimplifier);
+                mPredictor.onSample(mFiltering, ix, iy, flags);
+            }
+            elapsed = 1;
+        }
+
+        mFiltering.filter(x, y, pressure, flags, elapsed, mSimplifier);
+        mPredictor.onSample(mFiltering, x, y, flags);
+        mLastX = x;
+        mLastY = y;
+        mLastPressure = pressure;
+        mLastFlags = flags;
+    }
+
+    private synchronized void recordCaptureReport(SyncCaptureReport captureReport) {
+        if (mRecorder == null) return;
+
+        try {
+            // Sample clock indexes keep the holes of lost samples in the recording.
+            if (mRecordingStartIndex < 0) mRecordingStartIndex = captureReport.getSampleIndex();
+            long time = System.currentTimeMillis() - (System.nanoTime() - captureReport.getSampleTime()) / 1000000;
+            mRecorder.record(captureReport, captureReport.getSampleIndex() - mRecordingStartIndex, time);
+        } catch (IOException e) {
+            Log.log(Level.SEVERE, "unable to record capture report, recording stopped", e);
+            stopRecording();
+        }
+    }
+
+    /**
+     * Passes the segments from the filter on to the stroke builder and the curve fitter, and collects them as paths for the listeners of
+     * {@link SyncStreamingListener#onDrawnPaths(List)}.
+     */
+    private class SegmentDispatcher implements SyncSegmentListener {
+        private List<SyncPath> mDrawnPaths;
+
+        @Override
+        public void onSegment(float x0, float y0, float x1, float y1, float lineWidth) {
+            if (!mListeners.isEmpty()) {
+                if (mDrawnPaths == null) mDrawnPaths = new ArrayList<SyncPath>();
+                SyncPath path = new SyncPath();
+                path.moveTo(x0, y0);
+                path.setStrokeWidth(lineWidth);
+                path.lineTo(x1, y1);
+                mDrawnPaths.add(path);
+            }
+            mStrokeBuilder.onSegment(x0, y0, x1, y1, lineWidth);
+            mCurveFitter.onSegment(x0, y0, x1, y1, lineWidth);
+            mPredictor.onSegment(x0, y0, x1, y1, lineWidth);
+            mFanout.onSegment(x0, y0, x1, y1, lineWidth);
+        }
+
+        @Override
+        public void onTraceEnd() {
+            mStrokeBuilder.onTraceEnd();
+            mCurveFitter.onTraceEnd();
+            mPredictor.onTraceEnd();
+            mFanout.onTraceEnd();
+        }
+
+        /**
+         * Returns the paths collected since the last call, or null if there are none.
+         */
+        List<SyncPath> takeDrawnPaths() {
+            List<SyncPath> paths = mDrawnPaths;
+            mDrawnPaths = null;
+            return paths;
+        }
+    }
+
     /**
      * This thread runs while listening for incoming connections. It behaves
      * like a server-side client. It runs until a connection is accepted
@@ -695,9 +1234,10 @@ public class SyncStreamingService {
                 try {
                     // Read from the InputStream
                     bytes = mInputStream.read(buffer);
+                    long receiveTime = System.nanoTime();
 
                     // Send the obtained bytes to the main thread to be processed.
-                    mMessageHandler.handleMessage(MESSAGE_DATA, buffer, bytes);
+                    mMessageHandler.handleMessage(MESSAGE_DATA, buffer, bytes, receiveTime);
 
                     // Reset buffer.
                     buffer = new byte[1024];
@@ -0,0 +1,412 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.j2se;
+
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A single stroke drawn on the Boogie Board Sync, from the moment the stylus touches the surface until it is lifted. The stroke is stored
+ * as a polyline with a line width for every vertex, packed into primitive arrays that grow in chunks as vertices are added. This takes a
+ * fraction of the memory of one {@link SyncPath} per segment.
+ * </p>
+ * Vertices are only added by the thread filtering the capture reports, and the stroke can be read from other threads while it grows. A
+ * vertex is written to the arrays before the vertex count that includes it is published, so a reader takes {@link #getVertexCount()}
+ * once and then only reads the vertices below that count. The line width of a vertex is the width of the segment ending at
+ * it; the first vertex has the width of the first segment. The bounds of the ink, including half the line width on every side, are kept
+ * up to date as vertices are added.
+ * </p>
+ * Zoomed-out views do not need every vertex, so the stroke also keeps simplified versions of itself at a few levels of detail, built as
+ * vertices are added. Level 0 is the full stroke, level 1 drops the vertices within {@link #DETAIL_TOLERANCE} of the simplified polyline
+ * and every level after it doubles the tolerance. A level is stored as the indexes of the vertices it keeps, and
+ * {@link #getDetailLevel(float)} picks the coarsest level that still looks the same at a render scale.
+ */
+public class SyncStroke {
+    private static final int INITIAL_CAPACITY = 32;
+
+    /**
+     * Number of levels of detail, including the full stroke.
+     */
+    public static final int DETAIL_LEVELS = 4;
+
+    /**
+     * Distance in digitizer units a dropped vertex may be from the polyline of level 1. Every level after it doubles the tolerance.
+     */
+    public static final float DETAIL_TOLERANCE = 8.0f;
+
+    /**
+     * Error in pixels that {@link #getDetailLevel(float)} allows.
+     */
+    public static final float DETAIL_ERROR_PIXELS = 0.5f;
+
+    private final long mId;
+    private float[] mCoordinates;
+    private float[] mWidths;
+    // Written after the vertices it counts, so a reader that took the count sees arrays at least that long.
+    private volatile int mVertexCount;
+    private volatile boolean mComplete;
+
+    // Bounds of the ink, empty while the stroke has no vertices.
+    private float mMinX = Float.POSITIVE_INFINITY, mMinY = Float.POSITIVE_INFINITY;
+    private float mMaxX = Float.NEGATIVE_INFINITY, mMaxY = Float.NEGATIVE_INFINITY;
+
+    // Simplified levels, from level 1 on.
+    private final Detail[] mDetails = new Detail[DETAIL_LEVELS - 1];
+
+    /**
+     * Creates an empty stroke.
+     *
+     * @param id identifier of the stroke, unique within a streaming session
+     */
+    public SyncStroke(long id) {
+        mId = id;
+        mCoordinates = new float[INITIAL_CAPACITY * 2];
+        mWidths = new float[INITIAL_CAPACITY];
+        createDetails();
+    }
+
+    /**
+     * Creates a complete stroke from packed arrays, for example when reading strokes back from storage. The arrays are used as they are.
+     *
+     * @param id          identifier of the stroke
+     * @param coordinates x and y of each vertex, interleaved
+     * @param widths      line width of each vertex
+     * @param vertexCount number of vertices in the arrays
+     */
+    public SyncStroke(long id, float[] coordinates, float[] widths, int vertexCount) {
+        mId = id;
+        mCoordinates = coordinates;
+        mWidths = widths;
+        mComplete = true;
+        createDetails();
+        for (int i = 0; i < vertexCount; i++) includeVertex(i);
+        mVertexCount = vertexCount;
+    }
+
+    /**
+     * Returns the level of detail to draw strokes with at a render scale: the coarsest level whose tolerance is at most
+     * {@link #DETAIL_ERROR_PIXELS} on screen.
+     *
+     * @param scale pixels per digitizer unit
+     * @return level from 0, the full stroke, to {@link #DETAIL_LEVELS} - 1
+     */
+    public static int getDetailLevel(float scale) {
+        int level = 0;
+        while (level < DETAIL_LEVELS - 1 && getDetailTolerance(level + 1) * scale <= DETAIL_ERROR_PIXELS) level++;
+        return level;
+    }
+
+    /**
+     * Returns the distance in digitizer units a dropped vertex may be from the polyline of a level, 0 for the full stroke.
+     */
+    public static float getDetailTolerance(int level) {
+        return level == 0 ? 0 : DETAIL_TOLERANCE * (1 << (level - 1));
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public int getVertexCount() {
+        return mVertexCount;
+    }
+
+    public float getX(int vertex) {
+        return mCoordinates[vertex * 2];
+    }
+
+    public float getY(int vertex) {
+        return mCoordinates[vertex * 2 + 1];
+    }
+
+    public float getWidth(int vertex) {
+        return mWidths[vertex];
+    }
+
+    /**
+     * Returns the left edge of the ink, including half the line width. Infinite if the stroke has no vertices.
+     */
+    public float getMinX() {
+        return mMinX;
+    }
+
+    public float getMinY() {
+        return mMinY;
+    }
+
+    public float getMaxX() {
+        return mMaxX;
+    }
+
+    public float getMaxY() {
+        return mMaxY;
+    }
+
+    /**
+     * Returns the bounds of the ink in digitizer units, including half the line width on every side, or an empty rectangle if the
+     * stroke has no vertices.
+     */
+    public Rectangle2D getBounds() {
+        if (getVertexCount() == 0) return new Rectangle2D.Float();
+        return new Rectangle2D.Float(mMinX, mMinY, mMaxX - mMinX, mMaxY - mMinY);
+    }
+
+    /**
+     * Returns the number of vertices a level of detail keeps of the first vertices of the stroke. The first and last of them are always
+     * kept.
+     *
+     * @param level       level of detail, 0 for the full stroke
+     * @param vertexCount number of vertices of the stroke to simplify, taken from {@link #getVertexCount()}
+     */
+    public int getDetailVertexCount(int level, int vertexCount) {
+        if (level == 0 || vertexCount == 0) return vertexCount;
+        Detail detail = mDetails[level - 1];
+        int count = keptBefore(detail, vertexCount);
+        // The last vertex is not kept yet while more vertices may follow it in the same direction.
+        return detail.mVertices[count - 1] != vertexCount - 1 ? count + 1 : count;
+    }
+
+    /**
+     * Returns the index of a vertex of the first vertices of the stroke at a level of detail, to read with {@link #getX(int)},
+     * {@link #getY(int)} and {@link #getWidth(int)}. The line width of a simplified segment is the width of the vertex it ends at.
+     *
+     * @param level       level of detail, 0 for the full stroke
+     * @param index       index of the vertex within the level, less than {@link #getDetailVertexCount(int, int)}
+     * @param vertexCount the same number of vertices as passed to {@link #getDetailVertexCount(int, int)}
+     */
+    public int getDetailVertex(int level, int index, int vertexCount) {
+        if (level == 0) return index;
+        Detail detail = mDetails[level - 1];
+        if (index >= detail.mCount) return vertexCount - 1;
+        int vertex = detail.mVertices[index];
+        return vertex < vertexCount ? vertex : vertexCount - 1;
+    }
+
+    /**
+     * Returns how many vertices a level kept before a vertex. The vertices kept later, once more vertices were added, are left out.
+     */
+    private static int keptBefore(Detail detail, int vertexCount) {
+        int count = detail.mCount;
+        int[] vertices = detail.mVertices;
+        while (count > 1 && vertices[count - 1] >= vertexCount) count--;
+        return count;
+    }
+
+    /**
+     * Returns the heap taken by the simplified levels.
+     */
+    public long getDetailSizeInBytes() {
+        long bytes = 0;
+        for (Detail detail : mDetails) bytes += Detail.OVERHEAD + 4L * detail.mVertices.length;
+        return bytes;
+    }
+
+    /**
+     * Returns the backing array of x and y coordinates, interleaved. Only the first {@link #getVertexCount()} * 2 values are valid, so take
+     * the count before the array, and the array must not be modified.
+     */
+    public float[] getCoordinates() {
+        return mCoordinates;
+    }
+
+    /**
+     * Returns the backing array of line widths. Only the first {@link #getVertexCount()} values are valid, so take the count
+     * before the array, and the array must not be modified.
+     */
+    public float[] getWidths() {
+        return mWidths;
+    }
+
+    /**
+     * Returns true once the stylus was lifted and no more vertices will be added.
+     */
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    /**
+     * Appends the stroke as a single polyline to a path.
+     *
+     * @param path path to append to
+     */
+    public void appendTo(Path2D path) {
+        appendTo(path, 0);
+    }
+
+    /**
+     * Appends the stroke at a level of detail as a single polyline to a path.
+     *
+     * @param path  path to append to
+     * @param level level of detail, 0 for the full stroke
+     */
+    public void appendTo(Path2D path, int level) {
+        int vertices = mVertexCount;
+        int count = getDetailVertexCount(level, vertices);
+        if (count == 0) return;
+        float[] coordinates = mCoordinates;
+        int vertex = getDetailVertex(level, 0, vertices);
+        path.moveTo(coordinates[vertex * 2], coordinates[vertex * 2 + 1]);
+        for (int i = 1; i < count; i++) {
+            vertex = getDetailVertex(level, i, vertices);
+            path.lineTo(coordinates[vertex * 2], coordinates[vertex * 2 + 1]);
+        }
+    }
+
+    /**
+     * Returns the stroke as one {@link SyncPath} per segment, the way {@link Filtering} used to return it.
+     *
+     * @return list of two point paths
+     */
+    public List<SyncPath> toPaths() {
+        int vertices = mVertexCount;
+        float[] coordinates = mCoordinates, widths = mWidths;
+        List<SyncPath> paths = new ArrayList<SyncPath>(Math.max(vertices - 1, 0));
+        for (int i = 1; i < vertices; i++) {
+            SyncPath path = new SyncPath();
+            path.moveTo(coordinates[(i - 1) * 2], coordinates[(i - 1) * 2 + 1]);
+            path.setStrokeWidth(widths[i]);
+            path.lineTo(coordinates[i * 2], coordinates[i * 2 + 1]);
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    void addVertex(float x, float y, float width) {
+        int vertex = mVertexCount;
+        if (vertex == mWidths.length) {
+            // Grow by half again so the cost of copying is amortized over the added vertices.
+            int capacity = mWidths.length + (mWidths.length >> 1);
+            mCoordinates = Arrays.copyOf(mCoordinates, capacity * 2);
+            mWidths = Arrays.copyOf(mWidths, capacity);
+        }
+        mCoordinates[vertex * 2] = x;
+        mCoordinates[vertex * 2 + 1] = y;
+        mWidths[vertex] = width;
+        includeVertex(vertex);
+
+        // Publish the vertex last.
+        mVertexCount = vertex + 1;
+    }
+
+    private void createDetails() {
+        for (int level = 1; level < DETAIL_LEVELS; level++) mDetails[level - 1] = new Detail(getDetailTolerance(level));
+    }
+
+    /**
+     * Grows the bounds by the segment ending at a vertex. The segment has the line width of its end, so its start is included with that
+     * width too.
+     */
+    private void includeVertex(int vertex) {
+        for (Detail detail : mDetails) detail.add(mCoordinates, vertex);
+
+        float half = mWidths[vertex] / 2;
+        include(mCoordinates[vertex * 2], mCoordinates[vertex * 2 + 1], half);
+        if (vertex > 0) include(mCoordinates[vertex * 2 - 2], mCoordinates[vertex * 2 - 1], half);
+    }
+
+    private void include(float x, float y, float half) {
+        if (x - half < mMinX) mMinX = x - half;
+        if (y - half < mMinY) mMinY = y - half;
+        if (x + half > mMaxX) mMaxX = x + half;
+        if (y + half > mMaxY) mMaxY = y + half;
+    }
+
+    void complete() {
+        mComplete = true;
+    }
+
+    /**
+     * One simplified level, built online with a sleeve: after the last kept vertex, the next vertices are dropped for as long as a
+     * single segment from the kept vertex can pass within the tolerance of all of them. The directions that can are narrowed with every
+     * vertex, so adding a vertex takes constant time.
+     */
+    private static class Detail {
+        // Rough size of the object and its array, excluding the array contents.
+        static final int OVERHEAD = 48;
+
+        final float mTolerance;
+        int[] mVertices = new int[8];
+        // Written after the index it counts, like the vertex count of the stroke.
+        volatile int mCount;
+
+        // Sleeve from the last kept vertex: unit vector it was started along, allowed angles to it and the farthest distance reached.
+        float mDirectionX, mDirectionY;
+        float mLowAngle, mHighAngle;
+        float mReach;
+
+        Detail(float tolerance) {
+            mTolerance = tolerance;
+        }
+
+        void add(float[] coordinates, int vertex) {
+            if (mCount == 0) {
+                keep(0);
+            } else if (!fits(coordinates, mVertices[mCount - 1], vertex)) {
+                // The vertex before is the last one a segment from the kept vertex can reach, start a new sleeve from it.
+                keep(vertex - 1);
+                fits(coordinates, vertex - 1, vertex);
+            }
+        }
+
+        private void keep(int vertex) {
+            int count = mCount;
+            if (count == mVertices.length) mVertices = Arrays.copyOf(mVertices, count + (count >> 1));
+            mVertices[count] = vertex;
+            mCount = count + 1;
+            mDirectionX = mDirectionY = 0;
+            mReach = 0;
+        }
+
+        /**
+         * Returns true if a segment from a kept vertex to a vertex still passes near every vertex in between, and narrows the sleeve.
+         */
+        private boolean fits(float[] coordinates, int anchor, int vertex) {
+            float dx = coordinates[vertex * 2] - coordinates[anchor * 2];
+            float dy = coordinates[vertex * 2 + 1] - coordinates[anchor * 2 + 1];
+            float distance = (float) Math.sqrt(dx * dx + dy * dy);
+
+            // Turning back would leave the farthest vertex past the end of the segment.
+            if (distance + mTolerance < mReach) return false;
+            if (distance > mReach) mReach = distance;
+            if (distance <= mTolerance) return true;
+
+            float halfAngle = (float) Math.asin(mTolerance / distance);
+            if (mDirectionX == 0 && mDirectionY == 0) {
+                mDirectionX = dx / distance;
+                mDirectionY = dy / distance;
+                mLowAngle = -halfAngle;
+                mHighAngle = halfAngle;
+                return true;
+            }
+
+            float angle = (float) Math.atan2(mDirectionX * dy - mDirectionY * dx, mDirectionX * dx + mDirectionY * dy);
+            if (angle < mLowAngle || angle > mHighAngle) return false;
+            mLowAngle = Math.max(mLowAngle, angle - halfAngle);
+            mHighAngle = Math.min(mHighAngle, angle + halfAngle);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.j2se;
+
+/**
+ * Interface definition for a callback when strokes are drawn on the Boogie Board Sync.
+ */
+public interface SyncStrokeListener {
+
+    /**
+     * Called when the stylus touched the surface and a new stroke was started. The stroke already holds its first segment.
+     *
+     * @param stroke stroke that was started
+     */
+    public void onStrokeStart(SyncStroke stroke);
+
+    /**
+     * Called when vertices were added to a stroke.
+     *
+     * @param stroke      stroke that was updated
+     * @param firstVertex index of the first vertex that was added
+     */
+    public void onStrokeUpdate(SyncStroke stroke, int firstVertex);
+
+    /**
+     * Called when the stylus was lifted and the stroke is complete.
+     *
+     * @param stroke stroke that was completed
+     */
+    public void onStrokeEnd(SyncStroke stroke);
+}
@@ -22,6 +22,9 @@
 
 package com.improvelectronics.sync.j2se;
 
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+
 /**
  * Contains important utility information for this library.
  */
@@ -35,4 +38,47 @@ public class SyncUtilities {
      * Width in points for a generated PDF from the Boogie Board Sync.
      */
     public static final float PDF_WIDTH = 791.0f;
+
+    /**
+     * Converts a digitizer position to the horizontal position on a PDF page, in points from the left edge. The page is upright, with the
+     * x axis of the digitizer pointing up and the y axis pointing right.
+     *
+     * @param x x coordinate in digitizer units
+     * @param y y coordinate in digitizer units
+     */
+    public static float toPdfX(float x, float y) {
+        return y * PDF_WIDTH / SyncCaptureReport.MAX_Y;
+    }
+
+    /**
+     * Converts a digitizer position to the vertical position on a PDF page, in points from the bottom edge. The digitizer origin is the
+     * bottom left corner of the page.
+     *
+     * @param x x coordinate in digitizer units
+     * @param y y coordinate in digitizer units
+     */
+    public static float toPdfY(float x, float y) {
+        return x * PDF_HEIGHT / SyncCaptureReport.MAX_X;
+    }
+
+    /**
+     * Returns the transform from digitizer units to pixels of an image of a PDF page, with the y axis pointing down. It places strokes
+     * where {@link #toPdfX(float, float)} and {@link #toPdfY(float, float)} do, so images and PDFs of a page look the same.
+     *
+     * @param scale pixels per point
+     */
+    public static AffineTransform getPageTransform(float scale) {
+        AffineTransform transform = new AffineTransform(0, -scale * PDF_HEIGHT / SyncCaptureReport.MAX_X,
+                scale * PDF_WIDTH / SyncCaptureReport.MAX_Y, 0, 0, scale * PDF_HEIGHT);
+        // The digitizer origin lands in the same corner with both mappings.
+        assert transform.transform(new Point2D.Float(0, 0), null).distance(scale * toPdfX(0, 0), scale * (PDF_HEIGHT - toPdfY(0, 0))) < 0.5;
+        return transform;
+    }
+
+    /**
+     * Converts a line width in digitizer units to points.
+     */
+    public static float toPdfWidth(float width) {
+        return width * PDF_HEIGHT / SyncCaptureReport.MAX_X;
+    }
 }
@@ -0,0 +1,132 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.obex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Copies the body of an OBEX get operation to a file. The stream is read until it ends, however long it stalls between packets, into a
+ * buffer the size of an OBEX packet, and written through a file channel to a temporary file next to the target. The temporary file is
+ * preallocated to the expected size and only renamed to the target once the size is checked, so the target is never left truncated.
+ * </p>
+ * A downloader reuses its buffer and is used by one thread at a time.
+ */
+public class OBEXFtpDownloader {
+
+    /**
+     * Packet size used when the negotiated one is not known.
+     */
+    public static final int DEFAULT_PACKET_SIZE = 4096;
+
+    private final ByteBuffer mBuffer;
+    private long mLastBytes, mLastNanos;
+
+    public OBEXFtpDownloader() {
+        this(DEFAULT_PACKET_SIZE);
+    }
+
+    /**
+     * @param packetSize negotiated OBEX packet size in bytes, the size of the buffer
+     */
+    public OBEXFtpDownloader(int packetSize) {
+        mBuffer = ByteBuffer.allocate(packetSize > 0 ? packetSize : DEFAULT_PACKET_SIZE);
+    }
+
+    /**
+     * Downloads a file. The stream is closed when the download ends.
+     *
+     * @param in           body of the get operation
+     * @param target       file to write, replaced once the download is complete
+     * @param expectedSize size of the file from the folder listing or the length header, -1 if it is not known
+     * @return the number of bytes written
+     * @throws IOException if the stream fails or ends at a different size than expected; the target is left as it was
+     */
+    public long download(InputStream in, File target, long expectedSize) throws IOException {
+        long start = System.nanoTime();
+        File directory = target.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(target.getName() + ".", ".part", directory);
+        boolean complete = false;
+
+        try {
+            long bytes = 0;
+            RandomAccessFile file = new RandomAccessFile(temp, "rw");
+            try {
+                FileChannel channel = file.getChannel();
+                if (expectedSize > 0) file.setLength(expectedSize);
+
+                byte[] array = mBuffer.array();
+                int read;
+                while ((read = in.read(array)) != -1) {
+                    mBuffer.clear().limit(read);
+                    while (mBuffer.hasRemaining()) bytes += channel.write(mBuffer, bytes);
+                }
+
+                // Preallocation may have left the file longer than what arrived.
+                if (channel.size() != bytes) channel.truncate(bytes);
+                channel.force(false);
+            } finally {
+                file.close();
+            }
+
+            if (expectedSize >= 0 && bytes != expectedSize) {
+                throw new IOException("downloaded " + bytes + " bytes of " + target.getName() + ", expected " + expectedSize);
+            }
+
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            complete = true;
+
+            mLastBytes = bytes;
+            mLastNanos = System.nanoTime() - start;
+            return bytes;
+        } finally {
+            in.close();
+            if (!complete && !temp.delete()) temp.deleteOnExit();
+        }
+    }
+
+    /**
+     * Returns the size of the buffer, the packet size the downloader was created for.
+     */
+    public int getBufferSize() {
+        return mBuffer.capacity();
+    }
+
+    /**
+     * Returns the throughput of the last completed download in bytes per second, 0 before the first one.
+     */
+    public float getLastThroughput() {
+        return mLastNanos == 0 ? 0 : mLastBytes * 1e9f / mLastNanos;
+    }
+}
@@ -0,0 +1,218 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.obex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads an OBEX folder listing one item at a time, straight from the stream of the get operation. Items are parsed as their elements
+ * arrive, so reading a listing takes time linear in its length and memory for one element, however many files the folder holds.
+ * <pre>
+ * OBEXFtpFolderListingReader reader = new OBEXFtpFolderListingReader(operation.openInputStream());
+ * OBEXFtpFolderListingItem item;
+ * while ((item = reader.next()) != null) {
+ *     process(item);
+ * }
+ * reader.close();
+ * </pre>
+ * The listing declares the OBEX folder listing DTD. The parser is set up to skip DTDs and never resolve external entities, so nothing is
+ * fetched while parsing and a listing cannot expand entities.
+ */
+public class OBEXFtpFolderListingReader {
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private final XMLStreamReader mReader;
+    private final Object mInput;
+
+    // Reused to turn timestamps into dates.
+    private final Calendar mCalendar = Calendar.getInstance();
+
+    /**
+     * @param in stream of the listing, closed when the reader is closed
+     * @throws IOException if the stream does not start an XML document
+     */
+    public OBEXFtpFolderListingReader(InputStream in) throws IOException {
+        mInput = in;
+        try {
+            mReader = FACTORY.createXMLStreamReader(in);
+        } catch (XMLStreamException e) {
+            throw new IOException("unable to read folder listing", e);
+        }
+    }
+
+    /**
+     * @param in characters of the listing, closed when the reader is closed
+     * @throws IOException if the characters do not start an XML document
+     */
+    public OBEXFtpFolderListingReader(Reader in) throws IOException {
+        mInput = in;
+        try {
+            mReader = FACTORY.createXMLStreamReader(in);
+        } catch (XMLStreamException e) {
+            throw new IOException("unable to read folder listing", e);
+        }
+    }
+
+    /**
+     * Reads all the items of a listing, folders first and then the newest items first, and closes the stream.
+     *
+     * @param in stream of the listing
+     * @return items of the listing
+     */
+    public static ArrayList<OBEXFtpFolderListingItem> readAll(InputStream in) throws IOException {
+        return readAll(new OBEXFtpFolderListingReader(in));
+    }
+
+    static ArrayList<OBEXFtpFolderListingItem> readAll(OBEXFtpFolderListingReader reader) throws IOException {
+        ArrayList<OBEXFtpFolderListingItem> items = new ArrayList<OBEXFtpFolderListingItem>();
+        try {
+            OBEXFtpFolderListingItem item;
+            while ((item = reader.next()) != null) items.add(item);
+        } finally {
+            reader.close();
+        }
+        sort(items);
+        return items;
+    }
+
+    /**
+     * Sorts items the way the Sync shows them: folders first, then the newest items first.
+     *
+     * @param items items to sort
+     */
+    public static void sort(List<OBEXFtpFolderListingItem> items) {
+        Collections.sort(items, new Comparator<OBEXFtpFolderListingItem>() {
+            @Override
+            public int compare(OBEXFtpFolderListingItem lhs, OBEXFtpFolderListingItem rhs) {
+                // First compare based on type of item. This will rank folders above files.
+                if (lhs.getSize() == 0 && rhs.getSize() > 0) return -1;
+                else if (lhs.getSize() > 0 && rhs.getSize() == 0) return 1;
+
+                // If the items are the same type then compare based on date, items without one last.
+                Date left = lhs.getTime(), right = rhs.getTime();
+                if (left == null || right == null) return left == right ? 0 : left == null ? 1 : -1;
+                return right.compareTo(left);
+            }
+        });
+    }
+
+    /**
+     * Reads the next folder or file of the listing, blocking until its element has arrived.
+     *
+     * @return the item, or null at the end of the listing
+     * @throws IOException if the stream fails or the listing is not well-formed
+     */
+    public OBEXFtpFolderListingItem next() throws IOException {
+        try {
+            while (mReader.hasNext()) {
+                if (mReader.next() != XMLStreamConstants.START_ELEMENT) continue;
+
+                String element = mReader.getLocalName();
+                boolean folder = element.equals("folder");
+                if (!folder && !element.equals("file")) continue;
+
+                String name = mReader.getAttributeValue(null, "name");
+                if (name == null) continue;
+                String time = mReader.getAttributeValue(null, "modified");
+                if (time == null || time.isEmpty()) time = mReader.getAttributeValue(null, "created");
+                int size = folder ? 0 : parseSize(mReader.getAttributeValue(null, "size"));
+                return new OBEXFtpFolderListingItem(name, parseTime(time), size, new byte[]{});
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new IOException("malformed folder listing", e);
+        }
+    }
+
+    /**
+     * Closes the reader and its stream.
+     */
+    public void close() throws IOException {
+        try {
+            mReader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            if (mInput instanceof InputStream) ((InputStream) mInput).close();
+            else ((Reader) mInput).close();
+        }
+    }
+
+    private static int parseSize(String size) {
+        if (size == null) return 0;
+        try {
+            return Integer.parseInt(size.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Turns a timestamp of the form yyyyMMddTHHmmss, in local time, into a date. The digits are read directly into a reused calendar, which
+     * is much cheaper than a date format for thousands of items.
+     *
+     * @return the date, or null if there is no timestamp or it is malformed
+     */
+    private Date parseTime(String time) {
+        if (time == null || time.length() < 15 || time.charAt(8) != 'T') return null;
+        int year = digits(time, 0, 4), month = digits(time, 4, 6), day = digits(time, 6, 8);
+        int hour = digits(time, 9, 11), minute = digits(time, 11, 13), second = digits(time, 13, 15);
+        if ((year | month | day | hour | minute | second) < 0) return null;
+
+        mCalendar.clear();
+        mCalendar.set(year, month - 1, day, hour, minute, second);
+        return mCalendar.getTime();
+    }
+
+    private static int digits(String text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+}
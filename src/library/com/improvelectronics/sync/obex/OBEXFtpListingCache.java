@@ -0,0 +1,182 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.obex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the folder listings read from Boogie Board Syncs in memory, one per device and folder, so a file browser that goes back to a folder
+ * does not have to read the listing over Bluetooth again. A listing is fresh for a time to live after it was read; a stale listing is
+ * still kept, so it can be shown while a new one is read, until it is {@link #invalidate(String) invalidated} by an operation that changes
+ * the folder.
+ * </p>
+ * Listings are stored as unmodifiable lists. The methods are synchronized, so the cache can be shared between threads.
+ */
+public class OBEXFtpListingCache {
+
+    /**
+     * Default time a listing is fresh, in milliseconds.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 60 * 1000;
+
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+    private volatile long mTimeToLive;
+
+    public OBEXFtpListingCache() {
+        this(DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * @param timeToLive time a listing is fresh in milliseconds
+     */
+    public OBEXFtpListingCache(long timeToLive) {
+        mTimeToLive = timeToLive;
+    }
+
+    public void setTimeToLive(long timeToLive) {
+        mTimeToLive = timeToLive;
+    }
+
+    public long getTimeToLive() {
+        return mTimeToLive;
+    }
+
+    /**
+     * Returns the listing of a folder if it was read within the time to live.
+     *
+     * @param device URL of the device
+     * @param folder folder the listing was read for
+     * @return the listing, or null if it is not cached or stale
+     */
+    public synchronized List<OBEXFtpFolderListingItem> get(String device, String folder) {
+        Entry entry = mEntries.get(key(device, folder));
+        if (entry == null || System.currentTimeMillis() - entry.mTime > mTimeToLive) return null;
+        return entry.mItems;
+    }
+
+    /**
+     * Returns the listing of a folder however long ago it was read.
+     *
+     * @param device URL of the device
+     * @param folder folder the listing was read for
+     * @return the listing, or null if it is not cached
+     */
+    public synchronized List<OBEXFtpFolderListingItem> peek(String device, String folder) {
+        Entry entry = mEntries.get(key(device, folder));
+        return entry == null ? null : entry.mItems;
+    }
+
+    /**
+     * Stores a listing that was just read.
+     *
+     * @param device URL of the device
+     * @param folder folder the listing was read for
+     * @param items  items of the listing, copied
+     * @return the listing that was cached before, stale or not, or null
+     */
+    public synchronized List<OBEXFtpFolderListingItem> put(String device, String folder, List<OBEXFtpFolderListingItem> items) {
+        Entry entry = new Entry(Collections.unmodifiableList(new ArrayList<OBEXFtpFolderListingItem>(items)), System.currentTimeMillis());
+        Entry old = mEntries.put(key(device, folder), entry);
+        return old == null ? null : old.mItems;
+    }
+
+    /**
+     * Drops the listing of a folder.
+     */
+    public synchronized void invalidate(String device, String folder) {
+        mEntries.remove(key(device, folder));
+    }
+
+    /**
+     * Drops every listing of a device, for example after a file was deleted or the Sync saved a page.
+     */
+    public synchronized void invalidate(String device) {
+        String prefix = device + '\n';
+        for (Iterator<String> iterator = mEntries.keySet().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().startsWith(prefix)) iterator.remove();
+        }
+    }
+
+    /**
+     * Drops every listing.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * Compares two listings of a folder by name. An item whose size or time changed is both removed and added.
+     *
+     * @param oldItems listing read before
+     * @param newItems listing read now
+     * @param added    receives the items of the new listing that are not in the old one
+     * @param removed  receives the items of the old listing that are not in the new one
+     * @return true if the listings differ
+     */
+    public static boolean diff(List<OBEXFtpFolderListingItem> oldItems, List<OBEXFtpFolderListingItem> newItems,
+                               List<OBEXFtpFolderListingItem> added, List<OBEXFtpFolderListingItem> removed) {
+        Map<String, OBEXFtpFolderListingItem> old = new HashMap<String, OBEXFtpFolderListingItem>(oldItems.size() * 2);
+        for (OBEXFtpFolderListingItem item : oldItems) old.put(item.getName(), item);
+
+        boolean changed = false;
+        for (OBEXFtpFolderListingItem item : newItems) {
+            OBEXFtpFolderListingItem previous = old.remove(item.getName());
+            if (previous != null && previous.getSize() == item.getSize() && sameTime(previous.getTime(), item.getTime())) continue;
+            if (previous != null) removed.add(previous);
+            added.add(item);
+            changed = true;
+        }
+        if (!old.isEmpty()) {
+            // Keep the order of the old listing.
+            for (OBEXFtpFolderListingItem item : oldItems) {
+                if (old.get(item.getName()) == item) removed.add(item);
+            }
+            changed = true;
+        }
+        return changed;
+    }
+
+    private static boolean sameTime(Date a, Date b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static String key(String device, String folder) {
+        return device + '\n' + folder;
+    }
+
+    private static class Entry {
+        final List<OBEXFtpFolderListingItem> mItems;
+        final long mTime;
+
+        Entry(List<OBEXFtpFolderListingItem> items, long time) {
+            mItems = items;
+            mTime = time;
+        }
+    }
+}
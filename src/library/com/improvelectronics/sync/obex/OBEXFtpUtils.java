@@ -25,24 +25,16 @@ package com.improvelectronics.sync.obex;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
 import java.io.IOException;
 import java.io.StringReader;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
 public class OBEXFtpUtils {
     private static final Logger Log = Logger.getLogger(OBEXFtpUtils.class.getName());
 
@@ -56,39 +48,20 @@ public class OBEXFtpUtils {
     public static final String FOLDER_LISTING_TYPE = "x-obex/folder-listing";
 
     /**
-     * Converts a OBEX server response to an ArrayList of Items
+     * Converts a OBEX server response to an ArrayList of Items. Use {@link OBEXFtpFolderListingReader} to read a listing straight from
+     * the stream of the get operation instead.
      *
-     * @param response - Response from the server.
-     * @return ArrayList<OBEXFtpFolderListingItem>
+     * @param rawXML - Response from the server.
+     * @return ArrayList<OBEXFtpFolderListingItem>, null if the response could not be parsed
      */
 
-    public static ArrayList<OBEXFtpFolderListingItem> parseXML(String rawXML) {        
-        // remove the dtd stuff otherwise the parser throws an exception
-        rawXML = rawXML.replace("<!DOCTYPE folder-listing SYSTEM \"obex-folder-listing.dtd\">", "");
-        
-        // get the factory
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        Document dom = null;
-
+    public static ArrayList<OBEXFtpFolderListingItem> parseXML(String rawXML) {
         try {
-            // Using factory get an instance of document builder
-            DocumentBuilder db = dbf.newDocumentBuilder();
-
-            // parse using builder to get DOM representation of the XML file
-            dom = db.parse(new InputSource(new StringReader(rawXML)));
-
-        } catch (ParserConfigurationException pce) {
-            pce.printStackTrace();
-        } catch (SAXException se) {
-            se.printStackTrace();
-        } catch (IOException ioe) {
-            ioe.printStackTrace();
+            return OBEXFtpFolderListingReader.readAll(new OBEXFtpFolderListingReader(new StringReader(rawXML)));
+        } catch (IOException e) {
+            Log.log(Level.SEVERE, "Error parsing folder listing.", e);
+            return null;
         }
-
-        if (dom != null)
-            return parseDocument(dom);
-
-        return null;
     }
 
     /**
@@ -142,23 +115,7 @@ public class OBEXFtpUtils {
         }
 
         // Sort the items by date.
-        Collections.sort(bluetoothFtpFolderListingItems, new Comparator<OBEXFtpFolderListingItem>() {
-            @Override
-            public int compare(OBEXFtpFolderListingItem lhs, OBEXFtpFolderListingItem rhs) {
-                // First compare based on type of item. This will rank folders above files.
-                if(lhs.getSize() == 0 && rhs.getSize() > 0) return -1;
-                else if(lhs.getSize() > 0 && rhs.getSize() == 0) return 1;
-
-                // If the items are the same type then compare based on date.
-                if (lhs.getTime().before(rhs.getTime())) {
-                    return 1;
-                } else if (lhs.getTime().after(rhs.getTime())) {
-                    return -1;
-                } else {
-                    return 0;
-                }
-            }
-        });
+        OBEXFtpFolderListingReader.sort(bluetoothFtpFolderListingItems);
 
         return bluetoothFtpFolderListingItems;
     }
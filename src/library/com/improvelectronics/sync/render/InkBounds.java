@@ -0,0 +1,191 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.render;
+
+import com.improvelectronics.sync.j2se.SyncStroke;
+import com.improvelectronics.sync.j2se.SyncStrokeListener;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the bounds of the ink on the current page and in the whole session up to date as strokes grow, so viewers and exporters never
+ * have to walk the strokes to find them. Bounds include half the line width on every side, so they cover the ink that is drawn; every
+ * {@link SyncStroke} keeps its own bounds the same way.
+ * </p>
+ * The area covered by new segments is collected and published to the {@link DirtyRegionListener listeners} as one region when
+ * {@link #flush()} is called, normally once for every batch of capture reports read from the Sync, instead of once for every segment.
+ * {@link #clear()} marks the whole page dirty and starts a new page.
+ * </p>
+ * Coordinates are digitizer units. Stroke events come from the thread filtering the capture reports; the bounds can be read from any
+ * thread.
+ */
+public class InkBounds implements SyncStrokeListener {
+    private final List<DirtyRegionListener> mListeners;
+
+    // Guarded by this. Infinite while empty.
+    private final Box mPage = new Box();
+    private final Box mSession = new Box();
+    private final Box mDirty = new Box();
+
+    // Extent of the segments added by one stroke event, guarded by this.
+    private final Box mSegments = new Box();
+
+    public InkBounds() {
+        mListeners = new ArrayList<DirtyRegionListener>();
+    }
+
+    /**
+     * Adds a listener that is told which part of the page changed.
+     *
+     * @return false indicates listener has already been added
+     */
+    public synchronized boolean addListener(DirtyRegionListener listener) {
+        if (mListeners.contains(listener)) return false;
+        else mListeners.add(listener);
+        return true;
+    }
+
+    /**
+     * Removes a listener that was previously added with {@link #addListener(DirtyRegionListener)}.
+     *
+     * @return false indicates listener was not originally added
+     */
+    public synchronized boolean removeListener(DirtyRegionListener listener) {
+        if (!mListeners.contains(listener)) return false;
+        else mListeners.remove(listener);
+        return true;
+    }
+
+    /**
+     * Returns the bounds of the ink on the current page, or an empty rectangle if the page is empty.
+     */
+    public synchronized Rectangle2D getPageBounds() {
+        return mPage.toRectangle();
+    }
+
+    /**
+     * Returns the bounds of all the ink drawn since the bounds were created, or an empty rectangle if nothing was drawn.
+     */
+    public synchronized Rectangle2D getSessionBounds() {
+        return mSession.toRectangle();
+    }
+
+    /**
+     * Starts a new page, for example when the Sync is erased. The ink of the old page is marked dirty.
+     */
+    public synchronized void clear() {
+        mDirty.include(mPage);
+        mPage.reset();
+    }
+
+    /**
+     * Publishes the region that changed since the last call, if any.
+     */
+    public void flush() {
+        List<DirtyRegionListener> listeners;
+        float minX, minY, maxX, maxY;
+        synchronized (this) {
+            if (mDirty.isEmpty()) return;
+            minX = mDirty.mMinX;
+            minY = mDirty.mMinY;
+            maxX = mDirty.mMaxX;
+            maxY = mDirty.mMaxY;
+            mDirty.reset();
+            listeners = new ArrayList<DirtyRegionListener>(mListeners);
+        }
+        for (DirtyRegionListener listener : listeners) listener.onDirtyRegion(minX, minY, maxX, maxY);
+    }
+
+    @Override
+    public void onStrokeStart(SyncStroke stroke) {
+        include(stroke, 0);
+    }
+
+    @Override
+    public void onStrokeUpdate(SyncStroke stroke, int firstVertex) {
+        include(stroke, firstVertex);
+    }
+
+    @Override
+    public void onStrokeEnd(SyncStroke stroke) {
+    }
+
+    /**
+     * Grows the bounds by the segments ending at the vertices from a vertex on.
+     */
+    private synchronized void include(SyncStroke stroke, int firstVertex) {
+        // The dirty region may still hold the ink of a page that was cleared, so it must not grow the bounds of the new page.
+        mSegments.reset();
+        int vertices = stroke.getVertexCount();
+        for (int i = firstVertex; i < vertices; i++) {
+            float half = stroke.getWidth(i) / 2;
+            mSegments.include(stroke.getX(i), stroke.getY(i), half);
+            if (i > 0) mSegments.include(stroke.getX(i - 1), stroke.getY(i - 1), half);
+        }
+        mDirty.include(mSegments);
+        mPage.include(mSegments);
+        mSession.include(mSegments);
+    }
+
+    /**
+     * Mutable bounding box.
+     */
+    private static class Box {
+        float mMinX, mMinY, mMaxX, mMaxY;
+
+        Box() {
+            reset();
+        }
+
+        void reset() {
+            mMinX = mMinY = Float.POSITIVE_INFINITY;
+            mMaxX = mMaxY = Float.NEGATIVE_INFINITY;
+        }
+
+        boolean isEmpty() {
+            return mMinX > mMaxX;
+        }
+
+        void include(float x, float y, float half) {
+            if (x - half < mMinX) mMinX = x - half;
+            if (y - half < mMinY) mMinY = y - half;
+            if (x + half > mMaxX) mMaxX = x + half;
+            if (y + half > mMaxY) mMaxY = y + half;
+        }
+
+        void include(Box box) {
+            if (box.isEmpty()) return;
+            mMinX = Math.min(mMinX, box.mMinX);
+            mMinY = Math.min(mMinY, box.mMinY);
+            mMaxX = Math.max(mMaxX, box.mMaxX);
+            mMaxY = Math.max(mMaxY, box.mMaxY);
+        }
+
+        Rectangle2D toRectangle() {
+            if (isEmpty()) return new Rectangle2D.Float();
+            return new Rectangle2D.Float(mMinX, mMinY, mMaxX - mMinX, mMaxY - mMinY);
+        }
+    }
+}
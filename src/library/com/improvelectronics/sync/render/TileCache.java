@@ -0,0 +1,376 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.render;
+
+import com.improvelectronics.sync.Config;
+import com.improvelectronics.sync.ink.StrokeIndex;
+import com.improvelectronics.sync.j2se.SyncCaptureReport;
+import com.improvelectronics.sync.j2se.SyncStroke;
+import com.improvelectronics.sync.j2se.SyncStrokeListener;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Raster cache of the page drawn on the Sync, kept as square tiles at a few zoom levels. A viewer paints the page by copying tiles with
+ * {@link #paint(Graphics2D, float, Rectangle2D)}, so the cost of a repaint does not depend on how much ink is on the page.
+ * </p>
+ * Tiles are rendered from the strokes in a {@link StrokeIndex} the first time they are needed. After that, the cache listens to stroke
+ * events and draws new segments only into the cached tiles they touch, then tells the {@link DirtyRegionListener listeners} which part of
+ * the page changed. The least recently painted tiles are dropped once the cache is over its memory budget, and {@link #clear()} drops
+ * every tile when the Sync is erased.
+ * </p>
+ * Coordinates are digitizer units, with x to the right and y down. The methods are synchronized, so strokes can be drawn from the thread
+ * filtering the capture reports while the viewer paints.
+ */
+public class TileCache implements SyncStrokeListener {
+    private static final Logger Log = Logger.getLogger(TileCache.class.getName());
+    private static final boolean DEBUG = Config.DEBUG;
+
+    /**
+     * Default width and height of a tile in pixels.
+     */
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    /**
+     * Default memory budget for the tiles.
+     */
+    public static final long DEFAULT_BYTE_BUDGET = 64L * 1024 * 1024;
+
+    /**
+     * Default zoom levels in pixels per digitizer unit, from a page about 630 pixels wide up to about 5000 pixels.
+     */
+    public static final float[] DEFAULT_SCALES = {1 / 32.0f, 1 / 16.0f, 1 / 8.0f, 1 / 4.0f};
+
+    private final StrokeIndex mStrokeIndex;
+    private final float[] mScales;
+    private final int mTileSize;
+    private final long mByteBudget;
+    private final long mTileBytes;
+    private final List<DirtyRegionListener> mListeners;
+    private Color mInkColor = Color.BLACK;
+
+    // In the order the tiles were last painted, the least recently painted first.
+    private final LinkedHashMap<Long, BufferedImage> mTiles = new LinkedHashMap<Long, BufferedImage>(64);
+
+    // Number of vertices of each stroke in progress that are drawn into the cached tiles.
+    private final Map<SyncStroke, Integer> mDrawnCounts = new IdentityHashMap<SyncStroke, Integer>();
+
+    // Reused while drawing.
+    private final Line2D.Float mLine = new Line2D.Float();
+    private final Rectangle2D.Float mRect = new Rectangle2D.Float();
+
+    /**
+     * Creates a cache with the default zoom levels, tile size and memory budget.
+     *
+     * @param strokeIndex index used to render tiles that are not cached
+     */
+    public TileCache(StrokeIndex strokeIndex) {
+        this(strokeIndex, DEFAULT_SCALES, DEFAULT_TILE_SIZE, DEFAULT_BYTE_BUDGET);
+    }
+
+    /**
+     * @param strokeIndex index used to render tiles that are not cached
+     * @param scales      zoom levels in pixels per digitizer unit, in ascending order
+     * @param tileSize    width and height of a tile in pixels
+     * @param byteBudget  memory the tiles may take
+     */
+    public TileCache(StrokeIndex strokeIndex, float[] scales, int tileSize, long byteBudget) {
+        if (scales.length == 0) throw new IllegalArgumentException("at least one zoom level is needed");
+        mStrokeIndex = strokeIndex;
+        mScales = scales.clone();
+        mTileSize = tileSize;
+        mByteBudget = byteBudget;
+        mTileBytes = 4L * tileSize * tileSize;
+        mListeners = new ArrayList<DirtyRegionListener>();
+    }
+
+    /**
+     * Adds a listener that is told which part of the page changed.
+     *
+     * @return false indicates listener has already been added
+     */
+    public synchronized boolean addListener(DirtyRegionListener listener) {
+        if (mListeners.contains(listener)) return false;
+        else mListeners.add(listener);
+        return true;
+    }
+
+    /**
+     * Removes a listener that was previously added with {@link #addListener(DirtyRegionListener)}.
+     *
+     * @return false indicates listener was not originally added
+     */
+    public synchronized boolean removeListener(DirtyRegionListener listener) {
+        if (!mListeners.contains(listener)) return false;
+        else mListeners.remove(listener);
+        return true;
+    }
+
+    /**
+     * Sets the color of the ink. Tiles that are already cached are dropped.
+     */
+    public synchronized void setInkColor(Color color) {
+        mInkColor = color;
+        clear();
+    }
+
+    /**
+     * Returns the zoom level that is used to paint at a scale: the lowest one at least as large, so tiles are only scaled down.
+     *
+     * @param scale pixels per digitizer unit
+     */
+    public int getLevel(float scale) {
+        for (int level = 0; level < mScales.length; level++) {
+            if (mScales[level] >= scale) return level;
+        }
+        return mScales.length - 1;
+    }
+
+    public float getScale(int level) {
+        return mScales[level];
+    }
+
+    /**
+     * Paints part of the page. The graphics context should map digitizer units to pixels at the given scale; the tiles of the matching
+     * zoom level are drawn scaled to fit.
+     *
+     * @param g     graphics to paint into
+     * @param scale pixels per digitizer unit of the graphics context
+     * @param clip  part of the page to paint, in digitizer units
+     */
+    public synchronized void paint(Graphics2D g, float scale, Rectangle2D clip) {
+        int level = getLevel(scale);
+        float levelScale = mScales[level];
+        float tileExtent = mTileSize / levelScale;
+
+        int column0 = Math.max(0, (int) (clip.getMinX() / tileExtent));
+        int row0 = Math.max(0, (int) (clip.getMinY() / tileExtent));
+        int column1 = Math.min(columns(level) - 1, (int) (clip.getMaxX() / tileExtent));
+        int row1 = Math.min(rows(level) - 1, (int) (clip.getMaxY() / tileExtent));
+
+        AffineTransform transform = new AffineTransform();
+        for (int row = row0; row <= row1; row++) {
+            for (int column = column0; column <= column1; column++) {
+                BufferedImage tile = getTile(level, column, row);
+                transform.setToTranslation(column * tileExtent, row * tileExtent);
+                transform.scale(1 / levelScale, 1 / levelScale);
+                g.drawImage(tile, transform, null);
+            }
+        }
+        trim();
+    }
+
+    /**
+     * Drops every tile and tells the listeners the whole page changed. Call this when the Sync is erased.
+     */
+    public synchronized void clear() {
+        mTiles.clear();
+        notifyDirty(0, 0, SyncCaptureReport.MAX_X, SyncCaptureReport.MAX_Y);
+    }
+
+    /**
+     * Returns the memory taken by the cached tiles.
+     */
+    public synchronized long getCachedBytes() {
+        return mTiles.size() * mTileBytes;
+    }
+
+    @Override
+    public synchronized void onStrokeStart(SyncStroke stroke) {
+        drawVertices(stroke, 0);
+    }
+
+    @Override
+    public synchronized void onStrokeUpdate(SyncStroke stroke, int firstVertex) {
+        drawVertices(stroke, firstVertex);
+    }
+
+    @Override
+    public synchronized void onStrokeEnd(SyncStroke stroke) {
+        // Tiles rendered from now on draw the whole stroke, so the cached ones must hold it all.
+        drawVertices(stroke, stroke.getVertexCount());
+        mDrawnCounts.remove(stroke);
+    }
+
+    /**
+     * Draws the segments ending at the given vertex and the ones after it into the cached tiles they touch. Segments that are already
+     * drawn are skipped, so every cached tile holds the stroke up to the same vertex.
+     */
+    private void drawVertices(SyncStroke stroke, int firstVertex) {
+        int vertices = stroke.getVertexCount();
+        Integer drawn = mDrawnCounts.get(stroke);
+        if (drawn != null) firstVertex = drawn;
+        mDrawnCounts.put(stroke, vertices);
+        if (vertices == 0 || firstVertex >= vertices) return;
+
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = Math.max(firstVertex, 0); i < vertices; i++) {
+            int from = i > 0 ? i - 1 : 0;
+            float halfWidth = stroke.getWidth(i) / 2;
+            minX = Math.min(minX, Math.min(stroke.getX(from), stroke.getX(i)) - halfWidth);
+            minY = Math.min(minY, Math.min(stroke.getY(from), stroke.getY(i)) - halfWidth);
+            maxX = Math.max(maxX, Math.max(stroke.getX(from), stroke.getX(i)) + halfWidth);
+            maxY = Math.max(maxY, Math.max(stroke.getY(from), stroke.getY(i)) + halfWidth);
+        }
+        if (minX > maxX) return;
+
+        for (int level = 0; level < mScales.length; level++) {
+            float tileExtent = mTileSize / mScales[level];
+            // One extra pixel for the antialiased edge.
+            float pad = 1 / mScales[level];
+            int column0 = Math.max(0, (int) ((minX - pad) / tileExtent));
+            int row0 = Math.max(0, (int) ((minY - pad) / tileExtent));
+            int column1 = Math.min(columns(level) - 1, (int) ((maxX + pad) / tileExtent));
+            int row1 = Math.min(rows(level) - 1, (int) ((maxY + pad) / tileExtent));
+
+            for (int row = row0; row <= row1; row++) {
+                for (int column = column0; column <= column1; column++) {
+                    // Only tiles that are cached are updated, the others will be rendered with the stroke when they are needed.
+                    BufferedImage tile = mTiles.get(key(level, column, row));
+                    if (tile == null) continue;
+                    Graphics2D g = createGraphics(tile, level, column, row);
+                    drawSegments(g, stroke, 0, firstVertex, vertices);
+                    g.dispose();
+                }
+            }
+        }
+
+        float pad = 1 / mScales[0];
+        notifyDirty(minX - pad, minY - pad, maxX + pad, maxY + pad);
+    }
+
+    private BufferedImage getTile(int level, int column, int row) {
+        long key = key(level, column, row);
+        BufferedImage tile = mTiles.remove(key);
+        if (tile != null) {
+            // Moves the tile to the end of the painting order.
+            mTiles.put(key, tile);
+            return tile;
+        }
+
+        tile = new BufferedImage(mTileSize, mTileSize, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = createGraphics(tile, level, column, row);
+        float tileExtent = mTileSize / mScales[level];
+        mRect.setRect(column * tileExtent, row * tileExtent, tileExtent, tileExtent);
+        // Zoomed out tiles are drawn from the simplified strokes, which look the same at their scale.
+        int detail = SyncStroke.getDetailLevel(mScales[level]);
+        for (SyncStroke stroke : mStrokeIndex.getStrokes(mRect)) {
+            // Strokes in progress are drawn in full detail up to the vertex the other tiles have, the updates add the rest.
+            Integer drawn = mDrawnCounts.get(stroke);
+            if (drawn != null) drawSegments(g, stroke, 0, 0, drawn);
+            else drawSegments(g, stroke, detail, 0, stroke.getVertexCount());
+        }
+        g.dispose();
+
+        mTiles.put(key, tile);
+        return tile;
+    }
+
+    private Graphics2D createGraphics(BufferedImage tile, int level, int column, int row) {
+        Graphics2D g = tile.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        g.setComposite(AlphaComposite.SrcOver);
+        g.setColor(mInkColor);
+        float scale = mScales[level];
+        g.scale(scale, scale);
+        g.translate(-column * mTileSize / scale, -row * mTileSize / scale);
+        return g;
+    }
+
+    /**
+     * Draws the segments of the first vertices of a stroke at a level of detail that end at the given vertex of the level and the ones
+     * after it.
+     */
+    private void drawSegments(Graphics2D g, SyncStroke stroke, int detail, int firstVertex, int vertexCount) {
+        float width = -1;
+        int vertices = stroke.getDetailVertexCount(detail, vertexCount);
+        if (vertices == 1) {
+            // A dot.
+            mLine.setLine(stroke.getX(0), stroke.getY(0), stroke.getX(0), stroke.getY(0));
+            g.setStroke(new BasicStroke(stroke.getWidth(0), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g.draw(mLine);
+            return;
+        }
+
+        int previous = stroke.getDetailVertex(detail, Math.max(firstVertex, 1) - 1, vertexCount);
+        for (int i = Math.max(firstVertex, 1); i < vertices; i++) {
+            int vertex = stroke.getDetailVertex(detail, i, vertexCount);
+            if (stroke.getWidth(vertex) != width) {
+                width = stroke.getWidth(vertex);
+                g.setStroke(new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            }
+            mLine.setLine(stroke.getX(previous), stroke.getY(previous), stroke.getX(vertex), stroke.getY(vertex));
+            g.draw(mLine);
+            previous = vertex;
+        }
+    }
+
+    /**
+     * Drops the least recently painted tiles until the cache is within its budget.
+     */
+    private void trim() {
+        long bytes = mTiles.size() * mTileBytes;
+        if (bytes <= mByteBudget) return;
+
+        Iterator<Map.Entry<Long, BufferedImage>> iterator = mTiles.entrySet().iterator();
+        while (bytes > mByteBudget && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            bytes -= mTileBytes;
+        }
+        if (DEBUG) Log.log(Level.INFO, "trimmed tile cache to " + mTiles.size() + " tiles");
+    }
+
+    private void notifyDirty(float minX, float minY, float maxX, float maxY) {
+        for (DirtyRegionListener listener : mListeners) listener.onDirtyRegion(minX, minY, maxX, maxY);
+    }
+
+    private int columns(int level) {
+        return (int) Math.ceil(SyncCaptureReport.MAX_X * mScales[level] / mTileSize);
+    }
+
+    private int rows(int level) {
+        return (int) Math.ceil(SyncCaptureReport.MAX_Y * mScales[level] / mTileSize);
+    }
+
+    private static long key(int level, int column, int row) {
+        return ((long) level << 48) | ((long) row << 24) | column;
+    }
+}
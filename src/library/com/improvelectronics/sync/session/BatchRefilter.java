@@ -0,0 +1,286 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.session;
+
+import com.improvelectronics.sync.Config;
+import com.improvelectronics.sync.j2se.Filtering;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs recorded sessions through {@link Filtering} again and writes the resulting strokes with a {@link StrokeFileWriter}. This is needed
+ * whenever the filter or the line width model is tuned.
+ * </p>
+ * Sessions are processed in parallel on a fork/join pool, and long sessions are split into parts at pen up. The filter forgets
+ * everything about a trace once the stylus is lifted, so every part can be filtered with its own {@link Filtering} instance and the
+ * concatenated output is identical to filtering the whole session in one pass.
+ */
+public class BatchRefilter {
+    private static final Logger Log = Logger.getLogger(BatchRefilter.class.getName());
+    private static final boolean DEBUG = Config.DEBUG;
+
+    /**
+     * Parts of a session shorter than this many samples are not split any further (about two minutes of writing).
+     */
+    public static final int DEFAULT_SPLIT_SAMPLES = 16 * 1024;
+
+    private final ForkJoinPool mPool;
+    private final int mSplitSamples;
+
+    /**
+     * Creates a refilter that uses all available processors.
+     */
+    public BatchRefilter() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_SPLIT_SAMPLES);
+    }
+
+    /**
+     * @param parallelism  number of worker threads
+     * @param splitSamples parts of a session shorter than this many samples are filtered in one go
+     */
+    public BatchRefilter(int parallelism, int splitSamples) {
+        if (splitSamples <= 0) throw new IllegalArgumentException("splitSamples must be positive");
+        mPool = new ForkJoinPool(parallelism);
+        mSplitSamples = splitSamples;
+    }
+
+    /**
+     * Refilters every session file in a directory. The stroke file of a session is written to the output directory with the same name
+     * and the {@link StrokeFileWriter#FILE_EXTENSION} extension. A session that fails is logged and skipped.
+     *
+     * @param inputDirectory  directory holding the session files
+     * @param outputDirectory directory to write the stroke files to
+     * @return number of sessions that were refiltered successfully
+     */
+    public int refilterDirectory(File inputDirectory, File outputDirectory) throws IOException {
+        File[] sessions = inputDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SessionFormat.FILE_EXTENSION);
+            }
+        });
+        if (sessions == null) throw new IOException("unable to list " + inputDirectory);
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) throw new IOException("unable to create " + outputDirectory);
+
+        return mPool.invoke(new DirectoryTask(sessions, outputDirectory));
+    }
+
+    /**
+     * Refilters a single session file, splitting it over the worker threads.
+     *
+     * @param session session file to read
+     * @param output  stroke file to write
+     */
+    public void refilter(File session, File output) throws IOException {
+        SessionTask task = new SessionTask(session, output);
+        mPool.invoke(task);
+        if (task.mError != null) throw task.mError;
+    }
+
+    /**
+     * Refilters a single session file on the calling thread. The output is identical to {@link #refilter(File, File)}.
+     *
+     * @param session session file to read
+     * @param output  stroke file to write
+     */
+    public static void refilterSequential(File session, File output) throws IOException {
+        SessionReader reader = new SessionReader(session);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+        try {
+            StrokeFileWriter.writeHeader(out);
+            StrokeFileWriter writer = new StrokeFileWriter(out);
+            Filtering filtering = new Filtering();
+            long previousIndex = -1;
+            while (reader.next()) {
+                int elapsed = Filtering.elapsedSamples(previousIndex, reader.getSampleIndex());
+                filtering.filter(reader.getX(), reader.getY(), reader.getPressure(), reader.getFlags(), elapsed, writer);
+                previousIndex = reader.getSampleIndex();
+            }
+            writer.finish();
+        } finally {
+            out.close();
+            reader.close();
+        }
+    }
+
+    /**
+     * Stops the worker threads once the submitted work is done.
+     */
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    private class DirectoryTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final File[] mSessions;
+        private final File mOutputDirectory;
+
+        DirectoryTask(File[] sessions, File outputDirectory) {
+            mSessions = sessions;
+            mOutputDirectory = outputDirectory;
+        }
+
+        @Override
+        protected Integer compute() {
+            List<SessionTask> tasks = new ArrayList<SessionTask>();
+            for (File session : mSessions) {
+                String name = session.getName();
+                name = name.substring(0, name.length() - SessionFormat.FILE_EXTENSION.length()) + StrokeFileWriter.FILE_EXTENSION;
+                tasks.add(new SessionTask(session, new File(mOutputDirectory, name)));
+            }
+            invokeAll(tasks);
+
+            int completed = 0;
+            for (SessionTask task : tasks) {
+                if (task.mError == null) {
+                    completed++;
+                } else {
+                    Log.log(Level.SEVERE, "unable to refilter " + task.mSession, task.mError);
+                }
+            }
+            return completed;
+        }
+    }
+
+    private class SessionTask extends RecursiveTask<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final File mSession;
+        private final File mOutput;
+        private IOException mError;
+
+        SessionTask(File session, File output) {
+            mSession = session;
+            mOutput = output;
+        }
+
+        @Override
+        protected Void compute() {
+            try {
+                MappedSessionReader reader = new MappedSessionReader(mSession);
+                try {
+                    long first = reader.getFirstSampleIndex();
+                    long end = reader.getLastSampleIndex() + 1;
+                    List<byte[]> parts = new RangeTask(reader, first, end).compute();
+
+                    OutputStream out = new FileOutputStream(mOutput);
+                    try {
+                        StrokeFileWriter.writeHeader(out);
+                        for (byte[] part : parts) out.write(part);
+                    } finally {
+                        out.close();
+                    }
+                    if (DEBUG) Log.log(Level.INFO, "refiltered " + mSession + " in " + parts.size() + " parts");
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                mError = e;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Filters the samples in [from, to), splitting the range at pen up while it is long enough.
+     */
+    private class RangeTask extends RecursiveTask<List<byte[]>> {
+        private static final long serialVersionUID = 1L;
+
+        private final MappedSessionReader mReader;
+        private final long mFrom, mTo;
+
+        RangeTask(MappedSessionReader reader, long from, long to) {
+            mReader = reader;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected List<byte[]> compute() {
+            long split = findSplit();
+            if (split < 0) return filterRange();
+
+            RangeTask left = new RangeTask(mReader, mFrom, split);
+            RangeTask right = new RangeTask(mReader, split, mTo);
+            left.fork();
+            List<byte[]> rightParts = right.compute();
+            List<byte[]> parts = left.join();
+            parts.addAll(rightParts);
+            return parts;
+        }
+
+        /**
+         * Returns the index just after the first sample without contact in the second half of the range, or -1 if the range should not be
+         * split. Starting a new filter there gives the same result as continuing the old one, since that sample ends any trace.
+         */
+        private long findSplit() {
+            if (mTo - mFrom < 2L * mSplitSamples) return -1;
+
+            MappedSessionReader.Range range = mReader.range(mFrom + (mTo - mFrom) / 2, mTo - mSplitSamples / 2);
+            while (range.next()) {
+                if (!Filtering.isContact(range.getFlags())) return range.getSampleIndex() + 1;
+            }
+            return -1;
+        }
+
+        private List<byte[]> filterRange() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StrokeFileWriter writer = new StrokeFileWriter(out);
+            Filtering filtering = new Filtering();
+
+            // The first sample of a range follows a pen up, so the time since the sample before it does not matter.
+            MappedSessionReader.Range range = mReader.range(mFrom, mTo);
+            long previousIndex = -1;
+            while (range.next()) {
+                int elapsed = Filtering.elapsedSamples(previousIndex, range.getSampleIndex());
+                filtering.filter(range.getX(), range.getY(), range.getPressure(), range.getFlags(), elapsed, writer);
+                previousIndex = range.getSampleIndex();
+            }
+
+            try {
+                // Ranges other than the last one end with a pen up, so this only completes the last trace of the session.
+                writer.finish();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            List<byte[]> parts = new ArrayList<byte[]>();
+            parts.add(out.toByteArray());
+            return parts;
+        }
+    }
+}
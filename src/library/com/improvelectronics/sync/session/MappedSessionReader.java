@@ -0,0 +1,401 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.session;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Random access reader for a recorded session. The file is memory mapped and a sparse index with one entry per chunk is built when the
+ * reader is opened, which makes it possible to start reading at any sample, time, page or save without decoding what comes before it.
+ * </p>
+ * Files larger than 2 GB are mapped as several regions. Regions always end on a chunk boundary so a chunk never spans two mappings. All
+ * reads go through views of the mapped regions; the sample data is never copied onto the heap.
+ * </p>
+ * A file whose recorder was killed in the middle of a chunk ends with part of that chunk. It is opened up to the last complete chunk and
+ * {@link #isTruncated()} tells that the rest was left out.
+ */
+public class MappedSessionReader {
+    private static final Logger Log = Logger.getLogger(MappedSessionReader.class.getName());
+
+    /**
+     * Largest region that is mapped at once.
+     */
+    public static final long MAX_REGION_SIZE = Integer.MAX_VALUE;
+
+    private final RandomAccessFile mFile;
+    private final long mStartTime;
+    private final List<MappedByteBuffer> mRegions;
+
+    // Sparse index, one entry per chunk.
+    private int mChunkCount;
+    private int[] mChunkRegion = new int[64];
+    private int[] mChunkPosition = new int[64];
+    private int[] mChunkFlags = new int[64];
+    private long[] mChunkFirstIndex = new long[64];
+    private long[] mChunkLastIndex = new long[64];
+    private long[] mChunkFirstTime = new long[64];
+
+    // Chunks that start a page (after an erase) and chunks that start with a completed save.
+    private int[] mPageChunks;
+    private int[] mSaveChunks;
+
+    // Bytes after the last complete chunk.
+    private long mTruncatedBytes;
+
+    public MappedSessionReader(File file) throws IOException {
+        this(file, MAX_REGION_SIZE);
+    }
+
+    /**
+     * Opens a session file and builds the index.
+     *
+     * @param file          session file
+     * @param maxRegionSize largest region to map at once, must be able to hold the largest chunk
+     * @throws IOException if the file is not a session file or is corrupt; a file that ends in the middle of a chunk is not corrupt
+     */
+    public MappedSessionReader(File file, long maxRegionSize) throws IOException {
+        if (maxRegionSize > MAX_REGION_SIZE) throw new IllegalArgumentException("region size is limited to " + MAX_REGION_SIZE);
+        mFile = new RandomAccessFile(file, "r");
+        mRegions = new ArrayList<MappedByteBuffer>();
+
+        try {
+            FileChannel channel = mFile.getChannel();
+            long size = channel.size();
+            if (size < SessionFormat.FILE_HEADER_SIZE) throw new IOException("missing session header");
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SessionFormat.FILE_HEADER_SIZE);
+            if (header.getInt(0) != SessionFormat.FILE_MAGIC) throw new IOException("not a session file");
+            if (header.getShort(4) > SessionFormat.VERSION) throw new IOException("unsupported session version " + header.getShort(4));
+            mStartTime = header.getLong(8);
+
+            buildIndex(channel, size, maxRegionSize);
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    private void buildIndex(FileChannel channel, long size, long maxRegionSize) throws IOException {
+        List<Integer> pages = new ArrayList<Integer>();
+        List<Integer> saves = new ArrayList<Integer>();
+
+        long regionStart = SessionFormat.FILE_HEADER_SIZE;
+        while (regionStart < size) {
+            long regionSize = Math.min(maxRegionSize, size - regionStart);
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionSize);
+            int regionIndex = mRegions.size();
+
+            // Walk the chunk headers, stopping at the first chunk that does not fit in the region.
+            int position = 0;
+            while (position + SessionFormat.CHUNK_HEADER_SIZE <= regionSize) {
+                if (region.getInt(position + SessionFormat.OFFSET_MAGIC) != SessionFormat.CHUNK_MAGIC)
+                    throw new IOException("corrupt chunk header at " + (regionStart + position));
+                int chunkLength = SessionFormat.CHUNK_HEADER_SIZE + region.getInt(position + SessionFormat.OFFSET_PAYLOAD_LENGTH);
+                if (position + chunkLength > regionSize) break;
+
+                int flags = region.getInt(position + SessionFormat.OFFSET_FLAGS);
+                if (mChunkCount == 0 || (flags & SessionFormat.CHUNK_ERASE) != 0) pages.add(mChunkCount);
+                if ((flags & SessionFormat.CHUNK_SAVE) != 0) saves.add(mChunkCount);
+                addChunk(regionIndex, position, flags, region.getLong(position + SessionFormat.OFFSET_FIRST_INDEX),
+                        region.getLong(position + SessionFormat.OFFSET_LAST_INDEX),
+                        region.getLong(position + SessionFormat.OFFSET_FIRST_TIME));
+                position += chunkLength;
+            }
+
+            if (position == 0) {
+                if (regionStart + regionSize < size) throw new IOException("chunk at " + regionStart + " is larger than the region size");
+
+                // The file ends in the middle of a chunk, keep the complete chunks before it.
+                mTruncatedBytes = size - regionStart;
+                Log.log(Level.WARNING, "session file ends with " + mTruncatedBytes + " bytes of an incomplete chunk at " + regionStart);
+                break;
+            }
+
+            // Remap from the first chunk that did not fit.
+            mRegions.add(position == regionSize ? region : channel.map(FileChannel.MapMode.READ_ONLY, regionStart, position));
+            regionStart += position;
+        }
+
+        mPageChunks = toArray(pages);
+        mSaveChunks = toArray(saves);
+    }
+
+    private void addChunk(int region, int position, int flags, long firstIndex, long lastIndex, long firstTime) {
+        if (mChunkCount == mChunkRegion.length) {
+            int capacity = mChunkCount * 2;
+            mChunkRegion = Arrays.copyOf(mChunkRegion, capacity);
+            mChunkPosition = Arrays.copyOf(mChunkPosition, capacity);
+            mChunkFlags = Arrays.copyOf(mChunkFlags, capacity);
+            mChunkFirstIndex = Arrays.copyOf(mChunkFirstIndex, capacity);
+            mChunkLastIndex = Arrays.copyOf(mChunkLastIndex, capacity);
+            mChunkFirstTime = Arrays.copyOf(mChunkFirstTime, capacity);
+        }
+        mChunkRegion[mChunkCount] = region;
+        mChunkPosition[mChunkCount] = position;
+        mChunkFlags[mChunkCount] = flags;
+        mChunkFirstIndex[mChunkCount] = firstIndex;
+        mChunkLastIndex[mChunkCount] = lastIndex;
+        mChunkFirstTime[mChunkCount] = firstTime;
+        mChunkCount++;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) array[i] = list.get(i);
+        return array;
+    }
+
+    /**
+     * Returns the wall-clock time the session was started in milliseconds.
+     */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    /**
+     * Returns true if the file ends in the middle of a chunk, for example because the recorder was killed. The samples of that chunk are
+     * left out.
+     */
+    public boolean isTruncated() {
+        return mTruncatedBytes > 0;
+    }
+
+    /**
+     * Returns the number of bytes after the last complete chunk, 0 if the file is complete.
+     */
+    public long getTruncatedByteCount() {
+        return mTruncatedBytes;
+    }
+
+    public int getChunkCount() {
+        return mChunkCount;
+    }
+
+    /**
+     * Returns the index of the first sample in the session, or -1 if the session is empty.
+     */
+    public long getFirstSampleIndex() {
+        return mChunkCount == 0 ? -1 : mChunkFirstIndex[0];
+    }
+
+    /**
+     * Returns the index of the last sample in the session, or -1 if the session is empty.
+     */
+    public long getLastSampleIndex() {
+        return mChunkCount == 0 ? -1 : mChunkLastIndex[mChunkCount - 1];
+    }
+
+    /**
+     * Returns the number of pages in the session. A new page starts with every erase.
+     */
+    public int getPageCount() {
+        return mPageChunks.length;
+    }
+
+    /**
+     * Returns the index of the first sample of a page.
+     *
+     * @param page page number starting at 0
+     */
+    public long getPageStartSample(int page) {
+        return mChunkFirstIndex[mPageChunks[page]];
+    }
+
+    /**
+     * Returns the index one past the last sample of a page.
+     *
+     * @param page page number starting at 0
+     */
+    public long getPageEndSample(int page) {
+        if (page + 1 < mPageChunks.length) return mChunkFirstIndex[mPageChunks[page + 1]];
+        return getLastSampleIndex() + 1;
+    }
+
+    /**
+     * Returns the number of saves completed during the session.
+     */
+    public int getSaveCount() {
+        return mSaveChunks.length;
+    }
+
+    /**
+     * Returns the index of the sample that reported a completed save.
+     *
+     * @param save save number starting at 0
+     */
+    public long getSaveSample(int save) {
+        return mChunkFirstIndex[mSaveChunks[save]];
+    }
+
+    /**
+     * Returns the chunk holding the given sample, or the first chunk after it if the sample was not recorded.
+     *
+     * @return chunk number, equal to {@link #getChunkCount()} if the sample is after the end of the session
+     */
+    public int findChunkBySample(long sampleIndex) {
+        int low = 0, high = mChunkCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mChunkLastIndex[mid] < sampleIndex) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first sample recorded at or after the given wall-clock time. The time of a sample inside a chunk is
+     * estimated from the sample period.
+     *
+     * @param time wall-clock time in milliseconds
+     * @return sample index, or one past the last sample if the time is after the end of the session
+     */
+    public long findSampleByTime(long time) {
+        if (mChunkCount == 0) return 0;
+
+        // Last chunk that starts at or before the time.
+        int low = 0, high = mChunkCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mChunkFirstTime[mid] <= time) low = mid + 1;
+            else high = mid;
+        }
+        if (low == 0) return mChunkFirstIndex[0];
+
+        int chunk = low - 1;
+        long sample = mChunkFirstIndex[chunk] + (long) Math.ceil((time - mChunkFirstTime[chunk]) / SessionFormat.MS_PER_SAMPLE);
+        if (sample <= mChunkLastIndex[chunk]) return sample;
+        return chunk + 1 < mChunkCount ? mChunkFirstIndex[chunk + 1] : mChunkLastIndex[chunk] + 1;
+    }
+
+    /**
+     * Returns a range over the samples with an index in [fromSample, toSample). The range reads the mapped file directly and can be reused
+     * with {@link Range#reset(long, long)}. Each thread should use its own range.
+     */
+    public Range range(long fromSample, long toSample) {
+        Range range = new Range();
+        range.reset(fromSample, toSample);
+        return range;
+    }
+
+    /**
+     * Returns a range over all the samples of a page.
+     *
+     * @param page page number starting at 0
+     */
+    public Range page(int page) {
+        return range(getPageStartSample(page), getPageEndSample(page));
+    }
+
+    /**
+     * Returns a range over the samples recorded in the wall-clock interval [fromTime, toTime).
+     */
+    public Range timeRange(long fromTime, long toTime) {
+        return range(findSampleByTime(fromTime), findSampleByTime(toTime));
+    }
+
+    /**
+     * Releases the file. The mapped regions are released by the garbage collector once no range refers to them.
+     */
+    public void close() throws IOException {
+        mRegions.clear();
+        mFile.close();
+    }
+
+    /**
+     * Iterates the samples of a range of the session, moving from chunk to chunk as needed.
+     */
+    public class Range {
+        private final SessionCursor mCursor = new SessionCursor();
+        private long mTo;
+        private int mChunk;
+        private boolean mStarted;
+        private long mFrom;
+
+        private Range() {
+        }
+
+        /**
+         * Points the range at the samples with an index in [fromSample, toSample).
+         */
+        public void reset(long fromSample, long toSample) {
+            mFrom = fromSample;
+            mTo = toSample;
+            mChunk = findChunkBySample(fromSample);
+            mStarted = false;
+        }
+
+        /**
+         * Advances to the next sample in the range.
+         *
+         * @return false when the end of the range was reached
+         */
+        public boolean next() {
+            if (!mStarted) {
+                mStarted = true;
+                if (mChunk >= mChunkCount) return false;
+                mCursor.reset(mRegions.get(mChunkRegion[mChunk]), mChunkPosition[mChunk]);
+                if (!mCursor.skipTo(mFrom)) return false;
+                return mCursor.getSampleIndex() < mTo;
+            }
+
+            while (!mCursor.next()) {
+                if (++mChunk >= mChunkCount) return false;
+                mCursor.reset(mRegions.get(mChunkRegion[mChunk]), mChunkPosition[mChunk]);
+            }
+            return mCursor.getSampleIndex() < mTo;
+        }
+
+        public int getX() {
+            return mCursor.getX();
+        }
+
+        public int getY() {
+            return mCursor.getY();
+        }
+
+        public int getPressure() {
+            return mCursor.getPressure();
+        }
+
+        public byte getFlags() {
+            return mCursor.getFlags();
+        }
+
+        public long getSampleIndex() {
+            return mCursor.getSampleIndex();
+        }
+
+        public long getTime() {
+            return mCursor.getTime();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.session;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the samples of a single chunk in place. The cursor reads straight from the buffer it is given, so it works the same on a heap
+ * buffer filled by {@link SessionReader} as it does on a memory mapped file, and it never allocates while iterating.
+ */
+public class SessionCursor {
+    private ByteBuffer mBuffer;
+
+    // Chunk header values.
+    private int mChunkFlags;
+    private int mSampleCount;
+    private long mFirstIndex;
+    private long mFirstTime;
+
+    // Read positions of each column.
+    private int mXPosition, mYPosition, mPressurePosition, mFlagPosition, mIndexPosition;
+
+    // Run length state of the flag and index columns.
+    private int mFlagRun, mIndexRun, mIndexDelta;
+
+    // Current sample.
+    private int mRemaining;
+    private int mX, mY, mPressure;
+    private byte mFlags;
+    private long mSampleIndex;
+
+    /**
+     * Points the cursor at the chunk starting at the given absolute position. The next call to {@link #next()} returns the first sample of
+     * the chunk.
+     *
+     * @param buffer   buffer holding the chunk header and payload
+     * @param position absolute position of the chunk header
+     * @throws IllegalArgumentException if there is no chunk header at the position
+     */
+    public void reset(ByteBuffer buffer, int position) {
+        if (buffer.getInt(position + SessionFormat.OFFSET_MAGIC) != SessionFormat.CHUNK_MAGIC)
+            throw new IllegalArgumentException("no chunk at position " + position);
+
+        mBuffer = buffer;
+        mChunkFlags = buffer.getInt(position + SessionFormat.OFFSET_FLAGS);
+        mSampleCount = buffer.getInt(position + SessionFormat.OFFSET_SAMPLE_COUNT);
+        mFirstIndex = buffer.getLong(position + SessionFormat.OFFSET_FIRST_INDEX);
+        mFirstTime = buffer.getLong(position + SessionFormat.OFFSET_FIRST_TIME);
+
+        // Columns are stored back to back after the header.
+        int lengths = position + SessionFormat.OFFSET_COLUMN_LENGTHS;
+        mXPosition = position + SessionFormat.CHUNK_HEADER_SIZE;
+        mYPosition = mXPosition + buffer.getInt(lengths);
+        mPressurePosition = mYPosition + buffer.getInt(lengths + 4);
+        mFlagPosition = mPressurePosition + buffer.getInt(lengths + 8);
+        mIndexPosition = mFlagPosition + buffer.getInt(lengths + 12);
+
+        mRemaining = mSampleCount;
+        mFlagRun = 0;
+        mIndexRun = 0;
+        mX = mY = mPressure = 0;
+        mFlags = 0;
+        mSampleIndex = mFirstIndex - 1;
+    }
+
+    /**
+     * Advances to the next sample of the chunk.
+     *
+     * @return false when every sample in the chunk has been read
+     */
+    public boolean next() {
+        if (mRemaining == 0) return false;
+        mRemaining--;
+
+        long v = SessionFormat.readVarint(mBuffer, mXPosition);
+        mXPosition += (int) (v >>> 32);
+        mX += SessionFormat.unzigzag((int) v);
+
+        v = SessionFormat.readVarint(mBuffer, mYPosition);
+        mYPosition += (int) (v >>> 32);
+        mY += SessionFormat.unzigzag((int) v);
+
+        v = SessionFormat.readVarint(mBuffer, mPressurePosition);
+        mPressurePosition += (int) (v >>> 32);
+        mPressure += SessionFormat.unzigzag((int) v);
+
+        if (mFlagRun == 0) {
+            mFlags = mBuffer.get(mFlagPosition++);
+            v = SessionFormat.readVarint(mBuffer, mFlagPosition);
+            mFlagPosition += (int) (v >>> 32);
+            mFlagRun = (int) v;
+        }
+        mFlagRun--;
+
+        if (mIndexRun == 0) {
+            v = SessionFormat.readVarint(mBuffer, mIndexPosition);
+            mIndexPosition += (int) (v >>> 32);
+            mIndexDelta = (int) v;
+            v = SessionFormat.readVarint(mBuffer, mIndexPosition);
+            mIndexPosition += (int) (v >>> 32);
+            mIndexRun = (int) v;
+        }
+        mIndexRun--;
+        mSampleIndex += mIndexDelta;
+
+        return true;
+    }
+
+    /**
+     * Skips samples until the current sample index is at least the given index.
+     *
+     * @return false if the chunk ended before reaching the index
+     */
+    public boolean skipTo(long sampleIndex) {
+        while (mRemaining > 0 && (mRemaining == mSampleCount || mSampleIndex < sampleIndex)) {
+            next();
+        }
+        return mSampleIndex >= sampleIndex;
+    }
+
+    public int getX() {
+        return mX;
+    }
+
+    public int getY() {
+        return mY;
+    }
+
+    public int getPressure() {
+        return mPressure;
+    }
+
+    public byte getFlags() {
+        return mFlags;
+    }
+
+    public long getSampleIndex() {
+        return mSampleIndex;
+    }
+
+    /**
+     * Returns the wall-clock time of the current sample, derived from the time of the first sample in the chunk and the sample period.
+     */
+    public long getTime() {
+        return mFirstTime + SessionFormat.sampleOffsetMillis(mFirstIndex, mSampleIndex);
+    }
+
+    public int getChunkFlags() {
+        return mChunkFlags;
+    }
+
+    public int getChunkSampleCount() {
+        return mSampleCount;
+    }
+
+    public long getChunkFirstIndex() {
+        return mFirstIndex;
+    }
+
+    public long getChunkFirstTime() {
+        return mFirstTime;
+    }
+
+    /**
+     * Returns true if the current sample is the first sample of the chunk.
+     */
+    public boolean isFirstInChunk() {
+        return mRemaining == mSampleCount - 1;
+    }
+}
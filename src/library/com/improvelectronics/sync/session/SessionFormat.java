@@ -0,0 +1,147 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.session;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Constants and helpers describing the on-disk layout of a recorded capture session.
+ * </p>
+ * A session file starts with a fixed file header followed by any number of chunks. Each chunk has a fixed size header followed by five
+ * columns, stored one after the other:
+ * <ul>
+ * <li>x deltas, zigzag varint encoded</li>
+ * <li>y deltas, zigzag varint encoded</li>
+ * <li>pressure deltas, zigzag varint encoded</li>
+ * <li>flags as runs of (flag byte, varint run length)</li>
+ * <li>sample index deltas as runs of (varint delta, varint run length)</li>
+ * </ul>
+ * Deltas restart at every chunk so a chunk can be decoded without looking at the chunks before it. A new chunk is always started when the
+ * Sync reports an erase or a save, so those page boundaries can be found from the chunk headers alone.
+ */
+public class SessionFormat {
+
+    /**
+     * Extension used for session files.
+     */
+    public static final String FILE_EXTENSION = ".session";
+
+    /**
+     * Magic number at the start of every session file ("BBSR").
+     */
+    public static final int FILE_MAGIC = 0x42425352;
+
+    /**
+     * Magic number at the start of every chunk ("CHNK").
+     */
+    public static final int CHUNK_MAGIC = 0x43484E4B;
+
+    /**
+     * Version of the format written by {@link SessionRecorder}.
+     */
+    public static final short VERSION = 1;
+
+    /**
+     * Size in bytes of the file header: magic, version, reserved and the wall-clock start time.
+     */
+    public static final int FILE_HEADER_SIZE = 4 + 2 + 2 + 8;
+
+    /**
+     * Size in bytes of a chunk header: magic, flags, sample count, payload length, first and last sample index, wall-clock time of the
+     * first sample and the length of each of the five columns.
+     */
+    public static final int CHUNK_HEADER_SIZE = 4 + 4 + 4 + 4 + 8 + 8 + 8 + 5 * 4;
+
+    /**
+     * Chunk flag set when the first sample of the chunk is the start of an erase.
+     */
+    public static final int CHUNK_ERASE = 0x01;
+
+    /**
+     * Chunk flag set when the first sample of the chunk is the completion of a save.
+     */
+    public static final int CHUNK_SAVE = 0x02;
+
+    /**
+     * Default number of samples per chunk, roughly 30 seconds of continuous writing.
+     */
+    public static final int DEFAULT_CHUNK_SAMPLES = 4096;
+
+    // Byte offsets of the chunk header fields.
+    static final int OFFSET_MAGIC = 0;
+    static final int OFFSET_FLAGS = 4;
+    static final int OFFSET_SAMPLE_COUNT = 8;
+    static final int OFFSET_PAYLOAD_LENGTH = 12;
+    static final int OFFSET_FIRST_INDEX = 16;
+    static final int OFFSET_LAST_INDEX = 24;
+    static final int OFFSET_FIRST_TIME = 32;
+    static final int OFFSET_COLUMN_LENGTHS = 40;
+
+    // Flags of the capture report that mark page boundaries (same bits as SyncCaptureReport).
+    static final byte SW_ERASE_FLAG = (byte) (0x01 << 7);
+    static final byte SAVE_FLAG = (byte) (0x01 << 4);
+
+    // 144.425 samples per second
+    static final float MS_PER_SAMPLE = 6.924f;
+
+    /**
+     * Maps a signed value onto an unsigned one so small negative deltas stay small.
+     */
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads an unsigned varint starting at the given absolute position.
+     *
+     * @param buffer   buffer to read from, its position is not modified
+     * @param position absolute position of the first byte
+     * @return the value in the lower 32 bits and the number of bytes read in the upper 32 bits
+     */
+    static long readVarint(ByteBuffer buffer, int position) {
+        int value = 0;
+        int shift = 0;
+        int length = 0;
+        byte b;
+        do {
+            b = buffer.get(position + length++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return ((long) length << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the time in milliseconds between the first sample of a chunk and the sample with the given index.
+     *
+     * @param firstIndex  sample index of the first sample in the chunk
+     * @param sampleIndex sample index of the sample
+     */
+    public static long sampleOffsetMillis(long firstIndex, long sampleIndex) {
+        return (long) ((sampleIndex - firstIndex) * MS_PER_SAMPLE);
+    }
+}
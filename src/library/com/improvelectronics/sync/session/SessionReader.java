@@ -0,0 +1,177 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.session;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads a recorded session from start to end. One chunk is held in memory at a time in a buffer that is reused for every chunk, and the
+ * values of the current sample are read through the getters, so iterating over a session does not allocate.
+ * <pre>
+ * SessionReader reader = new SessionReader(file);
+ * while (reader.next()) {
+ *     process(reader.getX(), reader.getY(), reader.getPressure(), reader.getFlags());
+ * }
+ * reader.close();
+ * </pre>
+ */
+public class SessionReader {
+    private final ReadableByteChannel mChannel;
+    private final SessionCursor mCursor;
+    private final long mStartTime;
+    private ByteBuffer mChunk;
+    private boolean mEndOfFile;
+
+    public SessionReader(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    /**
+     * Creates a reader over a stream positioned at the start of a session file.
+     *
+     * @param in stream to read, closed when the reader is closed
+     * @throws IOException if the stream does not start with a session file header
+     */
+    public SessionReader(InputStream in) throws IOException {
+        mChannel = Channels.newChannel(in);
+        mCursor = new SessionCursor();
+        mChunk = ByteBuffer.allocate(64 * 1024);
+
+        ByteBuffer header = ByteBuffer.allocate(SessionFormat.FILE_HEADER_SIZE);
+        if (!readFully(header)) throw new EOFException("missing session header");
+        header.flip();
+        if (header.getInt() != SessionFormat.FILE_MAGIC) throw new IOException("not a session file");
+        short version = header.getShort();
+        if (version > SessionFormat.VERSION) throw new IOException("unsupported session version " + version);
+        header.getShort();
+        mStartTime = header.getLong();
+
+        // Nothing to iterate until the first chunk is read.
+        mChunk.limit(0);
+    }
+
+    /**
+     * Returns the wall-clock time the session was started in milliseconds.
+     */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    /**
+     * Advances to the next sample of the session.
+     *
+     * @return false when the end of the session was reached
+     * @throws IOException if the file is truncated or corrupt
+     */
+    public boolean next() throws IOException {
+        while (mChunk.limit() == 0 || !mCursor.next()) {
+            if (!readChunk()) return false;
+        }
+        return true;
+    }
+
+    public int getX() {
+        return mCursor.getX();
+    }
+
+    public int getY() {
+        return mCursor.getY();
+    }
+
+    public int getPressure() {
+        return mCursor.getPressure();
+    }
+
+    public byte getFlags() {
+        return mCursor.getFlags();
+    }
+
+    public long getSampleIndex() {
+        return mCursor.getSampleIndex();
+    }
+
+    public long getTime() {
+        return mCursor.getTime();
+    }
+
+    /**
+     * Returns the flags of the chunk holding the current sample. See {@link SessionFormat#CHUNK_ERASE} and
+     * {@link SessionFormat#CHUNK_SAVE}.
+     */
+    public int getChunkFlags() {
+        return mCursor.getChunkFlags();
+    }
+
+    /**
+     * Returns true if the current sample is the first one of its chunk.
+     */
+    public boolean isFirstInChunk() {
+        return mCursor.isFirstInChunk();
+    }
+
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    private boolean readChunk() throws IOException {
+        if (mEndOfFile) return false;
+
+        mChunk.clear();
+        mChunk.limit(SessionFormat.CHUNK_HEADER_SIZE);
+        if (!readFully(mChunk)) {
+            if (mChunk.position() != 0) throw new EOFException("truncated chunk header");
+            mEndOfFile = true;
+            mChunk.limit(0);
+            return false;
+        }
+
+        if (mChunk.getInt(SessionFormat.OFFSET_MAGIC) != SessionFormat.CHUNK_MAGIC) throw new IOException("corrupt chunk header");
+        int payloadLength = mChunk.getInt(SessionFormat.OFFSET_PAYLOAD_LENGTH);
+        int chunkLength = SessionFormat.CHUNK_HEADER_SIZE + payloadLength;
+        if (chunkLength > mChunk.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(Integer.highestOneBit(chunkLength) << 1);
+            mChunk.flip();
+            bigger.put(mChunk);
+            mChunk = bigger;
+        }
+        mChunk.limit(chunkLength);
+        if (!readFully(mChunk)) throw new EOFException("truncated chunk");
+
+        mCursor.reset(mChunk, 0);
+        return true;
+    }
+
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer) < 0) return false;
+        }
+        return true;
+    }
+}
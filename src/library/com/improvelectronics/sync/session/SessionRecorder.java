@@ -0,0 +1,284 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.session;
+
+import com.improvelectronics.sync.j2se.SyncCaptureReport;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes capture reports to a compact session file as they arrive. Samples are buffered column by column for one chunk at a time, so the
+ * memory used by the recorder stays the same no matter how long the session runs. See {@link SessionFormat} for the layout.
+ */
+public class SessionRecorder {
+    private final DataOutputStream mOutput;
+    private final int mChunkSamples;
+
+    private final Column mXColumn = new Column();
+    private final Column mYColumn = new Column();
+    private final Column mPressureColumn = new Column();
+    private final Column mFlagColumn = new Column();
+    private final Column mIndexColumn = new Column();
+
+    // State of the chunk being built.
+    private int mSampleCount;
+    private int mChunkFlags;
+    private long mFirstIndex, mLastIndex, mFirstTime;
+    private int mLastX, mLastY, mLastPressure;
+    private byte mRunFlags;
+    private int mFlagRun;
+    private int mIndexDelta, mIndexRun;
+
+    // Flags of the previous sample, used to find the edges of erase and save events.
+    private byte mPreviousFlags;
+    private int mPendingChunkFlags;
+
+    private long mTotalSamples;
+    private long mBytesWritten;
+    private boolean mClosed;
+
+    /**
+     * Creates a recorder writing to a new file with the default chunk size.
+     *
+     * @param file      file to write, replaced if it exists
+     * @param startTime wall-clock time the session started in milliseconds
+     * @throws IOException if the file could not be created
+     */
+    public SessionRecorder(File file, long startTime) throws IOException {
+        this(new FileOutputStream(file), startTime, SessionFormat.DEFAULT_CHUNK_SAMPLES);
+    }
+
+    /**
+     * Creates a recorder writing to a stream.
+     *
+     * @param out          stream to write, closed when the recorder is closed
+     * @param startTime    wall-clock time the session started in milliseconds
+     * @param chunkSamples maximum number of samples in a chunk
+     * @throws IOException if the file header could not be written
+     */
+    public SessionRecorder(OutputStream out, long startTime, int chunkSamples) throws IOException {
+        if (chunkSamples <= 0) throw new IllegalArgumentException("chunkSamples must be positive");
+        mOutput = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        mChunkSamples = chunkSamples;
+
+        mOutput.writeInt(SessionFormat.FILE_MAGIC);
+        mOutput.writeShort(SessionFormat.VERSION);
+        mOutput.writeShort(0);
+        mOutput.writeLong(startTime);
+        mBytesWritten = SessionFormat.FILE_HEADER_SIZE;
+    }
+
+    /**
+     * Records a capture report.
+     *
+     * @param captureReport report returned from the Sync
+     * @param sampleIndex   index of the sample in the session, must increase with every call
+     * @param time          wall-clock time the report was received in milliseconds
+     * @throws IOException if a completed chunk could not be written
+     */
+    public void record(SyncCaptureReport captureReport, long sampleIndex, long time) throws IOException {
+        record((int) captureReport.getX(), (int) captureReport.getY(), (int) captureReport.getPressure(), captureReport.getFlags(),
+                sampleIndex, time);
+    }
+
+    /**
+     * Records a single sample.
+     *
+     * @param x           digitizer x coordinate
+     * @param y           digitizer y coordinate
+     * @param pressure    digitizer pressure reading
+     * @param flags       flags of the capture report
+     * @param sampleIndex index of the sample in the session, must increase with every call
+     * @param time        wall-clock time the sample was received in milliseconds
+     * @throws IOException if a completed chunk could not be written
+     */
+    public synchronized void record(int x, int y, int pressure, byte flags, long sampleIndex, long time) throws IOException {
+        if (mClosed) throw new IOException("recorder is closed");
+        if (mSampleCount > 0 && sampleIndex <= mLastIndex)
+            throw new IllegalArgumentException("sample index " + sampleIndex + " is not after " + mLastIndex);
+
+        // Start a new chunk on the leading edge of an erase or a save so page boundaries line up with chunks.
+        int boundary = 0;
+        if ((flags & SessionFormat.SW_ERASE_FLAG) != 0 && (mPreviousFlags & SessionFormat.SW_ERASE_FLAG) == 0)
+            boundary |= SessionFormat.CHUNK_ERASE;
+        if ((flags & SessionFormat.SAVE_FLAG) != 0 && (mPreviousFlags & SessionFormat.SAVE_FLAG) == 0)
+            boundary |= SessionFormat.CHUNK_SAVE;
+        mPreviousFlags = flags;
+
+        if (boundary != 0 || mSampleCount == mChunkSamples) flushChunk();
+        mPendingChunkFlags |= boundary;
+
+        if (mSampleCount == 0) {
+            mChunkFlags = mPendingChunkFlags;
+            mPendingChunkFlags = 0;
+            mFirstIndex = sampleIndex;
+            mFirstTime = time;
+            mLastX = mLastY = mLastPressure = 0;
+            mLastIndex = sampleIndex - 1;
+            mRunFlags = flags;
+            mFlagRun = 0;
+            mIndexDelta = 1;
+            mIndexRun = 0;
+        }
+
+        mXColumn.writeVarint(SessionFormat.zigzag(x - mLastX));
+        mYColumn.writeVarint(SessionFormat.zigzag(y - mLastY));
+        mPressureColumn.writeVarint(SessionFormat.zigzag(pressure - mLastPressure));
+        mLastX = x;
+        mLastY = y;
+        mLastPressure = pressure;
+
+        if (flags != mRunFlags) {
+            mFlagColumn.writeByte(mRunFlags);
+            mFlagColumn.writeVarint(mFlagRun);
+            mRunFlags = flags;
+            mFlagRun = 0;
+        }
+        mFlagRun++;
+
+        int delta = (int) (sampleIndex - mLastIndex);
+        if (delta != mIndexDelta && mIndexRun > 0) {
+            mIndexColumn.writeVarint(mIndexDelta);
+            mIndexColumn.writeVarint(mIndexRun);
+            mIndexRun = 0;
+        }
+        mIndexDelta = delta;
+        mIndexRun++;
+        mLastIndex = sampleIndex;
+
+        mSampleCount++;
+        mTotalSamples++;
+    }
+
+    /**
+     * Writes the chunk being built, if any, and flushes the underlying stream.
+     *
+     * @throws IOException if the chunk could not be written
+     */
+    public synchronized void flush() throws IOException {
+        if (mClosed) return;
+        flushChunk();
+        mOutput.flush();
+    }
+
+    /**
+     * Writes any buffered samples and closes the underlying stream.
+     *
+     * @throws IOException if the last chunk could not be written
+     */
+    public synchronized void close() throws IOException {
+        if (mClosed) return;
+        try {
+            flushChunk();
+        } finally {
+            mClosed = true;
+            mOutput.close();
+        }
+    }
+
+    /**
+     * Returns the number of samples recorded so far.
+     */
+    public synchronized long getSampleCount() {
+        return mTotalSamples;
+    }
+
+    /**
+     * Returns the number of bytes written to the stream so far, not counting the chunk being built.
+     */
+    public synchronized long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    private void flushChunk() throws IOException {
+        if (mSampleCount == 0) return;
+
+        // Close the open runs.
+        mFlagColumn.writeByte(mRunFlags);
+        mFlagColumn.writeVarint(mFlagRun);
+        mIndexColumn.writeVarint(mIndexDelta);
+        mIndexColumn.writeVarint(mIndexRun);
+
+        int payloadLength = mXColumn.length + mYColumn.length + mPressureColumn.length + mFlagColumn.length + mIndexColumn.length;
+
+        mOutput.writeInt(SessionFormat.CHUNK_MAGIC);
+        mOutput.writeInt(mChunkFlags);
+        mOutput.writeInt(mSampleCount);
+        mOutput.writeInt(payloadLength);
+        mOutput.writeLong(mFirstIndex);
+        mOutput.writeLong(mLastIndex);
+        mOutput.writeLong(mFirstTime);
+        mOutput.writeInt(mXColumn.length);
+        mOutput.writeInt(mYColumn.length);
+        mOutput.writeInt(mPressureColumn.length);
+        mOutput.writeInt(mFlagColumn.length);
+        mOutput.writeInt(mIndexColumn.length);
+
+        mXColumn.writeTo(mOutput);
+        mYColumn.writeTo(mOutput);
+        mPressureColumn.writeTo(mOutput);
+        mFlagColumn.writeTo(mOutput);
+        mIndexColumn.writeTo(mOutput);
+
+        mBytesWritten += SessionFormat.CHUNK_HEADER_SIZE + payloadLength;
+        mSampleCount = 0;
+        mChunkFlags = 0;
+    }
+
+    /**
+     * Growable byte buffer for one column of a chunk. The buffer is kept between chunks.
+     */
+    private static class Column {
+        private byte[] data = new byte[1024];
+        private int length;
+
+        void writeByte(byte b) {
+            if (length == data.length) grow();
+            data[length++] = b;
+        }
+
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeByte((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((byte) value);
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(data, 0, length);
+            length = 0;
+        }
+
+        private void grow() {
+            byte[] bigger = new byte[data.length * 2];
+            System.arraycopy(data, 0, bigger, 0, length);
+            data = bigger;
+        }
+    }
+}
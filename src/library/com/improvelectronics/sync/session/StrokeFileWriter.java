@@ -0,0 +1,128 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.session;
+
+import com.improvelectronics.sync.j2se.SyncSegmentListener;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes the traces produced by {@link com.improvelectronics.sync.j2se.Filtering Filtering} to a stroke file. A stroke file starts with
+ * a small header, written by {@link #writeHeader(OutputStream)}, followed by one record per trace: the number of vertices and then the x,
+ * y and line width of each vertex as floats. Records do not refer to each other, so the records written for consecutive parts of a session
+ * can simply be concatenated.
+ */
+public class StrokeFileWriter implements SyncSegmentListener {
+
+    /**
+     * Magic number at the start of every stroke file ("BBST").
+     */
+    public static final int FILE_MAGIC = 0x42425354;
+
+    /**
+     * Version of the stroke file format.
+     */
+    public static final short VERSION = 1;
+
+    /**
+     * Extension used for stroke files.
+     */
+    public static final String FILE_EXTENSION = ".strokes";
+
+    private final DataOutputStream mOutput;
+    private float[] mVertices = new float[3 * 256];
+    private int mLength;
+    private long mStrokeCount;
+    private IOException mError;
+
+    /**
+     * Creates a writer appending stroke records to a stream. No header is written.
+     *
+     * @param out stream to write the records to
+     */
+    public StrokeFileWriter(OutputStream out) {
+        mOutput = new DataOutputStream(out);
+    }
+
+    /**
+     * Writes the stroke file header.
+     */
+    public static void writeHeader(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(FILE_MAGIC);
+        data.writeShort(VERSION);
+        data.writeShort(0);
+        data.flush();
+    }
+
+    @Override
+    public void onSegment(float x0, float y0, float x1, float y1, float lineWidth) {
+        if (mLength == 0) addVertex(x0, y0, lineWidth);
+        addVertex(x1, y1, lineWidth);
+    }
+
+    @Override
+    public void onTraceEnd() {
+        if (mLength == 0 || mError != null) {
+            mLength = 0;
+            return;
+        }
+
+        try {
+            mOutput.writeInt(mLength / 3);
+            for (int i = 0; i < mLength; i++) mOutput.writeFloat(mVertices[i]);
+            mStrokeCount++;
+        } catch (IOException e) {
+            mError = e;
+        }
+        mLength = 0;
+    }
+
+    /**
+     * Writes the trace that is still open, if any, and flushes the stream.
+     *
+     * @throws IOException if any record could not be written
+     */
+    public void finish() throws IOException {
+        onTraceEnd();
+        if (mError != null) throw mError;
+        mOutput.flush();
+    }
+
+    /**
+     * Returns the number of stroke records written.
+     */
+    public long getStrokeCount() {
+        return mStrokeCount;
+    }
+
+    private void addVertex(float x, float y, float lineWidth) {
+        if (mLength + 3 > mVertices.length) mVertices = Arrays.copyOf(mVertices, mVertices.length * 2);
+        mVertices[mLength++] = x;
+        mVertices[mLength++] = y;
+        mVertices[mLength++] = lineWidth;
+    }
+}
@@ -0,0 +1,416 @@
+/*****************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+
+package com.improvelectronics.sync.swing;
+
+import com.improvelectronics.sync.ink.StrokeStore;
+import com.improvelectronics.sync.j2se.SyncCaptureReport;
+import com.improvelectronics.sync.j2se.SyncPath;
+import com.improvelectronics.sync.j2se.SyncStreamingListener;
+import com.improvelectronics.sync.j2se.SyncStreamingService;
+import com.improvelectronics.sync.j2se.SyncStroke;
+import com.improvelectronics.sync.j2se.SyncStrokeListener;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.DisplayMode;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Component that shows the ink drawn on a Boogie Board Sync as it is streamed. The page is shown upright, scaled to fit the component.
+ * </p>
+ * New segments are drawn into a back buffer on the thread that filters the capture reports, so the event dispatch thread only copies the
+ * changed part of the buffer to the screen. The changed regions are collected and painted at most once per display refresh: the first
+ * change after an idle frame is painted right away, later ones wait for the next frame, so the input rate of the Sync never turns into
+ * one repaint per sample.
+ * </p>
+ * When the component is resized or the page is redrawn, the buffer is rebuilt on a background thread from a snapshot of the strokes and
+ * swapped in once it is ready, so the event dispatch thread never waits for the whole page to be drawn.
+ * </p>
+ * Call {@link #dispose()} to stop listening to the service.
+ */
+public class SyncInkCanvas extends JComponent {
+    private static final long serialVersionUID = 1L;
+    private static final int DEFAULT_REFRESH_RATE = 60;
+
+    private final SyncStreamingService mService;
+    private final StrokeListener mStrokeListener = new StrokeListener();
+    private final EraseListener mEraseListener = new EraseListener();
+    private final Timer mFrameTimer;
+    private final long mFrameNanos;
+    private final ExecutorService mRebuildExecutor;
+    private Color mInkColor = Color.BLACK;
+
+    // Guards the back buffer, its transform, the dirty region and the stroke in progress.
+    private final Object mLock = new Object();
+    private BufferedImage mBuffer;
+    private AffineTransform mTransform;
+    private float mScale;
+    private final Rectangle mDirty = new Rectangle();
+    private boolean mFramePending;
+    private long mLastFrameTime;
+
+    // Grows every time the back buffer is dropped, so a rebuild started before can tell its strokes are stale.
+    private int mBufferGeneration;
+    private boolean mRebuildPending;
+
+    // Stroke in progress and the number of its vertices drawn into the back buffer.
+    private SyncStroke mCurrentStroke;
+    private int mDrawnCount;
+
+    // Reused while drawing, only used with the lock held.
+    private final Line2D.Float mLine = new Line2D.Float();
+    private final float[] mPoints = new float[4];
+
+    /**
+     * Creates a canvas showing the strokes of a streaming service, including the ones already drawn.
+     *
+     * @param service service streaming from the Sync
+     */
+    public SyncInkCanvas(SyncStreamingService service) {
+        mService = service;
+        setOpaque(true);
+        setBackground(Color.WHITE);
+        setPreferredSize(new Dimension(Math.round(SyncCaptureReport.MAX_Y / 24), Math.round(SyncCaptureReport.MAX_X / 24)));
+
+        int refreshRate = displayRefreshRate();
+        mFrameNanos = 1000000000L / refreshRate;
+        mFrameTimer = new Timer(1000 / refreshRate, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                paintDirtyRegion();
+            }
+        });
+        mFrameTimer.setRepeats(false);
+        mRebuildExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SyncInkCanvas");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        service.addStrokeListener(mStrokeListener);
+        service.addListener(mEraseListener);
+    }
+
+    /**
+     * Stops listening to the streaming service.
+     */
+    public void dispose() {
+        mService.removeStrokeListener(mStrokeListener);
+        mService.removeListener(mEraseListener);
+        mFrameTimer.stop();
+        mRebuildExecutor.shutdownNow();
+    }
+
+    /**
+     * Sets the color of the ink and redraws the strokes.
+     */
+    public void setInkColor(Color color) {
+        synchronized (mLock) {
+            mInkColor = color;
+            dropBuffer();
+        }
+        repaint();
+    }
+
+    public Color getInkColor() {
+        return mInkColor;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        synchronized (mLock) {
+            // Until the rebuilt buffer is ready the component shows the background.
+            if (mBuffer == null || mBuffer.getWidth() != getWidth() || mBuffer.getHeight() != getHeight()) {
+                requestRebuild(getWidth(), getHeight());
+                return;
+            }
+            g.drawImage(mBuffer, clip.x, clip.y, clip.x + clip.width, clip.y + clip.height, clip.x, clip.y, clip.x + clip.width,
+                    clip.y + clip.height, null);
+        }
+    }
+
+    /**
+     * Drops the back buffer so it is rebuilt at the next paint. Called with the lock held.
+     */
+    private void dropBuffer() {
+        mBuffer = null;
+        mBufferGeneration++;
+        mDirty.setBounds(0, 0, 0, 0);
+    }
+
+    /**
+     * Starts rebuilding the back buffer for a size on the background thread, unless a rebuild is already running. Called with the lock
+     * held.
+     */
+    private void requestRebuild(final int width, final int height) {
+        if (mRebuildPending || width <= 0 || height <= 0 || mRebuildExecutor.isShutdown()) return;
+        mRebuildPending = true;
+
+        final int generation = mBufferGeneration;
+        final Color inkColor = mInkColor;
+        mRebuildExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                rebuildBuffer(width, height, generation, inkColor);
+            }
+        });
+    }
+
+    /**
+     * Creates a back buffer and draws every completed stroke into it, then swaps it in with the strokes drawn in the meantime. Runs on the
+     * background thread.
+     */
+    private void rebuildBuffer(int width, int height, int generation, Color inkColor) {
+        // Upright page: the x axis of the digitizer points up, the y axis to the right.
+        float scale = Math.min(width / SyncCaptureReport.MAX_Y, height / SyncCaptureReport.MAX_X);
+        float offsetX = (width - SyncCaptureReport.MAX_Y * scale) / 2;
+        float offsetY = (height - SyncCaptureReport.MAX_X * scale) / 2;
+        AffineTransform transform = new AffineTransform(0, -scale, scale, 0, offsetX, offsetY + SyncCaptureReport.MAX_X * scale);
+        BufferedImage buffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+
+        // Strokes that are already drawn are redrawn at the level of detail that looks the same at this scale.
+        Line2D.Float line = new Line2D.Float();
+        Graphics2D g = createGraphics(buffer, transform, inkColor);
+        int detail = SyncStroke.getDetailLevel(scale);
+        StrokeStore.Snapshot snapshot = mService.getSnapshot();
+        for (SyncStroke stroke : snapshot) drawSegments(g, line, stroke, detail, 1, stroke.getVertexCount(), null);
+
+        synchronized (mLock) {
+            mRebuildPending = false;
+            if (generation != mBufferGeneration || width != getWidth() || height != getHeight()) {
+                // The page was redrawn or resized while rebuilding, paint again to start over.
+                g.dispose();
+                repaint();
+                return;
+            }
+
+            // The strokes completed and the segments added since the snapshot was taken. The stroke in progress may already be completed
+            // in the store before this canvas hears about it, so it is drawn once from the vertices it has.
+            for (SyncStroke stroke : mService.getSnapshot().getChangesSince(snapshot.getVersion())) {
+                if (stroke != mCurrentStroke) drawSegments(g, line, stroke, detail, 1, stroke.getVertexCount(), null);
+            }
+            if (mCurrentStroke != null) {
+                boolean drawn = !snapshot.isEmpty() && snapshot.get(snapshot.size() - 1) == mCurrentStroke;
+                mDrawnCount = mCurrentStroke.getVertexCount();
+                if (!drawn) drawSegments(g, line, mCurrentStroke, 0, 1, mDrawnCount, null);
+            }
+            g.dispose();
+
+            mBuffer = buffer;
+            mTransform = transform;
+            mScale = scale;
+        }
+        repaint();
+    }
+
+    private Graphics2D createGraphics(BufferedImage buffer, AffineTransform transform, Color inkColor) {
+        Graphics2D g = buffer.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        g.setColor(inkColor);
+        g.transform(transform);
+        return g;
+    }
+
+    /**
+     * Draws the segments of the first vertices of a stroke at a level of detail, from the segment ending at the given vertex of the
+     * level on, and adds their bounds in component pixels to a dirty region. The dirty region is only computed with the lock held.
+     */
+    private void drawSegments(Graphics2D g, Line2D.Float line, SyncStroke stroke, int detail, int first, int vertexCount,
+                              Rectangle dirty) {
+        float width = -1;
+        int end = stroke.getDetailVertexCount(detail, vertexCount);
+        int previous = first < end ? stroke.getDetailVertex(detail, Math.max(first, 1) - 1, vertexCount) : 0;
+        for (int i = Math.max(first, 1); i < end; i++) {
+            int vertex = stroke.getDetailVertex(detail, i, vertexCount);
+            if (stroke.getWidth(vertex) != width) {
+                width = stroke.getWidth(vertex);
+                g.setStroke(new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            }
+            line.setLine(stroke.getX(previous), stroke.getY(previous), stroke.getX(vertex), stroke.getY(vertex));
+            g.draw(line);
+            previous = vertex;
+
+            if (dirty != null) {
+                mPoints[0] = line.x1;
+                mPoints[1] = line.y1;
+                mPoints[2] = line.x2;
+                mPoints[3] = line.y2;
+                mTransform.transform(mPoints, 0, mPoints, 0, 2);
+                // Half the line width plus a pixel for the antialiased edge.
+                int pad = (int) Math.ceil(width * mScale / 2) + 1;
+                int x = (int) Math.floor(Math.min(mPoints[0], mPoints[2])) - pad;
+                int y = (int) Math.floor(Math.min(mPoints[1], mPoints[3])) - pad;
+                int w = (int) Math.ceil(Math.abs(mPoints[2] - mPoints[0])) + 2 * pad + 1;
+                int h = (int) Math.ceil(Math.abs(mPoints[3] - mPoints[1])) + 2 * pad + 1;
+                if (dirty.isEmpty()) dirty.setBounds(x, y, w, h);
+                else dirty.add(new Rectangle(x, y, w, h));
+            }
+        }
+    }
+
+    /**
+     * Draws the segments of the stroke in progress that are not in the back buffer yet and schedules a repaint of the part that changed.
+     */
+    private void strokeChanged(SyncStroke stroke, int firstVertex) {
+        synchronized (mLock) {
+            if (stroke != mCurrentStroke) {
+                mCurrentStroke = stroke;
+                mDrawnCount = firstVertex;
+            }
+            int vertexCount = stroke.getVertexCount();
+            int first = Math.max(firstVertex, mDrawnCount);
+            mDrawnCount = vertexCount;
+            if (mBuffer == null || first >= vertexCount) return;
+
+            Graphics2D g = createGraphics(mBuffer, mTransform, mInkColor);
+            drawSegments(g, mLine, stroke, 0, first, vertexCount, mDirty);
+            g.dispose();
+            scheduleFrame();
+        }
+    }
+
+    /**
+     * Draws the last segments of a stroke that was completed.
+     */
+    private void strokeEnded(SyncStroke stroke) {
+        synchronized (mLock) {
+            if (stroke != mCurrentStroke) return;
+            strokeChanged(stroke, mDrawnCount);
+            mCurrentStroke = null;
+        }
+    }
+
+    /**
+     * Makes sure the dirty region gets painted: right away if the last frame was long enough ago, otherwise at the next frame. Called
+     * with the lock held.
+     */
+    private void scheduleFrame() {
+        if (mFramePending) return;
+        mFramePending = true;
+
+        long wait = mLastFrameTime + mFrameNanos - System.nanoTime();
+        if (wait <= 0) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    paintDirtyRegion();
+                }
+            });
+        } else {
+            mFrameTimer.setInitialDelay((int) Math.max(1, wait / 1000000));
+            mFrameTimer.restart();
+        }
+    }
+
+    /**
+     * Paints the collected dirty region. Runs on the event dispatch thread.
+     */
+    private void paintDirtyRegion() {
+        Rectangle dirty;
+        synchronized (mLock) {
+            mFramePending = false;
+            mLastFrameTime = System.nanoTime();
+            if (mDirty.isEmpty()) return;
+            dirty = new Rectangle(mDirty);
+            mDirty.setBounds(0, 0, 0, 0);
+        }
+        if (isShowing()) paintImmediately(dirty);
+    }
+
+    private static int displayRefreshRate() {
+        if (GraphicsEnvironment.isHeadless()) return DEFAULT_REFRESH_RATE;
+        DisplayMode mode = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDisplayMode();
+        int rate = mode.getRefreshRate();
+        return rate == DisplayMode.REFRESH_RATE_UNKNOWN ? DEFAULT_REFRESH_RATE : rate;
+    }
+
+    private class StrokeListener implements SyncStrokeListener {
+        @Override
+        public void onStrokeStart(SyncStroke stroke) {
+            strokeChanged(stroke, 1);
+        }
+
+        @Override
+        public void onStrokeUpdate(SyncStroke stroke, int firstVertex) {
+            strokeChanged(stroke, firstVertex);
+        }
+
+        @Override
+        public void onStrokeEnd(SyncStroke stroke) {
+            strokeEnded(stroke);
+        }
+    }
+
+    private class EraseListener implements SyncStreamingListener {
+        @Override
+        public void onErase() {
+            synchronized (mLock) {
+                dropBuffer();
+            }
+            repaint();
+        }
+
+        @Override
+        public void onStreamingStateChange(int prevState, int newState) {
+        }
+
+        @Override
+        public void onSave() {
+        }
+
+        @Override
+        public void onDrawnPaths(List<SyncPath> paths) {
+        }
+
+        @Override
+        public void onCaptureReport(SyncCaptureReport captureReport) {
+        }
+    }
+}